@@ -0,0 +1,21 @@
+package cn.edu.thssdb.exception;
+
+public class DuplicateIndexException extends RuntimeException {
+  private final String indexName;
+
+  public DuplicateIndexException() {
+    super();
+    indexName = null;
+  }
+
+  public DuplicateIndexException(String name) {
+    super();
+    indexName = name;
+  }
+
+  @Override
+  public String getMessage() {
+    if (indexName == null) return "Exception: create index caused duplicated indexes!";
+    else return "Exception: create index \"" + indexName + "\" caused duplicated indexes!";
+  }
+}
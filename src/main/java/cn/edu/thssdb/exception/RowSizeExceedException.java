@@ -0,0 +1,16 @@
+package cn.edu.thssdb.exception;
+
+/** Thrown to indicate that an encoded row does not fit into a single page. */
+public class RowSizeExceedException extends RuntimeException {
+  private final int size;
+
+  public RowSizeExceedException(int size) {
+    super();
+    this.size = size;
+  }
+
+  @Override
+  public String getMessage() {
+    return "Exception: the row takes " + size + " bytes and does not fit into a page!";
+  }
+}
@@ -4,61 +4,201 @@ import cn.edu.thssdb.utils.Pair;
 
 public final class BPlusTree<K extends Comparable<K>, V> implements Iterable<Pair<K, V>> {
 
-  BPlusTreeNode<K, V> root;
-  private int size;
+  final NodeStore<K, V> store;
+  // bumped by every put and remove, which tells iterators to find their place again
+  int modifications;
 
   public BPlusTree() {
-    root = new BPlusTreeLeafNode<>(0);
+    this(KeyLayout.objects());
+  }
+
+  /** Creates an empty tree in memory whose nodes hold their keys in the layout. */
+  public BPlusTree(KeyLayout<K> keyLayout) {
+    this(new MemoryNodeStore<>(keyLayout));
+  }
+
+  /** Opens the tree kept in a store, creating an empty one if the store has none. */
+  public BPlusTree(NodeStore<K, V> store) {
+    this.store = store;
+    store.enter();
+    try {
+      if (store.getRoot() == 0) {
+        BPlusTreeNode<K, V> root = new BPlusTreeLeafNode<>(0, store);
+        store.register(root);
+        store.setRoot(root.id);
+        store.setSize(0);
+      }
+    } finally {
+      store.exit();
+    }
+  }
+
+  BPlusTreeNode<K, V> root() {
+    return store.node(store.getRoot());
+  }
+
+  /** The leaf of the smallest keys. */
+  BPlusTreeLeafNode<K, V> firstLeaf() {
+    BPlusTreeNode<K, V> node = root();
+    while (node instanceof BPlusTreeInternalNode) {
+      node = ((BPlusTreeInternalNode<K, V>) node).child(0);
+    }
+    return (BPlusTreeLeafNode<K, V>) node;
+  }
+
+  /** The leaf that holds the key, or would hold it if it were put. */
+  BPlusTreeLeafNode<K, V> findLeaf(K key) {
+    BPlusTreeNode<K, V> node = root();
+    while (node instanceof BPlusTreeInternalNode) {
+      node = ((BPlusTreeInternalNode<K, V>) node).searchChild(key);
+    }
+    return (BPlusTreeLeafNode<K, V>) node;
+  }
+
+  /**
+   * The leaf that holds the largest key below the given one, or not above it if inclusive, or null
+   * if there is none. A null key stands above every key.
+   */
+  BPlusTreeLeafNode<K, V> findLeafBelow(K key, boolean inclusive) {
+    return findLeafBelow(root(), key, inclusive);
+  }
+
+  private BPlusTreeLeafNode<K, V> findLeafBelow(
+      BPlusTreeNode<K, V> node, K key, boolean inclusive) {
+    if (node instanceof BPlusTreeLeafNode) {
+      BPlusTreeLeafNode<K, V> leaf = (BPlusTreeLeafNode<K, V>) node;
+      return leaf.floorIndex(key, inclusive) >= 0 ? leaf : null;
+    }
+    BPlusTreeInternalNode<K, V> internal = (BPlusTreeInternalNode<K, V>) node;
+    int child = internal.size();
+    if (key != null) {
+      int index = internal.binarySearch(key);
+      child = index >= 0 ? index + 1 : -index - 1;
+    }
+    // removals leave separators below the keys of a child, which then may have none below the key
+    for (; child >= 0; child--) {
+      BPlusTreeLeafNode<K, V> leaf = findLeafBelow(internal.child(child), key, inclusive);
+      if (leaf != null) return leaf;
+    }
+    return null;
   }
 
   public int size() {
-    return size;
+    return store.getSize();
   }
 
   public V get(K key) {
     if (key == null) throw new IllegalArgumentException("argument key to get() is null");
-    return root.get(key);
+    store.enterShared();
+    try {
+      return root().get(key);
+    } finally {
+      store.exitShared();
+    }
   }
 
+  /** Replaces the value of an existing key in place, leaving the shape of the tree unchanged. */
   public void update(K key, V value) {
-    root.remove(key);
-    root.put(key, value);
+    if (key == null) throw new IllegalArgumentException("argument key to update() is null");
+    store.enter();
+    try {
+      root().update(key, value);
+    } finally {
+      store.exit();
+    }
   }
 
   public void put(K key, V value) {
     if (key == null) throw new IllegalArgumentException("argument key to put() is null");
-    root.put(key, value);
-    size++;
-    checkRoot();
+    store.enter();
+    try {
+      modifications++;
+      BPlusTreeNode<K, V> root = root();
+      root.put(key, value);
+      store.setSize(store.getSize() + 1);
+      checkRoot(root);
+    } finally {
+      store.exit();
+    }
   }
 
   public void remove(K key) {
     if (key == null) throw new IllegalArgumentException("argument key to remove() is null");
-    root.remove(key);
-    size--;
-    if (root instanceof BPlusTreeInternalNode && root.size() == 0) {
-      root = ((BPlusTreeInternalNode<K, V>) root).children.get(0);
+    store.enter();
+    try {
+      modifications++;
+      BPlusTreeNode<K, V> root = root();
+      root.remove(key);
+      store.setSize(store.getSize() - 1);
+      if (root instanceof BPlusTreeInternalNode && root.size() == 0) {
+        store.setRoot(((BPlusTreeInternalNode<K, V>) root).children[0]);
+        store.free(root);
+      }
+    } finally {
+      store.exit();
+    }
+  }
+
+  /**
+   * Returns the value of the key, or else of a key next to where it would be inserted: the closest
+   * smaller key in its leaf, or the smallest key of the leaf if there is none.
+   *
+   * @return null if the tree is empty
+   */
+  public V neighbor(K key) {
+    if (key == null) throw new IllegalArgumentException("argument key to neighbor() is null");
+    store.enterShared();
+    try {
+      return root().neighbor(key);
+    } finally {
+      store.exitShared();
     }
   }
 
   public boolean contains(K key) {
     if (key == null) throw new IllegalArgumentException("argument key to contains() is null");
-    return root.containsKey(key);
+    store.enterShared();
+    try {
+      return root().containsKey(key);
+    } finally {
+      store.exitShared();
+    }
   }
 
-  private void checkRoot() {
+  private void checkRoot(BPlusTreeNode<K, V> root) {
     if (root.isOverFlow()) {
       BPlusTreeNode<K, V> newSiblingNode = root.split();
-      BPlusTreeInternalNode<K, V> newRoot = new BPlusTreeInternalNode<>(1);
+      BPlusTreeInternalNode<K, V> newRoot = new BPlusTreeInternalNode<>(1, store);
       newRoot.keys.set(0, newSiblingNode.getFirstLeafKey());
-      newRoot.children.set(0, root);
-      newRoot.children.set(1, newSiblingNode);
-      root = newRoot;
+      newRoot.children[0] = root.id;
+      newRoot.children[1] = newSiblingNode.id;
+      store.register(newRoot);
+      store.setRoot(newRoot.id);
     }
   }
 
   @Override
   public BPlusTreeIterator<K, V> iterator() {
-    return new BPlusTreeIterator<>(this);
+    return new BPlusTreeIterator<>(this, null, true, null, true, false);
+  }
+
+  /**
+   * Iterates the keys between two bounds in ascending order. A null bound leaves that side open.
+   *
+   * @param fromInclusive whether the lower bound itself is iterated
+   * @param toInclusive whether the upper bound itself is iterated
+   */
+  public BPlusTreeIterator<K, V> iterator(
+      K fromKey, boolean fromInclusive, K toKey, boolean toInclusive) {
+    return new BPlusTreeIterator<>(this, fromKey, fromInclusive, toKey, toInclusive, false);
+  }
+
+  /**
+   * Iterates the keys between two bounds like {@link #iterator(Comparable, boolean, Comparable,
+   * boolean)}, from the upper bound down to the lower one.
+   */
+  public BPlusTreeIterator<K, V> descendingIterator(
+      K fromKey, boolean fromInclusive, K toKey, boolean toInclusive) {
+    return new BPlusTreeIterator<>(this, fromKey, fromInclusive, toKey, toInclusive, true);
   }
 }
@@ -2,29 +2,30 @@ package cn.edu.thssdb.index;
 
 import cn.edu.thssdb.utils.Global;
 
-import java.util.ArrayList;
-import java.util.Collections;
-
 public final class BPlusTreeInternalNode<K extends Comparable<K>, V> extends BPlusTreeNode<K, V> {
 
-  ArrayList<BPlusTreeNode<K, V>> children;
+  int[] children; // ids of the child nodes
 
-  BPlusTreeInternalNode(int size) {
-    keys = new ArrayList<>(Collections.nCopies((int) (1.5 * Global.fanout) + 1, null));
-    children = new ArrayList<>((Collections.nCopies((int) (1.5 * Global.fanout) + 2, null)));
+  BPlusTreeInternalNode(int size, NodeStore<K, V> store) {
+    super(store);
+    children = new int[(int) (1.5 * Global.fanout) + 2];
     this.nodeSize = size;
   }
 
+  BPlusTreeNode<K, V> child(int index) {
+    return store.node(children[index]);
+  }
+
   private void childrenAdd(int index, BPlusTreeNode<K, V> node) {
     for (int i = nodeSize + 1; i > index; i--) {
-      children.set(i, children.get(i - 1));
+      children[i] = children[i - 1];
     }
-    children.set(index, node);
+    children[index] = node.id;
   }
 
   private void childrenRemove(int index) {
     for (int i = index; i < nodeSize; i++) {
-      children.set(i, children.get(i + 1));
+      children[i] = children[i + 1];
     }
   }
 
@@ -38,6 +39,11 @@ public final class BPlusTreeInternalNode<K extends Comparable<K>, V> extends BPl
     return searchChild(key).get(key);
   }
 
+  @Override
+  V neighbor(K key) {
+    return searchChild(key).neighbor(key);
+  }
+
   @Override
   void put(K key, V value) {
     BPlusTreeNode<K, V> child = searchChild(key);
@@ -48,11 +54,16 @@ public final class BPlusTreeInternalNode<K extends Comparable<K>, V> extends BPl
     }
   }
 
+  @Override
+  void update(K key, V value) {
+    searchChild(key).update(key, value);
+  }
+
   @Override
   void remove(K key) {
     int index = binarySearch(key);
     int childIndex = index >= 0 ? index + 1 : -index - 1;
-    BPlusTreeNode<K, V> child = children.get(childIndex);
+    BPlusTreeNode<K, V> child = child(childIndex);
     child.remove(key);
     if (child.isUnderFlow()) {
       BPlusTreeNode<K, V> childLeftSibling = getChildLeftSibling(key);
@@ -67,29 +78,34 @@ public final class BPlusTreeInternalNode<K extends Comparable<K>, V> extends BPl
         assert right != null;
         deleteChild(right.getFirstLeafKey());
       }
+      store.free(right);
       if (left.isOverFlow()) {
         BPlusTreeNode<K, V> newSiblingNode = left.split();
         insertChild(newSiblingNode.getFirstLeafKey(), newSiblingNode);
       }
-    } else if (index >= 0) keys.set(index, children.get(index + 1).getFirstLeafKey());
+      markDirty();
+    } else if (index >= 0) {
+      keys.set(index, child(index + 1).getFirstLeafKey());
+      markDirty();
+    }
   }
 
   @Override
   K getFirstLeafKey() {
-    return children.get(0).getFirstLeafKey();
+    return child(0).getFirstLeafKey();
   }
 
   @Override
   BPlusTreeNode<K, V> split() {
     int from = size() / 2 + 1;
     int to = size();
-    BPlusTreeInternalNode<K, V> newSiblingNode = new BPlusTreeInternalNode<>(to - from);
-    for (int i = 0; i < to - from; i++) {
-      newSiblingNode.keys.set(i, keys.get(i + from));
-      newSiblingNode.children.set(i, children.get(i + from));
-    }
-    newSiblingNode.children.set(to - from, children.get(to));
+    BPlusTreeInternalNode<K, V> newSiblingNode = new BPlusTreeInternalNode<>(to - from, store);
+    keys.copyTo(from, newSiblingNode.keys, 0, to - from);
+    keys.clear(from - 1, to);
+    System.arraycopy(children, from, newSiblingNode.children, 0, to - from + 1);
     this.nodeSize = this.nodeSize - to + from - 1;
+    store.register(newSiblingNode);
+    markDirty();
     return newSiblingNode;
   }
 
@@ -99,28 +115,27 @@ public final class BPlusTreeInternalNode<K extends Comparable<K>, V> extends BPl
     BPlusTreeInternalNode<K, V> node = (BPlusTreeInternalNode<K, V>) sibling;
     int length = node.nodeSize;
     keys.set(index, node.getFirstLeafKey());
-    for (int i = 0; i < length; i++) {
-      keys.set(i + index + 1, node.keys.get(i));
-      children.set(i + index + 1, node.children.get(i));
-    }
-    children.set(length + index + 1, node.children.get(length));
+    node.keys.copyTo(0, keys, index + 1, length);
+    System.arraycopy(node.children, 0, children, index + 1, length + 1);
     nodeSize = index + length + 1;
+    markDirty();
   }
 
-  private BPlusTreeNode<K, V> searchChild(K key) {
+  BPlusTreeNode<K, V> searchChild(K key) {
     int index = binarySearch(key);
-    return children.get(index >= 0 ? index + 1 : -index - 1);
+    return child(index >= 0 ? index + 1 : -index - 1);
   }
 
   private void insertChild(K key, BPlusTreeNode<K, V> child) {
     int index = binarySearch(key);
     int childIndex = index >= 0 ? index + 1 : -index - 1;
     if (index >= 0) {
-      children.set(childIndex, child);
+      children[childIndex] = child.id;
     } else {
       childrenAdd(childIndex + 1, child);
       keysAdd(childIndex, key);
     }
+    markDirty();
   }
 
   private void deleteChild(K key) {
@@ -134,14 +149,14 @@ public final class BPlusTreeInternalNode<K extends Comparable<K>, V> extends BPl
   private BPlusTreeNode<K, V> getChildLeftSibling(K key) {
     int index = binarySearch(key);
     int childIndex = index >= 0 ? index + 1 : -index - 1;
-    if (childIndex > 0) return children.get(childIndex - 1);
+    if (childIndex > 0) return child(childIndex - 1);
     return null;
   }
 
   private BPlusTreeNode<K, V> getChildRightSibling(K key) {
     int index = binarySearch(key);
     int childIndex = index >= 0 ? index + 1 : -index - 1;
-    if (childIndex < size()) return children.get(childIndex + 1);
+    if (childIndex < size()) return child(childIndex + 1);
     return null;
   }
 }
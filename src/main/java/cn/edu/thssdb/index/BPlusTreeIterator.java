@@ -3,39 +3,117 @@ package cn.edu.thssdb.index;
 import cn.edu.thssdb.utils.Pair;
 
 import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.NoSuchElementException;
 
+/**
+ * Walks the leaves of a {@link BPlusTree} in key order along their sibling links, from one bound to
+ * the other. A step reads the next entry of the current leaf, or follows the link to the next leaf,
+ * and allocates nothing: {@link #next} returns the same {@link Pair} every time, filled with the
+ * next entry, so a caller that keeps an entry copies it out first.
+ *
+ * <p>Leaves only link to their right sibling, so a descending walk goes down from the root again to
+ * reach the leaf before the current one, once per leaf.
+ *
+ * <p>If the tree was changed since the last step, the iterator finds its place again by searching
+ * for the key after the last one it returned. A caller may therefore change the tree while it
+ * iterates, for instance remove the key it was just given.
+ */
 public class BPlusTreeIterator<K extends Comparable<K>, V> implements Iterator<Pair<K, V>> {
-  private final LinkedList<BPlusTreeNode<K, V>> queue;
-  private final LinkedList<Pair<K, V>> buffer;
-
-  BPlusTreeIterator(BPlusTree<K, V> tree) {
-    queue = new LinkedList<>();
-    buffer = new LinkedList<>();
-    if (tree.size() == 0) return;
-    queue.add(tree.root);
+  private final BPlusTree<K, V> tree;
+  private final NodeStore<K, V> store;
+  private final boolean descending;
+  // where the walk stops, null if it goes to the end of the tree
+  private final K end;
+  private final boolean endInclusive;
+  private final Pair<K, V> entry = new Pair<>(null, null);
+  // where the walk goes on from: the start bound, then the key returned last
+  private K start;
+  private boolean startInclusive;
+  private BPlusTreeLeafNode<K, V> leaf; // null when the walk is over
+  private int index; // of the next entry in the leaf
+  private int modifications; // of the tree when the position was found
+
+  BPlusTreeIterator(
+      BPlusTree<K, V> tree,
+      K fromKey,
+      boolean fromInclusive,
+      K toKey,
+      boolean toInclusive,
+      boolean descending) {
+    this.tree = tree;
+    this.store = tree.store;
+    this.descending = descending;
+    this.start = descending ? toKey : fromKey;
+    this.startInclusive = descending ? toInclusive : fromInclusive;
+    this.end = descending ? fromKey : toKey;
+    this.endInclusive = descending ? fromInclusive : toInclusive;
+    store.enterShared();
+    try {
+      seek();
+    } finally {
+      store.exitShared();
+    }
   }
 
   @Override
   public boolean hasNext() {
-    return !queue.isEmpty() || !buffer.isEmpty();
+    store.enterShared();
+    try {
+      position();
+      return leaf != null;
+    } finally {
+      store.exitShared();
+    }
   }
 
   @Override
   public Pair<K, V> next() {
-    if (buffer.isEmpty()) {
-      while (true) {
-        BPlusTreeNode<K, V> node = queue.poll();
-        if (node instanceof BPlusTreeLeafNode) {
-          for (int i = 0; i < node.size(); i++)
-            buffer.add(
-                new Pair<>(node.keys.get(i), ((BPlusTreeLeafNode<K, V>) node).values.get(i)));
-          break;
-        } else if (node instanceof BPlusTreeInternalNode)
-          for (int i = 0; i <= node.size(); i++)
-            queue.add(((BPlusTreeInternalNode<K, V>) node).children.get(i));
+    store.enterShared();
+    try {
+      position();
+      if (leaf == null) throw new NoSuchElementException();
+      entry.left = leaf.keys.get(index);
+      entry.right = leaf.values.get(index);
+      index += descending ? -1 : 1;
+      start = entry.left;
+      startInclusive = false;
+      return entry;
+    } finally {
+      store.exitShared();
+    }
+  }
+
+  /** Searches the tree for the first entry from the start on. */
+  private void seek() {
+    modifications = tree.modifications;
+    if (descending) {
+      leaf = tree.findLeafBelow(start, startInclusive);
+      if (leaf != null) index = leaf.floorIndex(start, startInclusive);
+    } else {
+      leaf = start == null ? tree.firstLeaf() : tree.findLeaf(start);
+      index = leaf.ceilingIndex(start, startInclusive);
+    }
+  }
+
+  /** Moves to the entry to be returned next, or ends the walk if there is none. */
+  private void position() {
+    if (modifications != tree.modifications) seek();
+    if (leaf == null) return;
+    if (descending) {
+      // the start is the first key of the leaf, which was returned last
+      if (index < 0) seek();
+    } else {
+      while (leaf != null && index >= leaf.size()) {
+        leaf = leaf.next == 0 ? null : (BPlusTreeLeafNode<K, V>) store.node(leaf.next);
+        index = 0;
       }
     }
-    return buffer.poll();
+    if (leaf != null && end != null && !withinEnd(leaf.keys.get(index))) leaf = null;
+  }
+
+  private boolean withinEnd(K key) {
+    int compared = key.compareTo(end);
+    if (descending) compared = -compared;
+    return endInclusive ? compared <= 0 : compared < 0;
   }
 }
@@ -10,10 +10,10 @@ import java.util.Collections;
 public class BPlusTreeLeafNode<K extends Comparable<K>, V> extends BPlusTreeNode<K, V> {
 
   ArrayList<V> values;
-  private BPlusTreeLeafNode<K, V> next;
+  int next; // id of the right sibling, 0 for the last leaf
 
-  BPlusTreeLeafNode(int size) {
-    keys = new ArrayList<>(Collections.nCopies((int) (1.5 * Global.fanout) + 1, null));
+  BPlusTreeLeafNode(int size, NodeStore<K, V> store) {
+    super(store);
     values = new ArrayList<>(Collections.nCopies((int) (1.5 * Global.fanout) + 1, null));
     nodeSize = size;
   }
@@ -27,6 +27,28 @@ public class BPlusTreeLeafNode<K extends Comparable<K>, V> extends BPlusTreeNode
     for (int i = index; i < nodeSize - 1; i++) values.set(i, values.get(i + 1));
   }
 
+  /**
+   * The index of the smallest key above the given one, or not below it if inclusive; {@link #size}
+   * if there is none. A null key stands below every key.
+   */
+  int ceilingIndex(K key, boolean inclusive) {
+    if (key == null) return 0;
+    int index = binarySearch(key);
+    if (index < 0) return -index - 1;
+    return inclusive ? index : index + 1;
+  }
+
+  /**
+   * The index of the largest key below the given one, or not above it if inclusive; -1 if there is
+   * none. A null key stands above every key.
+   */
+  int floorIndex(K key, boolean inclusive) {
+    if (key == null) return nodeSize - 1;
+    int index = binarySearch(key);
+    if (index < 0) return -index - 2;
+    return inclusive ? index : index - 1;
+  }
+
   @Override
   boolean containsKey(K key) {
     return binarySearch(key) >= 0;
@@ -39,6 +61,14 @@ public class BPlusTreeLeafNode<K extends Comparable<K>, V> extends BPlusTreeNode
     throw new KeyNotExistException();
   }
 
+  @Override
+  V neighbor(K key) {
+    int index = binarySearch(key);
+    if (index >= 0) return values.get(index);
+    if (nodeSize == 0) return null;
+    return values.get(Math.max(0, -index - 2));
+  }
+
   @Override
   void put(K key, V value) {
     int index = binarySearch(key);
@@ -47,15 +77,25 @@ public class BPlusTreeLeafNode<K extends Comparable<K>, V> extends BPlusTreeNode
     else {
       valuesAdd(valueIndex, value);
       keysAdd(valueIndex, key);
+      markDirty();
     }
   }
 
+  @Override
+  void update(K key, V value) {
+    int index = binarySearch(key);
+    if (index < 0) throw new KeyNotExistException();
+    values.set(index, value);
+    markDirty();
+  }
+
   @Override
   void remove(K key) {
     int index = binarySearch(key);
     if (index >= 0) {
       valuesRemove(index);
       keysRemove(index);
+      markDirty();
     } else throw new KeyNotExistException();
   }
 
@@ -68,16 +108,18 @@ public class BPlusTreeLeafNode<K extends Comparable<K>, V> extends BPlusTreeNode
   BPlusTreeNode<K, V> split() {
     int from = (size() + 1) / 2;
     int to = size();
-    BPlusTreeLeafNode<K, V> newSiblingNode = new BPlusTreeLeafNode<>(to - from);
+    BPlusTreeLeafNode<K, V> newSiblingNode = new BPlusTreeLeafNode<>(to - from, store);
+    keys.copyTo(from, newSiblingNode.keys, 0, to - from);
+    keys.clear(from, to);
     for (int i = 0; i < to - from; i++) {
-      newSiblingNode.keys.set(i, keys.get(i + from));
       newSiblingNode.values.set(i, values.get(i + from));
-      keys.set(i + from, null);
       values.set(i + from, null);
     }
     nodeSize = from;
+    store.register(newSiblingNode);
     newSiblingNode.next = next;
-    next = newSiblingNode;
+    next = newSiblingNode.id;
+    markDirty();
     return newSiblingNode;
   }
 
@@ -86,11 +128,10 @@ public class BPlusTreeLeafNode<K extends Comparable<K>, V> extends BPlusTreeNode
     int index = size();
     BPlusTreeLeafNode<K, V> node = (BPlusTreeLeafNode<K, V>) sibling;
     int length = node.size();
-    for (int i = 0; i < length; i++) {
-      keys.set(i + index, node.keys.get(i));
-      values.set(i + index, node.values.get(i));
-    }
+    node.keys.copyTo(0, keys, index, length);
+    for (int i = 0; i < length; i++) values.set(i + index, node.values.get(i));
     nodeSize = index + length;
     next = node.next;
+    markDirty();
   }
 }
@@ -2,17 +2,25 @@ package cn.edu.thssdb.index;
 
 import cn.edu.thssdb.utils.Global;
 
-import java.util.ArrayList;
-import java.util.Collections;
-
 abstract class BPlusTreeNode<K extends Comparable<K>, V> {
-  ArrayList<K> keys;
+  final NodeKeys<K> keys;
   int nodeSize;
+  int id;
+  final NodeStore<K, V> store;
+
+  BPlusTreeNode(NodeStore<K, V> store) {
+    this.store = store;
+    this.keys = store.getKeyLayout().allocate((int) (1.5 * Global.fanout) + 1);
+  }
 
   abstract V get(K key);
 
+  abstract V neighbor(K key);
+
   abstract void put(K key, V value);
 
+  abstract void update(K key, V value);
+
   abstract void remove(K key);
 
   abstract boolean containsKey(K key);
@@ -36,21 +44,21 @@ abstract class BPlusTreeNode<K extends Comparable<K>, V> {
   }
 
   int binarySearch(K key) {
-    return Collections.binarySearch(keys.subList(0, nodeSize), key);
+    return keys.search(nodeSize, key);
   }
 
   void keysAdd(int index, K key) {
-    for (int i = nodeSize; i > index; i--) {
-      keys.set(i, keys.get(i - 1));
-    }
+    keys.move(index, index + 1, nodeSize - index);
     keys.set(index, key);
     nodeSize++;
   }
 
   void keysRemove(int index) {
-    for (int i = index; i < nodeSize - 1; i++) {
-      keys.set(i, keys.get(i + 1));
-    }
+    keys.move(index + 1, index, nodeSize - index - 1);
     nodeSize--;
   }
+
+  void markDirty() {
+    store.markDirty(this);
+  }
 }
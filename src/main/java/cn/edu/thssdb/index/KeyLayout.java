@@ -0,0 +1,45 @@
+package cn.edu.thssdb.index;
+
+import java.util.function.IntFunction;
+import java.util.function.LongFunction;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * How the nodes of a {@link BPlusTree} hold their keys: as objects, or as ints or longs for keys
+ * that stand for one, which their nodes keep in primitive arrays. A tree keeps its layout in its
+ * {@link NodeStore}.
+ */
+public final class KeyLayout<K extends Comparable<K>> {
+  private final IntFunction<NodeKeys<K>> allocator;
+
+  private KeyLayout(IntFunction<NodeKeys<K>> allocator) {
+    this.allocator = allocator;
+  }
+
+  /** Keys kept as they are. */
+  public static <K extends Comparable<K>> KeyLayout<K> objects() {
+    return new KeyLayout<>(NodeKeys.ObjectKeys::new);
+  }
+
+  /**
+   * Keys kept as ints. Two keys must compare like their ints.
+   *
+   * @param toInt the int of a key
+   * @param fromInt the key of an int
+   */
+  public static <K extends Comparable<K>> KeyLayout<K> ints(
+      ToIntFunction<K> toInt, IntFunction<K> fromInt) {
+    return new KeyLayout<>(capacity -> new NodeKeys.IntKeys<>(capacity, toInt, fromInt));
+  }
+
+  /** Keys kept as longs, like {@link #ints}. */
+  public static <K extends Comparable<K>> KeyLayout<K> longs(
+      ToLongFunction<K> toLong, LongFunction<K> fromLong) {
+    return new KeyLayout<>(capacity -> new NodeKeys.LongKeys<>(capacity, toLong, fromLong));
+  }
+
+  NodeKeys<K> allocate(int capacity) {
+    return allocator.apply(capacity);
+  }
+}
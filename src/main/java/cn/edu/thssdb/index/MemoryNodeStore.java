@@ -0,0 +1,74 @@
+package cn.edu.thssdb.index;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+/** Keeps every node on the heap; the default store of a {@link BPlusTree}. */
+final class MemoryNodeStore<K extends Comparable<K>, V> implements NodeStore<K, V> {
+  private final ArrayList<BPlusTreeNode<K, V>> nodes = new ArrayList<>();
+  private final ArrayDeque<Integer> freeIds = new ArrayDeque<>();
+  private final KeyLayout<K> keyLayout;
+  private int root = 0;
+  private int size = 0;
+
+  MemoryNodeStore(KeyLayout<K> keyLayout) {
+    this.keyLayout = keyLayout;
+    nodes.add(null); // id 0 is never used
+  }
+
+  @Override
+  public KeyLayout<K> getKeyLayout() {
+    return keyLayout;
+  }
+
+  @Override
+  public BPlusTreeNode<K, V> node(int id) {
+    return nodes.get(id);
+  }
+
+  @Override
+  public void register(BPlusTreeNode<K, V> node) {
+    if (freeIds.isEmpty()) {
+      node.id = nodes.size();
+      nodes.add(node);
+    } else {
+      node.id = freeIds.pop();
+      nodes.set(node.id, node);
+    }
+  }
+
+  @Override
+  public void free(BPlusTreeNode<K, V> node) {
+    nodes.set(node.id, null);
+    freeIds.push(node.id);
+  }
+
+  @Override
+  public void markDirty(BPlusTreeNode<K, V> node) {}
+
+  @Override
+  public int getRoot() {
+    return root;
+  }
+
+  @Override
+  public void setRoot(int id) {
+    root = id;
+  }
+
+  @Override
+  public int getSize() {
+    return size;
+  }
+
+  @Override
+  public void setSize(int size) {
+    this.size = size;
+  }
+
+  @Override
+  public void enter() {}
+
+  @Override
+  public void exit() {}
+}
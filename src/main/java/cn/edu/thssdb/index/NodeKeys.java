@@ -0,0 +1,186 @@
+package cn.edu.thssdb.index;
+
+import java.util.Arrays;
+import java.util.function.IntFunction;
+import java.util.function.LongFunction;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * The key slots of a {@link BPlusTreeNode}. Besides an array of objects, keys that stand for ints
+ * or longs are kept in a primitive array, which takes a fraction of the memory, and searched
+ * without calling {@link Comparable#compareTo} on boxed keys. The keys are turned back into objects
+ * only when they are read out.
+ */
+abstract class NodeKeys<K extends Comparable<K>> {
+
+  abstract K get(int index);
+
+  abstract void set(int index, K key);
+
+  /**
+   * Searches the first keys like {@link java.util.Collections#binarySearch}.
+   *
+   * @return the index of the key, or {@code -(insertion point) - 1} if it is not among them
+   */
+  abstract int search(int size, K key);
+
+  /** Moves keys within the slots like {@link System#arraycopy}. */
+  abstract void move(int from, int to, int length);
+
+  /** Copies keys into the slots of another node of the same tree. */
+  abstract void copyTo(int from, NodeKeys<K> target, int to, int length);
+
+  /** Drops the keys of a range of slots, so that they are not kept alive. */
+  abstract void clear(int from, int to);
+
+  static final class ObjectKeys<K extends Comparable<K>> extends NodeKeys<K> {
+    private final Object[] keys;
+
+    ObjectKeys(int capacity) {
+      keys = new Object[capacity];
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    K get(int index) {
+      return (K) keys[index];
+    }
+
+    @Override
+    void set(int index, K key) {
+      keys[index] = key;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    int search(int size, K key) {
+      int low = 0;
+      int high = size - 1;
+      while (low <= high) {
+        int middle = (low + high) >>> 1;
+        int comparison = ((K) keys[middle]).compareTo(key);
+        if (comparison < 0) low = middle + 1;
+        else if (comparison > 0) high = middle - 1;
+        else return middle;
+      }
+      return -low - 1;
+    }
+
+    @Override
+    void move(int from, int to, int length) {
+      System.arraycopy(keys, from, keys, to, length);
+    }
+
+    @Override
+    void copyTo(int from, NodeKeys<K> target, int to, int length) {
+      System.arraycopy(keys, from, ((ObjectKeys<K>) target).keys, to, length);
+    }
+
+    @Override
+    void clear(int from, int to) {
+      Arrays.fill(keys, from, to, null);
+    }
+  }
+
+  static final class IntKeys<K extends Comparable<K>> extends NodeKeys<K> {
+    private final int[] keys;
+    private final ToIntFunction<K> toInt;
+    private final IntFunction<K> fromInt;
+
+    IntKeys(int capacity, ToIntFunction<K> toInt, IntFunction<K> fromInt) {
+      this.keys = new int[capacity];
+      this.toInt = toInt;
+      this.fromInt = fromInt;
+    }
+
+    @Override
+    K get(int index) {
+      return fromInt.apply(keys[index]);
+    }
+
+    @Override
+    void set(int index, K key) {
+      keys[index] = toInt.applyAsInt(key);
+    }
+
+    /**
+     * Halves the range of the insertion point with a conditional move and no early exit, so that
+     * the loop runs the same number of times for every key and has no branch to mispredict.
+     */
+    @Override
+    int search(int size, K key) {
+      if (size == 0) return -1;
+      int probe = toInt.applyAsInt(key);
+      int base = 0;
+      for (int n = size; n > 1; n -= n >>> 1) {
+        int half = n >>> 1;
+        base = keys[base + half - 1] < probe ? base + half : base;
+      }
+      int index = keys[base] < probe ? base + 1 : base;
+      return index < size && keys[index] == probe ? index : -index - 1;
+    }
+
+    @Override
+    void move(int from, int to, int length) {
+      System.arraycopy(keys, from, keys, to, length);
+    }
+
+    @Override
+    void copyTo(int from, NodeKeys<K> target, int to, int length) {
+      System.arraycopy(keys, from, ((IntKeys<K>) target).keys, to, length);
+    }
+
+    @Override
+    void clear(int from, int to) {}
+  }
+
+  static final class LongKeys<K extends Comparable<K>> extends NodeKeys<K> {
+    private final long[] keys;
+    private final ToLongFunction<K> toLong;
+    private final LongFunction<K> fromLong;
+
+    LongKeys(int capacity, ToLongFunction<K> toLong, LongFunction<K> fromLong) {
+      this.keys = new long[capacity];
+      this.toLong = toLong;
+      this.fromLong = fromLong;
+    }
+
+    @Override
+    K get(int index) {
+      return fromLong.apply(keys[index]);
+    }
+
+    @Override
+    void set(int index, K key) {
+      keys[index] = toLong.applyAsLong(key);
+    }
+
+    /** Searches like {@link IntKeys#search}. */
+    @Override
+    int search(int size, K key) {
+      if (size == 0) return -1;
+      long probe = toLong.applyAsLong(key);
+      int base = 0;
+      for (int n = size; n > 1; n -= n >>> 1) {
+        int half = n >>> 1;
+        base = keys[base + half - 1] < probe ? base + half : base;
+      }
+      int index = keys[base] < probe ? base + 1 : base;
+      return index < size && keys[index] == probe ? index : -index - 1;
+    }
+
+    @Override
+    void move(int from, int to, int length) {
+      System.arraycopy(keys, from, keys, to, length);
+    }
+
+    @Override
+    void copyTo(int from, NodeKeys<K> target, int to, int length) {
+      System.arraycopy(keys, from, ((LongKeys<K>) target).keys, to, length);
+    }
+
+    @Override
+    void clear(int from, int to) {}
+  }
+}
@@ -0,0 +1,51 @@
+package cn.edu.thssdb.index;
+
+/**
+ * Where the nodes of a {@link BPlusTree} live. Nodes refer to each other by id, so a store can keep
+ * only part of a tree in memory and read the rest on demand.
+ *
+ * <p>The tree brackets every operation with {@link #enter} and {@link #exit}, or {@link
+ * #enterShared} and {@link #exitShared} if it only reads. A store may rely on this to keep the
+ * nodes an operation is working on from being written out or dropped halfway.
+ */
+public interface NodeStore<K extends Comparable<K>, V> {
+  /** Returns the node with the given id, reading it if necessary. */
+  BPlusTreeNode<K, V> node(int id);
+
+  /** Gives a new node an id. The node counts as modified. */
+  void register(BPlusTreeNode<K, V> node);
+
+  /** How the nodes of the tree hold their keys. */
+  KeyLayout<K> getKeyLayout();
+
+  /** Releases the id of a node that is no longer part of the tree. */
+  void free(BPlusTreeNode<K, V> node);
+
+  /** Records that a node was changed. */
+  void markDirty(BPlusTreeNode<K, V> node);
+
+  /** Id of the root node, or 0 for a store that has no tree yet. */
+  int getRoot();
+
+  void setRoot(int id);
+
+  int getSize();
+
+  void setSize(int size);
+
+  void enter();
+
+  void exit();
+
+  /**
+   * Brackets an operation that only reads the tree, which a store may let run alongside other
+   * reads. By default it is bracketed like any other.
+   */
+  default void enterShared() {
+    enter();
+  }
+
+  default void exitShared() {
+    exit();
+  }
+}
@@ -0,0 +1,402 @@
+package cn.edu.thssdb.index;
+
+import cn.edu.thssdb.storage.BufferPool;
+import cn.edu.thssdb.storage.Page;
+import cn.edu.thssdb.storage.PageOwner;
+import cn.edu.thssdb.storage.TableSpace;
+import cn.edu.thssdb.utils.Global;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Keeps the nodes of a {@link BPlusTree} in a paged file and caches them in the {@link BufferPool}.
+ *
+ * <p>Page 1 of the file is the meta page: the sizes of keys and values, root, size, next unused id
+ * and the ids of freed nodes. A file written for other key or value types is not trusted. Every
+ * node takes a fixed extent of {@code pagesPerNode} pages after it, large enough for a full node,
+ * and counts as one frame of the pool. A node that is evicted is written back if dirty and read
+ * again the next time the tree reaches it, so only the nodes in use stay in memory.
+ *
+ * <p>The meta page records whether the file matches the tree. It is marked unclean on the first
+ * change after {@link #save}, so after a crash {@link #isTrusted} is false and the owner rebuilds
+ * the tree from its data.
+ *
+ * <p>The store shares the latch of its owner. Operations that only read the tree hold it shared and
+ * run in parallel; a node one of them does not find cached is read under a lock of its own, so that
+ * it is read once. Operations that change the tree hold the latch exclusively. A node is never
+ * evicted while a tree operation is running, because the operation may still hold references to the
+ * nodes above it.
+ */
+public class PagedNodeStore<K extends Comparable<K>, V> implements NodeStore<K, V>, PageOwner {
+  private static final int MAGIC = 0x49445831; // "IDX1"
+  private static final int VERSION = 2;
+  private static final int META_PAGE = 1;
+  private static final int META_HEADER = 40;
+  private static final int MAX_FREE_IDS = (Page.PAGE_SIZE - META_HEADER) / 4;
+  private static final int NODE_HEADER = 9; // type, size and next leaf
+  private static final byte LEAF = 1;
+  private static final byte INTERNAL = 2;
+
+  private static final class NodeFrame<K extends Comparable<K>, V> extends Page {
+    final BPlusTreeNode<K, V> node;
+
+    NodeFrame(BPlusTreeNode<K, V> node, PageOwner owner) {
+      super(node.id, owner);
+      this.node = node;
+    }
+  }
+
+  private final TableSpace space;
+  private final Serializer<K> keySerializer;
+  private final Serializer<V> valueSerializer;
+  private final KeyLayout<K> keyLayout;
+  private final int pagesPerNode;
+  private final ReentrantReadWriteLock latch;
+  private final BufferPool pool;
+  private final ConcurrentHashMap<Integer, NodeFrame<K, V>> frames = new ConcurrentHashMap<>();
+  private final Object loading = new Object(); // held while a node missing from memory is read
+  private final ArrayDeque<Integer> freeIds = new ArrayDeque<>();
+  private int root;
+  private volatile int size;
+  private int nextId;
+  private boolean trusted;
+  private boolean cleanOnDisk;
+  private int busy = 0; // depth of the changing tree operations running on the latch holder
+
+  public PagedNodeStore(
+      String fileName,
+      Serializer<K> keySerializer,
+      Serializer<V> valueSerializer,
+      ReentrantReadWriteLock latch) {
+    this(fileName, keySerializer, valueSerializer, KeyLayout.objects(), latch);
+  }
+
+  public PagedNodeStore(
+      String fileName,
+      Serializer<K> keySerializer,
+      Serializer<V> valueSerializer,
+      KeyLayout<K> keyLayout,
+      ReentrantReadWriteLock latch) {
+    this.space = new TableSpace(fileName);
+    this.keySerializer = keySerializer;
+    this.keyLayout = keyLayout;
+    this.valueSerializer = valueSerializer;
+    this.latch = latch;
+    this.pool = BufferPool.getInstance();
+    int entryBytes = keySerializer.maxBytes() + Math.max(valueSerializer.maxBytes(), 4);
+    this.pagesPerNode =
+        (NODE_HEADER + Global.fanout * entryBytes + 4 + Page.PAGE_SIZE - 1) / Page.PAGE_SIZE;
+    this.trusted = readMeta();
+    if (!trusted) reset();
+    this.cleanOnDisk = trusted;
+  }
+
+  /** Whether the file held a tree that was saved after its last change. */
+  public boolean isTrusted() {
+    return trusted;
+  }
+
+  /** Called inside a tree operation, which holds the latch at least shared. */
+  @Override
+  public BPlusTreeNode<K, V> node(int id) {
+    NodeFrame<K, V> frame = frames.get(id);
+    if (frame == null) {
+      synchronized (loading) {
+        frame = frames.get(id);
+        if (frame == null) {
+          BPlusTreeNode<K, V> node = readNode(id);
+          admit(node);
+          return node;
+        }
+      }
+    }
+    pool.access(frame, false);
+    return frame.node;
+  }
+
+  @Override
+  public KeyLayout<K> getKeyLayout() {
+    return keyLayout;
+  }
+
+  @Override
+  public void register(BPlusTreeNode<K, V> node) {
+    latch.writeLock().lock();
+    try {
+      node.id = freeIds.isEmpty() ? nextId++ : freeIds.pop();
+      admit(node);
+      markDirty(node);
+    } finally {
+      latch.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public void free(BPlusTreeNode<K, V> node) {
+    latch.writeLock().lock();
+    try {
+      NodeFrame<K, V> frame = frames.remove(node.id);
+      if (frame != null) {
+        pool.release(frame);
+        if (frame.getEdit()) pool.pageCleaned();
+      }
+      freeIds.push(node.id);
+      modified();
+    } finally {
+      latch.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public void markDirty(BPlusTreeNode<K, V> node) {
+    latch.writeLock().lock();
+    try {
+      NodeFrame<K, V> frame = frames.get(node.id);
+      if (frame != null && !frame.getEdit()) {
+        frame.setEdit(true);
+        pool.pageDirtied();
+      }
+      modified();
+    } finally {
+      latch.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public int getRoot() {
+    return root;
+  }
+
+  @Override
+  public void setRoot(int id) {
+    root = id;
+    modified();
+  }
+
+  @Override
+  public int getSize() {
+    return size;
+  }
+
+  @Override
+  public void setSize(int size) {
+    this.size = size;
+    modified();
+  }
+
+  @Override
+  public void enter() {
+    latch.writeLock().lock();
+    busy++;
+  }
+
+  @Override
+  public void exit() {
+    busy--;
+    latch.writeLock().unlock();
+  }
+
+  @Override
+  public void enterShared() {
+    latch.readLock().lock();
+  }
+
+  @Override
+  public void exitShared() {
+    latch.readLock().unlock();
+  }
+
+  /**
+   * Called by the buffer pool to take a node out of memory.
+   *
+   * @return false if a tree operation is running or the node is no longer cached
+   */
+  @Override
+  public boolean evict(Page page) {
+    if (!latch.writeLock().tryLock()) return false;
+    try {
+      if (busy > 0 || frames.get(page.getId()) != page) return false;
+      if (page.getEdit()) writeNode((NodeFrame<K, V>) page);
+      frames.remove(page.getId());
+      return true;
+    } finally {
+      latch.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public boolean flush(Page page) {
+    latch.writeLock().lock();
+    try {
+      if (busy > 0 || frames.get(page.getId()) != page || !page.getEdit()) return false;
+      writeNode((NodeFrame<K, V>) page);
+      return true;
+    } finally {
+      latch.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Writes every dirty node and then a meta page that marks the file clean. Nothing is written if
+   * the tree did not change since the last save.
+   */
+  public void save() {
+    latch.writeLock().lock();
+    try {
+      if (cleanOnDisk) return;
+      for (NodeFrame<K, V> frame : frames.values()) {
+        if (frame.getEdit()) writeNode(frame);
+      }
+      writeMeta(true);
+      cleanOnDisk = true;
+    } finally {
+      latch.writeLock().unlock();
+    }
+  }
+
+  /** Forgets every node so that the tree can be rebuilt from scratch. */
+  public void clear() {
+    latch.writeLock().lock();
+    try {
+      releaseFrames();
+      reset();
+      modified();
+    } finally {
+      latch.writeLock().unlock();
+    }
+  }
+
+  /** Releases the cached nodes and deletes the file. */
+  public void drop() {
+    latch.writeLock().lock();
+    try {
+      releaseFrames();
+      space.drop();
+    } finally {
+      latch.writeLock().unlock();
+    }
+  }
+
+  private void releaseFrames() {
+    for (NodeFrame<K, V> frame : frames.values()) {
+      pool.release(frame);
+      if (frame.getEdit()) pool.pageCleaned();
+    }
+    frames.clear();
+  }
+
+  private void reset() {
+    root = 0;
+    size = 0;
+    nextId = 1;
+    freeIds.clear();
+  }
+
+  private void admit(BPlusTreeNode<K, V> node) {
+    NodeFrame<K, V> frame = new NodeFrame<>(node, this);
+    pool.admit(frame, false);
+    frames.put(node.id, frame);
+  }
+
+  /** Marks the file unclean before the first change after it was saved. */
+  private void modified() {
+    if (cleanOnDisk) {
+      cleanOnDisk = false;
+      writeMeta(false);
+    }
+  }
+
+  private int firstPage(int id) {
+    return META_PAGE + 1 + (id - 1) * pagesPerNode;
+  }
+
+  private void writeNode(NodeFrame<K, V> frame) {
+    modified();
+    BPlusTreeNode<K, V> node = frame.node;
+    ByteBuffer buffer = ByteBuffer.allocate(pagesPerNode * Page.PAGE_SIZE);
+    buffer.put(node instanceof BPlusTreeLeafNode ? LEAF : INTERNAL);
+    buffer.putInt(node.nodeSize);
+    if (node instanceof BPlusTreeLeafNode) {
+      BPlusTreeLeafNode<K, V> leaf = (BPlusTreeLeafNode<K, V>) node;
+      buffer.putInt(leaf.next);
+      for (int i = 0; i < leaf.nodeSize; i++) keySerializer.write(buffer, leaf.keys.get(i));
+      for (int i = 0; i < leaf.nodeSize; i++) valueSerializer.write(buffer, leaf.values.get(i));
+    } else {
+      BPlusTreeInternalNode<K, V> internal = (BPlusTreeInternalNode<K, V>) node;
+      buffer.putInt(0);
+      for (int i = 0; i < internal.nodeSize; i++) keySerializer.write(buffer, internal.keys.get(i));
+      for (int i = 0; i <= internal.nodeSize; i++) buffer.putInt(internal.children[i]);
+    }
+    int first = firstPage(node.id);
+    for (int i = 0; i < pagesPerNode; i++) {
+      buffer.clear();
+      buffer.position(i * Page.PAGE_SIZE);
+      buffer.limit((i + 1) * Page.PAGE_SIZE);
+      space.writePage(first + i, buffer.slice());
+    }
+    if (frame.getEdit()) pool.pageCleaned();
+    frame.setEdit(false);
+  }
+
+  private BPlusTreeNode<K, V> readNode(int id) {
+    ByteBuffer buffer = ByteBuffer.allocate(pagesPerNode * Page.PAGE_SIZE);
+    int first = firstPage(id);
+    for (int i = 0; i < pagesPerNode; i++) buffer.put(space.readPage(first + i));
+    buffer.flip();
+    byte type = buffer.get();
+    int nodeSize = buffer.getInt();
+    int next = buffer.getInt();
+    BPlusTreeNode<K, V> node;
+    if (type == LEAF) {
+      BPlusTreeLeafNode<K, V> leaf = new BPlusTreeLeafNode<>(nodeSize, this);
+      leaf.next = next;
+      for (int i = 0; i < nodeSize; i++) leaf.keys.set(i, keySerializer.read(buffer));
+      for (int i = 0; i < nodeSize; i++) leaf.values.set(i, valueSerializer.read(buffer));
+      node = leaf;
+    } else if (type == INTERNAL) {
+      BPlusTreeInternalNode<K, V> internal = new BPlusTreeInternalNode<>(nodeSize, this);
+      for (int i = 0; i < nodeSize; i++) internal.keys.set(i, keySerializer.read(buffer));
+      for (int i = 0; i <= nodeSize; i++) internal.children[i] = buffer.getInt();
+      node = internal;
+    } else {
+      throw new IllegalStateException("index node " + id + " is corrupted");
+    }
+    node.id = id;
+    return node;
+  }
+
+  private void writeMeta(boolean clean) {
+    ByteBuffer buffer = ByteBuffer.allocate(Page.PAGE_SIZE);
+    buffer.putInt(MAGIC).putInt(VERSION).putInt(clean ? 1 : 0).putInt(pagesPerNode);
+    buffer.putInt(keySerializer.maxBytes()).putInt(valueSerializer.maxBytes());
+    buffer.putInt(root).putInt(size).putInt(nextId);
+    // ids beyond what fits are not reused after a restart
+    ArrayList<Integer> ids = new ArrayList<>(freeIds);
+    int count = Math.min(ids.size(), MAX_FREE_IDS);
+    buffer.putInt(count);
+    for (int i = 0; i < count; i++) buffer.putInt(ids.get(i));
+    buffer.clear();
+    space.writePage(META_PAGE, buffer);
+  }
+
+  private boolean readMeta() {
+    if (space.getPageCount() < META_PAGE) return false;
+    ByteBuffer buffer = space.readPage(META_PAGE);
+    int base = buffer.position();
+    if (buffer.getInt(base) != MAGIC || buffer.getInt(base + 4) != VERSION) return false;
+    if (buffer.getInt(base + 8) != 1 || buffer.getInt(base + 12) != pagesPerNode) return false;
+    if (buffer.getInt(base + 16) != keySerializer.maxBytes()) return false;
+    if (buffer.getInt(base + 20) != valueSerializer.maxBytes()) return false;
+    root = buffer.getInt(base + 24);
+    size = buffer.getInt(base + 28);
+    nextId = buffer.getInt(base + 32);
+    int count = buffer.getInt(base + 36);
+    freeIds.clear();
+    for (int i = 0; i < count; i++) freeIds.add(buffer.getInt(base + META_HEADER + 4 * i));
+    return true;
+  }
+}
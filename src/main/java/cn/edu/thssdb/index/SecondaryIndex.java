@@ -0,0 +1,167 @@
+package cn.edu.thssdb.index;
+
+import cn.edu.thssdb.schema.Column;
+import cn.edu.thssdb.schema.Entry;
+import cn.edu.thssdb.storage.EntrySerializer;
+import cn.edu.thssdb.storage.KeyRange;
+import cn.edu.thssdb.utils.Pair;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * An index of one column that leads from its values to the primary keys of the rows holding them.
+ * Several rows may share a value, so the tree is keyed by the value and the primary key together.
+ * Nulls are left out, since no comparison selects them.
+ *
+ * <p>The tree of a table keeps its nodes in a {@link PagedNodeStore} like the primary index, and is
+ * saved with the pages of the table at a checkpoint. A file that was changed after its last save is
+ * not trusted, and the table fills the index again from its rows. The table keeps it in step with
+ * its rows under its write lock.
+ */
+public class SecondaryIndex {
+  private final String name;
+  private final int column;
+  private final PagedNodeStore<Key, Entry> store; // null for an index kept in memory
+  private BPlusTree<Key, Entry> tree;
+
+  /** Creates an empty index kept in memory. */
+  public SecondaryIndex(String name, int column) {
+    this.name = name;
+    this.column = column;
+    this.store = null;
+    this.tree = new BPlusTree<>();
+  }
+
+  /**
+   * Opens the index kept in a file, creating an empty one if the file holds none.
+   *
+   * @param value the column the index covers
+   * @param primary the primary key column of the table
+   */
+  public SecondaryIndex(String name, int column, String fileName, Column value, Column primary) {
+    this.name = name;
+    this.column = column;
+    this.store =
+        new PagedNodeStore<>(
+            fileName,
+            new KeySerializer(new EntrySerializer(value), new EntrySerializer(primary)),
+            new EntrySerializer(primary),
+            new ReentrantReadWriteLock());
+    this.tree = new BPlusTree<>(store);
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /** The index of the column in the table. */
+  public int getColumn() {
+    return column;
+  }
+
+  public void put(Entry value, Entry primary) {
+    if (value.value != null) tree.put(new Key(value, primary, 0), primary);
+  }
+
+  public void remove(Entry value, Entry primary) {
+    if (value.value != null) tree.remove(new Key(value, primary, 0));
+  }
+
+  /**
+   * The primary keys of the rows whose value lies in the range, in order of value.
+   *
+   * @param values a range of values of the column
+   */
+  public ArrayList<Entry> find(KeyRange values) {
+    // a missing primary key stands below or above every other key of the same value
+    Key from =
+        values.from == null ? null : new Key(values.from, null, values.fromInclusive ? -1 : 1);
+    Key to = values.to == null ? null : new Key(values.to, null, values.toInclusive ? 1 : -1);
+    ArrayList<Entry> primaries = new ArrayList<>();
+    Iterator<Pair<Key, Entry>> iterator = tree.iterator(from, false, to, false);
+    while (iterator.hasNext()) primaries.add(iterator.next().right);
+    return primaries;
+  }
+
+  public int size() {
+    return tree.size();
+  }
+
+  /** Whether the index was read from a file that was saved after its last change. */
+  public boolean isTrusted() {
+    return store != null && store.isTrusted();
+  }
+
+  /** Empties the index, so that it can be filled again from the rows of the table. */
+  public void clear() {
+    if (store == null) {
+      tree = new BPlusTree<>();
+    } else {
+      store.clear();
+      tree = new BPlusTree<>(store);
+    }
+  }
+
+  /** Writes the changed nodes to the file and marks it clean. */
+  public void persist() {
+    if (store != null) store.save();
+  }
+
+  /** Releases the cached nodes and deletes the file. */
+  public void drop() {
+    if (store != null) store.drop();
+  }
+
+  /** A value of the column together with the primary key of a row holding it. */
+  static class Key implements Comparable<Key> {
+    private final Entry value;
+    private final Entry primary; // null in the bounds of a search
+    private final int
+        side; // where a bound without a primary key stands among the keys of its value
+
+    Key(Entry value, Entry primary, int side) {
+      this.value = value;
+      this.primary = primary;
+      this.side = side;
+    }
+
+    @Override
+    public int compareTo(Key other) {
+      int comparison = value.compareTo(other.value);
+      if (comparison != 0) return comparison;
+      if (primary == null || other.primary == null) return Integer.compare(side, other.side);
+      return primary.compareTo(other.primary);
+    }
+  }
+
+  /** Binary form of the keys of the tree: the value and then the primary key. */
+  private static class KeySerializer implements Serializer<Key> {
+    private final Serializer<Entry> value;
+    private final Serializer<Entry> primary;
+
+    KeySerializer(Serializer<Entry> value, Serializer<Entry> primary) {
+      this.value = value;
+      this.primary = primary;
+    }
+
+    @Override
+    public int maxBytes() {
+      return value.maxBytes() + primary.maxBytes();
+    }
+
+    @Override
+    public void write(ByteBuffer buffer, Key key) {
+      value.write(buffer, key.value);
+      primary.write(buffer, key.primary);
+    }
+
+    @Override
+    public Key read(ByteBuffer buffer) {
+      Entry read = value.read(buffer);
+      return new Key(read, primary.read(buffer), 0);
+    }
+  }
+}
@@ -0,0 +1,49 @@
+package cn.edu.thssdb.index;
+
+import java.nio.ByteBuffer;
+
+/** Fixed-bound binary form of the keys or values of a tree kept in a {@link PagedNodeStore}. */
+public interface Serializer<T> {
+  /** Upper bound on the number of bytes {@link #write} produces. */
+  int maxBytes();
+
+  void write(ByteBuffer buffer, T value);
+
+  T read(ByteBuffer buffer);
+
+  Serializer<Integer> INTEGER =
+      new Serializer<Integer>() {
+        @Override
+        public int maxBytes() {
+          return 4;
+        }
+
+        @Override
+        public void write(ByteBuffer buffer, Integer value) {
+          buffer.putInt(value);
+        }
+
+        @Override
+        public Integer read(ByteBuffer buffer) {
+          return buffer.getInt();
+        }
+      };
+
+  Serializer<Long> LONG =
+      new Serializer<Long>() {
+        @Override
+        public int maxBytes() {
+          return 8;
+        }
+
+        @Override
+        public void write(ByteBuffer buffer, Long value) {
+          buffer.putLong(value);
+        }
+
+        @Override
+        public Long read(ByteBuffer buffer) {
+          return buffer.getLong();
+        }
+      };
+}
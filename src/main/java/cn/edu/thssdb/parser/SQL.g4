@@ -19,6 +19,8 @@ sqlStmt :
     | dropUserStmt
     | deleteStmt
     | dropTableStmt
+    | createIndexStmt
+    | dropIndexStmt
     | insertStmt
     | selectStmt
     | createViewStmt
@@ -28,6 +30,7 @@ sqlStmt :
     | useDbStmt
     | showDbStmt
     | showTableStmt
+    | vacuumStmt
     | quitStmt
     | updateStmt
     | beginTransactionStmt
@@ -49,7 +52,8 @@ dropUserStmt :
 
 createTableStmt :
     K_CREATE K_TABLE tableName
-        '(' columnDef ( ',' columnDef )* ( ',' tableConstraint )? ')' ;
+        '(' columnDef ( ',' columnDef )* ( ',' tableConstraint )? ')'
+        ( K_ENGINE '=' engineName )? ( K_COMPRESSION '=' compressionName )? ;
 
 grantStmt :
     K_GRANT authLevel ( ',' authLevel )* K_ON tableName K_TO userName ;
@@ -66,6 +70,12 @@ deleteStmt :
 dropTableStmt :
     K_DROP K_TABLE ( K_IF K_EXISTS )? tableName ;
 
+createIndexStmt :
+    K_CREATE K_INDEX indexName K_ON tableName '(' columnName ')' ;
+
+dropIndexStmt :
+    K_DROP K_INDEX indexName K_ON tableName ;
+
 showDbStmt :
     K_SHOW K_DATABASES;
 
@@ -75,6 +85,9 @@ quitStmt :
 showTableStmt :
     K_SHOW K_TABLE tableName;
 
+vacuumStmt :
+    K_VACUUM tableName? ;
+
 insertStmt :
     K_INSERT K_INTO tableName ( '(' columnName ( ',' columnName )* ')' )?
         K_VALUES valueEntry ( ',' valueEntry )* ;
@@ -181,6 +194,15 @@ columnName :
 viewName :
     IDENTIFIER;
 
+indexName :
+    IDENTIFIER ;
+
+engineName :
+    IDENTIFIER ;
+
+compressionName :
+    IDENTIFIER ;
+
 password :
     STRING_LITERAL ;
 
@@ -212,15 +234,18 @@ K_BY : B Y;
 K_COLUMN : C O L U M N;
 K_CREATE : C R E A T E;
 K_DATABASE : D A T A B A S E;
+K_COMPRESSION : C O M P R E S S I O N;
 K_DATABASES : D A T A B A S E S;
 K_DELETE : D E L E T E;
 K_DISTINCT : D I S T I N C T;
 K_DROP : D R O P;
+K_ENGINE : E N G I N E;
 K_EXISTS : E X I S T S;
 K_FROM : F R O M;
 K_GRANT : G R A N T;
 K_IF : I F;
 K_IDENTIFIED : I D E N T I F I E D;
+K_INDEX : I N D E X;
 K_INSERT : I N S E R T;
 K_INTO : I N T O;
 K_JOIN : J O I N;
@@ -239,6 +264,7 @@ K_TO : T O;
 K_UPDATE : U P D A T E;
 K_USE : U S E;
 K_USER : U S E R;
+K_VACUUM : V A C U U M;
 K_VALUES : V A L U E S;
 K_VIEW : V I E W;
 K_WHERE : W H E R E;
@@ -30,7 +30,9 @@ import cn.edu.thssdb.sql.SQLBaseVisitor;
 import cn.edu.thssdb.sql.SQLParser;
 import cn.edu.thssdb.type.ColumnType;
 import cn.edu.thssdb.type.ComparerType;
+import cn.edu.thssdb.type.CompressionType;
 import cn.edu.thssdb.type.ConditionType;
+import cn.edu.thssdb.type.EngineType;
 import cn.edu.thssdb.type.LogicType;
 import cn.edu.thssdb.utils.Pair;
 import org.antlr.v4.runtime.RuleContext;
@@ -141,9 +143,26 @@ public class ThssDBSQLVisitor extends SQLBaseVisitor<LogicalPlan> {
       }
     }
 
+    EngineType engine = EngineType.HEAP;
+    if (ctx.engineName() != null) {
+      try {
+        engine = EngineType.valueOf(ctx.engineName().getText().toUpperCase());
+      } catch (IllegalArgumentException e) {
+        throw new OtherException("unknown storage engine " + ctx.engineName().getText());
+      }
+    }
+    CompressionType compression = CompressionType.NONE;
+    if (ctx.compressionName() != null) {
+      try {
+        compression = CompressionType.valueOf(ctx.compressionName().getText().toUpperCase());
+      } catch (IllegalArgumentException e) {
+        throw new OtherException("unknown compression " + ctx.compressionName().getText());
+      }
+    }
+
     Column[] columns = new Column[columnList.size()];
     columns = columnList.toArray(columns);
-    return new CreateTablePlan(ctx.tableName().getText(), columns);
+    return new CreateTablePlan(ctx.tableName().getText(), columns, engine, compression);
   }
 
   @Override
@@ -151,11 +170,27 @@ public class ThssDBSQLVisitor extends SQLBaseVisitor<LogicalPlan> {
     return new DropTablePlan(ctx.tableName().getText());
   }
 
+  @Override
+  public LogicalPlan visitCreateIndexStmt(SQLParser.CreateIndexStmtContext ctx) {
+    return new CreateIndexPlan(
+        ctx.indexName().getText(), ctx.tableName().getText(), ctx.columnName().getText());
+  }
+
+  @Override
+  public LogicalPlan visitDropIndexStmt(SQLParser.DropIndexStmtContext ctx) {
+    return new DropIndexPlan(ctx.indexName().getText(), ctx.tableName().getText());
+  }
+
   @Override
   public LogicalPlan visitShowTableStmt(SQLParser.ShowTableStmtContext ctx) {
     return new ShowTablePlan(ctx.tableName().getText());
   }
 
+  @Override
+  public LogicalPlan visitVacuumStmt(SQLParser.VacuumStmtContext ctx) {
+    return new VacuumPlan(ctx.tableName() == null ? null : ctx.tableName().getText());
+  }
+
   @Override
   public LogicalPlan visitValueEntry(SQLParser.ValueEntryContext ctx) {
     String[] values = new String[ctx.literalValue().size()];
@@ -21,6 +21,9 @@ public abstract class LogicalPlan {
     CREATE_TB,
     DROP_TB,
     SHOW_TB,
+    VACUUM,
+    CREATE_INDEX,
+    DROP_INDEX,
     INSERT,
     DELETE,
     UPDATE,
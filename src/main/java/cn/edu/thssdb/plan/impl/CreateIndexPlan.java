@@ -0,0 +1,62 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package cn.edu.thssdb.plan.impl;
+
+import cn.edu.thssdb.plan.LogicalPlan;
+
+public class CreateIndexPlan extends LogicalPlan {
+
+  private final String indexName;
+  private final String tableName;
+  private final String columnName;
+
+  public CreateIndexPlan(String indexName, String tableName, String columnName) {
+    super(LogicalPlanType.CREATE_INDEX);
+    this.indexName = indexName;
+    this.tableName = tableName;
+    this.columnName = columnName;
+  }
+
+  public String getIndexName() {
+    return indexName;
+  }
+
+  public String getTableName() {
+    return tableName;
+  }
+
+  public String getColumnName() {
+    return columnName;
+  }
+
+  @Override
+  public String toString() {
+    return "CreateIndexPlan{"
+        + "indexName='"
+        + indexName
+        + '\''
+        + ", tableName='"
+        + tableName
+        + '\''
+        + ", columnName='"
+        + columnName
+        + '\''
+        + '}';
+  }
+}
@@ -20,16 +20,23 @@ package cn.edu.thssdb.plan.impl;
 
 import cn.edu.thssdb.plan.LogicalPlan;
 import cn.edu.thssdb.schema.Column;
+import cn.edu.thssdb.type.CompressionType;
+import cn.edu.thssdb.type.EngineType;
 
 public class CreateTablePlan extends LogicalPlan {
 
   private final String tableName;
   private final Column[] columns;
+  private final EngineType engine;
+  private final CompressionType compression;
 
-  public CreateTablePlan(String tableName, Column[] columns) {
+  public CreateTablePlan(
+      String tableName, Column[] columns, EngineType engine, CompressionType compression) {
     super(LogicalPlanType.CREATE_TB);
     this.tableName = tableName;
     this.columns = columns;
+    this.engine = engine;
+    this.compression = compression;
   }
 
   public String getTableName() {
@@ -40,6 +47,14 @@ public class CreateTablePlan extends LogicalPlan {
     return columns;
   }
 
+  public EngineType getEngine() {
+    return engine;
+  }
+
+  public CompressionType getCompression() {
+    return compression;
+  }
+
   @Override
   public String toString() {
     return "CreateTablePlan{" + String.format("tableName='%s'", tableName) + "}";
@@ -0,0 +1,116 @@
+package cn.edu.thssdb.query;
+
+import cn.edu.thssdb.schema.Entry;
+import cn.edu.thssdb.schema.Table;
+import cn.edu.thssdb.storage.KeyRange;
+import cn.edu.thssdb.type.ColumnType;
+import cn.edu.thssdb.type.ComparerType;
+import cn.edu.thssdb.type.ConditionType;
+import cn.edu.thssdb.type.LogicType;
+
+/**
+ * Finds the range of values of a column that a WHERE logic leaves, so that a scan can read only
+ * that range of the primary index or of a secondary index.
+ */
+public class ColumnRange {
+
+  private ColumnRange() {}
+
+  /**
+   * The range of values of a column that the comparisons of the column with constants in the logic
+   * leave, where they all must hold. A comparison with a constant that is not exactly a value of
+   * the column leaves the range as it is, so the rows of the range are still to be checked against
+   * the whole logic.
+   *
+   * @param column the index of the column in the table
+   */
+  public static KeyRange of(Logic logic, Table table, int column) {
+    if (logic == null) return KeyRange.ALL;
+    if (!logic.mTerminal) {
+      if (logic.mType != LogicType.AND) return KeyRange.ALL;
+      return of(logic.mLeft, table, column).intersect(of(logic.mRight, table, column));
+    }
+    Condition condition = logic.getCondition();
+    if (condition == null) return KeyRange.ALL;
+    Comparer named = condition.mLeft;
+    Comparer constant = condition.mRight;
+    ConditionType type = condition.mType;
+    if (constant.getType() == ComparerType.COLUMN) {
+      named = condition.mRight;
+      constant = condition.mLeft;
+      type = flip(type);
+    }
+    if (named.getType() != ComparerType.COLUMN
+        || constant.getType() == ComparerType.COLUMN
+        || constant.getValue() == null
+        || columnIndex(table, (String) named.getValue()) != column) {
+      return KeyRange.ALL;
+    }
+    Entry value = valueOf(constant, table.getColumns().get(column).getType());
+    if (value == null) return KeyRange.ALL;
+    switch (type) {
+      case EQ:
+        return KeyRange.of(value);
+      case GT:
+        return new KeyRange(value, false, null, true);
+      case GE:
+        return new KeyRange(value, true, null, true);
+      case LT:
+        return new KeyRange(null, true, value, false);
+      case LE:
+        return new KeyRange(null, true, value, true);
+      default:
+        return KeyRange.ALL;
+    }
+  }
+
+  /** The value of a column of the type that compares equal to a constant, or null if none does. */
+  private static Entry valueOf(Comparer constant, ColumnType type) {
+    if ((type == ColumnType.STRING) != (constant.getType() == ComparerType.STRING)) return null;
+    if (type == ColumnType.STRING) return new Entry(constant.getValue());
+    double number = ((Number) constant.getValue()).doubleValue();
+    Comparable value;
+    switch (type) {
+      case INT:
+        value = (int) number;
+        break;
+      case LONG:
+        // conditions compare numbers as doubles, which tell large longs apart no more
+        if (Math.abs(number) > 1L << 53) return null;
+        value = (long) number;
+        break;
+      case FLOAT:
+        value = (float) number;
+        break;
+      default:
+        value = number;
+    }
+    return ((Number) value).doubleValue() == number ? new Entry(value) : null;
+  }
+
+  /** The condition that holds for {@code b ? a} when {@code a type b} holds. */
+  static ConditionType flip(ConditionType type) {
+    switch (type) {
+      case GT:
+        return ConditionType.LT;
+      case LT:
+        return ConditionType.GT;
+      case GE:
+        return ConditionType.LE;
+      case LE:
+        return ConditionType.GE;
+      default:
+        return type;
+    }
+  }
+
+  /** Index of a column named as it is or as "table.column", or -1 if it is not of the table. */
+  static int columnIndex(Table table, String name) {
+    int dot = name.indexOf('.');
+    if (dot >= 0) {
+      if (!table.tableName.equals(name.substring(0, dot))) return -1;
+      name = name.substring(dot + 1);
+    }
+    return table.getColumnIndex(name);
+  }
+}
@@ -2,15 +2,21 @@ package cn.edu.thssdb.query;
 
 import cn.edu.thssdb.exception.OtherException;
 import cn.edu.thssdb.exception.TypeMisMatchException;
+import cn.edu.thssdb.storage.StringDictionary;
 import cn.edu.thssdb.type.ComparerType;
 import cn.edu.thssdb.type.ConditionType;
 import cn.edu.thssdb.type.ResultType;
 
 /** Represents a logical comparison condition used in queries. */
 public class Condition {
+  private static final int UNCODED = Integer.MIN_VALUE;
+
   Comparer mLeft;
   Comparer mRight;
   ConditionType mType;
+  // code of the constant side in the dictionary of the column it was last compared with
+  private StringDictionary mDictionary;
+  private int mCode;
 
   /**
    * Constructs a Condition object with left and right comparers and the condition type.
@@ -40,57 +46,114 @@ public class Condition {
         || mRight.mValue == null) {
       return ResultType.UNKNOWN;
     } else {
-      Comparable value_left = mLeft.mValue;
-      Comparable value_right = mRight.mValue;
+      // columns are read from the row by index and type, so that no value is boxed
+      int index_left = -1;
+      int index_right = -1;
       ComparerType type_left = mLeft.mType;
       ComparerType type_right = mRight.mType;
       if (mLeft.mType == ComparerType.COLUMN) {
-        Comparer left_comparer = the_row.getColumnComparer((String) mLeft.mValue);
-        value_left = left_comparer.mValue;
-        type_left = left_comparer.mType;
+        index_left = the_row.getColumnIndex((String) mLeft.mValue);
+        type_left =
+            the_row.isNull(index_left) ? ComparerType.NULL : the_row.getComparerType(index_left);
       }
       if (mRight.mType == ComparerType.COLUMN) {
-        Comparer right_comparer = the_row.getColumnComparer((String) mRight.mValue);
-        value_right = right_comparer.mValue;
-        type_right = right_comparer.mType;
+        index_right = the_row.getColumnIndex((String) mRight.mValue);
+        type_right =
+            the_row.isNull(index_right) ? ComparerType.NULL : the_row.getComparerType(index_right);
       }
 
-      if (type_left == ComparerType.NULL
-          || type_right == ComparerType.NULL
-          || value_left == null
-          || value_right == null) {
+      if (type_left == ComparerType.NULL || type_right == ComparerType.NULL) {
         return ResultType.UNKNOWN;
       }
 
       if (type_left != type_right) {
         throw new TypeMisMatchException(type_left, type_right);
+      }
+      int comparison;
+      if (type_left == ComparerType.NUMBER) {
+        double value_left =
+            index_left < 0 ? ((Number) mLeft.mValue).doubleValue() : the_row.getNumber(index_left);
+        double value_right =
+            index_right < 0
+                ? ((Number) mRight.mValue).doubleValue()
+                : the_row.getNumber(index_right);
+        comparison = Double.compare(value_left, value_right);
       } else {
-        boolean result = false;
-        switch (mType) {
-          case EQ:
-            result = (value_left.compareTo(value_right) == 0);
-            break;
-          case NE:
-            result = (value_left.compareTo(value_right) != 0);
-            break;
-          case GT:
-            result = (value_left.compareTo(value_right) > 0);
-            break;
-          case LT:
-            result = (value_left.compareTo(value_right) < 0);
-            break;
-          case GE:
-            result = (value_left.compareTo(value_right) >= 0);
-            break;
-          case LE:
-            result = (value_left.compareTo(value_right) <= 0);
-            break;
+        comparison = UNCODED;
+        if (mType == ConditionType.EQ || mType == ConditionType.NE) {
+          comparison = compareCodes(the_row, index_left, index_right);
+        }
+        if (comparison == UNCODED) {
+          String value_left =
+              index_left < 0 ? (String) mLeft.mValue : the_row.getString(index_left);
+          String value_right =
+              index_right < 0 ? (String) mRight.mValue : the_row.getString(index_right);
+          comparison = value_left.compareTo(value_right);
         }
-        return result ? ResultType.TRUE : ResultType.FALSE;
       }
+      return compare(comparison);
     }
   }
 
+  /**
+   * Tells whether two strings are equal by their dictionary codes, which is only possible when both
+   * are coded by the same dictionary.
+   *
+   * @return 0 if they are equal, 1 if not, or {@code UNCODED} if the strings must be compared
+   */
+  private int compareCodes(JointRow the_row, int index_left, int index_right) {
+    if (index_left < 0 && index_right < 0) return UNCODED;
+    StringDictionary dictionary = the_row.getDictionary(index_left < 0 ? index_right : index_left);
+    if (dictionary == null) return UNCODED;
+    int code_left = index_left < 0 ? constantCode(dictionary, mLeft) : the_row.getCode(index_left);
+    int code_right =
+        index_right < 0
+            ? constantCode(dictionary, mRight)
+            : the_row.getDictionary(index_right) == dictionary ? the_row.getCode(index_right) : -1;
+    if (code_left < 0 || code_right < 0) return UNCODED;
+    return code_left == code_right ? 0 : 1;
+  }
+
+  /**
+   * Code of a constant in a dictionary, looked up once per dictionary. A constant without a code
+   * may be added later, so a row coded afterwards still falls back to comparing strings.
+   */
+  private int constantCode(StringDictionary dictionary, Comparer constant) {
+    if (dictionary != mDictionary) {
+      mCode = dictionary.codeOf((String) constant.mValue);
+      mDictionary = dictionary;
+    }
+    return mCode;
+  }
+
+  /**
+   * Maps the result of comparing the left side to the right side to the result of the condition.
+   */
+  private ResultType compare(int comparison) {
+    boolean result = false;
+    switch (mType) {
+      case EQ:
+        result = comparison == 0;
+        break;
+      case NE:
+        result = comparison != 0;
+        break;
+      case GT:
+        result = comparison > 0;
+        break;
+      case LT:
+        result = comparison < 0;
+        break;
+      case GE:
+        result = comparison >= 0;
+        break;
+      case LE:
+        result = comparison <= 0;
+        break;
+    }
+    return result ? ResultType.TRUE : ResultType.FALSE;
+  }
+
   /**
    * Computes the result of the current condition when both left and right comparers are not
    * columns.
@@ -118,28 +181,7 @@ public class Condition {
       if (type_left != type_right) {
         throw new TypeMisMatchException(type_left, type_right);
       } else {
-        boolean result = false;
-        switch (mType) {
-          case EQ:
-            result = (value_left.compareTo(value_right) == 0);
-            break;
-          case NE:
-            result = (value_left.compareTo(value_right) != 0);
-            break;
-          case GT:
-            result = (value_left.compareTo(value_right) > 0);
-            break;
-          case LT:
-            result = (value_left.compareTo(value_right) < 0);
-            break;
-          case GE:
-            result = (value_left.compareTo(value_right) >= 0);
-            break;
-          case LE:
-            result = (value_left.compareTo(value_right) <= 0);
-            break;
-        }
-        return result ? ResultType.TRUE : ResultType.FALSE;
+        return compare(value_left.compareTo(value_right));
       }
     }
   }
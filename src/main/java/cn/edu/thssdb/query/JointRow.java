@@ -3,17 +3,30 @@ package cn.edu.thssdb.query;
 import cn.edu.thssdb.exception.AttributeCollisionException;
 import cn.edu.thssdb.exception.AttributeInvalidException;
 import cn.edu.thssdb.exception.AttributeNotFoundException;
+import cn.edu.thssdb.schema.Entry;
 import cn.edu.thssdb.schema.Row;
 import cn.edu.thssdb.schema.Table;
+import cn.edu.thssdb.storage.StringDictionary;
 import cn.edu.thssdb.type.ColumnType;
 import cn.edu.thssdb.type.ComparerType;
 
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.StringJoiner;
 
-/** Represents a row used in queries that combines rows from multiple tables. */
+/**
+ * Represents a row used in queries that combines rows from multiple tables.
+ *
+ * <p>The joined rows are kept as they are, and the typed accessors read a column from the row it
+ * belongs to, so evaluating a condition on compact rows boxes no value. The entries of the joint
+ * row are only built when asked for.
+ */
 public class JointRow extends Row {
   private final ArrayList<Table> mTableInfoList;
+  private final Row[] mRows; // in the order of the tables
+  private final int[] mStarts; // index of the first column of each row
+  private final int mSize;
 
   /**
    * Constructs a JointRow object with linked list of rows and array list of tables.
@@ -22,17 +35,18 @@ public class JointRow extends Row {
    * @param tables The array list of tables.
    */
   public JointRow(LinkedList<Row> rows, ArrayList<Table> tables) {
-    super();
-    mTableInfoList = new ArrayList<>();
-    this.entries = new ArrayList<>();
-
-    for (int i = rows.size() - 1; i >= 0; i--) {
-      entries.addAll(rows.get(i).getEntries());
-    }
-
-    for (Table table : tables) {
-      mTableInfoList.add(table);
+    super((ArrayList<Entry>) null);
+    mTableInfoList = new ArrayList<>(tables);
+    mRows = new Row[rows.size()];
+    Iterator<Row> iterator = rows.descendingIterator();
+    for (int i = 0; i < mRows.length; i++) mRows[i] = iterator.next();
+    mStarts = new int[mRows.length];
+    int size = 0;
+    for (int i = 0; i < mRows.length; i++) {
+      mStarts[i] = size;
+      size += mRows[i].size();
     }
+    mSize = size;
   }
 
   /**
@@ -42,11 +56,88 @@ public class JointRow extends Row {
    * @param the_table The table associated with the row.
    */
   public JointRow(Row the_row, Table the_table) {
-    super();
+    super((ArrayList<Entry>) null);
     mTableInfoList = new ArrayList<>();
-    this.entries = new ArrayList<>();
-    entries.addAll(the_row.getEntries());
     mTableInfoList.add(the_table);
+    mRows = new Row[] {the_row};
+    mStarts = new int[] {0};
+    mSize = the_row.size();
+  }
+
+  /** Index of the joined row that holds a column. */
+  private int rowOf(int index) {
+    int i = mRows.length - 1;
+    while (i > 0 && mStarts[i] > index) i--;
+    return i;
+  }
+
+  @Override
+  public int size() {
+    return mSize;
+  }
+
+  @Override
+  public ArrayList<Entry> getEntries() {
+    if (entries == null) {
+      entries = new ArrayList<>(mSize);
+      for (Row row : mRows) entries.addAll(row.getEntries());
+    }
+    return entries;
+  }
+
+  @Override
+  public Entry getEntry(int index) {
+    int i = rowOf(index);
+    return mRows[i].getEntry(index - mStarts[i]);
+  }
+
+  @Override
+  public boolean isNull(int index) {
+    int i = rowOf(index);
+    return mRows[i].isNull(index - mStarts[i]);
+  }
+
+  @Override
+  public long getLong(int index) {
+    int i = rowOf(index);
+    return mRows[i].getLong(index - mStarts[i]);
+  }
+
+  @Override
+  public double getDouble(int index) {
+    int i = rowOf(index);
+    return mRows[i].getDouble(index - mStarts[i]);
+  }
+
+  @Override
+  public String getString(int index) {
+    int i = rowOf(index);
+    return mRows[i].getString(index - mStarts[i]);
+  }
+
+  @Override
+  public int getCode(int index) {
+    int i = rowOf(index);
+    return mRows[i].getCode(index - mStarts[i]);
+  }
+
+  @Override
+  public StringDictionary getDictionary(int index) {
+    int i = rowOf(index);
+    return mRows[i].getDictionary(index - mStarts[i]);
+  }
+
+  @Override
+  public String format(int index) {
+    int i = rowOf(index);
+    return mRows[i].format(index - mStarts[i]);
+  }
+
+  @Override
+  public String toString() {
+    StringJoiner sj = new StringJoiner(", ");
+    for (int i = 0; i < mSize; i++) sj.add(format(i));
+    return sj.toString();
   }
 
   /**
@@ -95,9 +186,26 @@ public class JointRow extends Row {
    */
   public Comparer getColumnComparer(String column_name)
       throws AttributeNotFoundException, AttributeCollisionException {
+    int index = getColumnIndex(column_name);
+    ComparerType comparer_type = GetComparerType(getColumnType(index)); // 获取比较器类型
+    if (isNull(index)) {
+      return new Comparer(ComparerType.NULL, null);
+    }
+    return new Comparer(comparer_type, format(index));
+  }
+
+  /**
+   * Retrieves the index of a column in the joint row.
+   *
+   * @param column_name The column name in the format "TableName.ColumnName" or "ColumnName".
+   * @return The index of the column.
+   * @throws AttributeNotFoundException if the column name is not found in the JointRow.
+   * @throws AttributeCollisionException if the column name is ambiguous (appears in multiple
+   *     tables).
+   */
+  public int getColumnIndex(String column_name)
+      throws AttributeNotFoundException, AttributeCollisionException {
     int index = -1; // 列索引
-    ColumnType column_type = ColumnType.INT; // 列类型
-    ComparerType comparer_type = ComparerType.NULL; // 比较器类型
 
     // 只有列名（无表名）
     if (!column_name.contains(".")) {
@@ -112,7 +220,6 @@ public class JointRow extends Row {
           if (column_name.equals(the_table.columns.get(j).getName())) {
             equal_sum++;
             index = total_index + j;
-            column_type = the_table.columns.get(j).getType();
           }
         }
         total_index += the_table.columns.size();
@@ -140,7 +247,6 @@ public class JointRow extends Row {
             if (entry_name.equals(table.columns.get(j).getName())) {
               whether_found = true;
               index = total_index + j;
-              column_type = table.columns.get(j).getType();
               break;
             }
           }
@@ -155,14 +261,46 @@ public class JointRow extends Row {
       }
     }
 
-    comparer_type = GetComparerType(column_type); // 获取比较器类型
-    Comparable comparer_value = this.entries.get(index).value; // 获取列值
+    return index;
+  }
 
-    if (comparer_value == null) {
-      return new Comparer(ComparerType.NULL, null);
+  /**
+   * Retrieves the type of a column.
+   *
+   * @param index The index of the column in the joint row.
+   * @return The ColumnType of the column.
+   */
+  public ColumnType getColumnType(int index) {
+    for (Table table : mTableInfoList) {
+      if (index < table.columns.size()) {
+        return table.columns.get(index).getType();
+      }
+      index -= table.columns.size();
     }
+    throw new IndexOutOfBoundsException();
+  }
+
+  /**
+   * Retrieves the comparer type of a column.
+   *
+   * @param index The index of the column in the joint row.
+   * @return The ComparerType used to compare values of the column.
+   */
+  public ComparerType getComparerType(int index) {
+    return GetComparerType(getColumnType(index));
+  }
 
-    Comparer the_comparer = new Comparer(comparer_type, "" + comparer_value);
-    return the_comparer;
+  /**
+   * Retrieves a numeric column as its comparer sees it, without boxing. A FLOAT column is compared
+   * by its decimal form, as {@link Comparer} parses it from a string.
+   *
+   * @param index The index of a non-null numeric column.
+   * @return The value of the column.
+   */
+  public double getNumber(int index) {
+    if (getColumnType(index) == ColumnType.FLOAT) {
+      return Double.parseDouble(Float.toString((float) getDouble(index)));
+    }
+    return getDouble(index);
   }
 }
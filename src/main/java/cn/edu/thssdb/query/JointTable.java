@@ -24,7 +24,7 @@ public class JointTable extends QueryTable implements Iterator<Row> {
 
   private final HashMap<Integer, Pair<Integer, Integer>> pkDependencies;
   private boolean pkAcceleration = false;
-  private ArrayList<Iterator<Pair<Entry, Row>>> pkIterators = new ArrayList<>();
+  private ArrayList<Iterator<Pair<Entry, Long>>> pkIterators = new ArrayList<>();
 
   public JointTable(ArrayList<Table> tables, Logic joinLogic) {
     super();
@@ -136,7 +136,7 @@ public class JointTable extends QueryTable implements Iterator<Row> {
       if (jointRow == null) {
         return;
       }
-      if (jointRow.getEntries().size() == 0) {
+      if (jointRow.size() == 0) {
         continue;
       }
 
@@ -170,8 +170,8 @@ public class JointTable extends QueryTable implements Iterator<Row> {
         mRowsToBeJoined.push(null);
       }
 
-      Iterator<Pair<Entry, Row>> it1 = pkIterators.get(0);
-      Iterator<Pair<Entry, Row>> it2 = pkIterators.get(1);
+      Iterator<Pair<Entry, Long>> it1 = pkIterators.get(0);
+      Iterator<Pair<Entry, Long>> it2 = pkIterators.get(1);
 
       Entry e1, e2;
       if (it1.hasNext() && it2.hasNext()) {
@@ -191,8 +191,9 @@ public class JointTable extends QueryTable implements Iterator<Row> {
             }
             e2 = it2.next().left;
           } else {
-            mRowsToBeJoined.set(0, mTables.get(0).get(e1));
-            mRowsToBeJoined.set(1, mTables.get(1).get(e2));
+            // the rows are kept last table first, like the pushed rows below
+            mRowsToBeJoined.set(1, mTables.get(0).get(e1));
+            mRowsToBeJoined.set(0, mTables.get(1).get(e2));
             break;
           }
         }
@@ -266,7 +267,7 @@ public class JointTable extends QueryTable implements Iterator<Row> {
     for (Map.Entry<Integer, Pair<Integer, Integer>> entry : pkDependencies.entrySet()) {
       int toTableId = entry.getKey();
       Pair<Integer, Integer> fromAttr = entry.getValue();
-      Entry value = row.get(row.size() - 1 - fromAttr.left).getEntries().get(fromAttr.right);
+      Entry value = row.get(row.size() - 1 - fromAttr.left).getEntry(fromAttr.right);
       try {
         row.set(row.size() - 1 - toTableId, mTables.get(toTableId).get(new Entry(value.value)));
       } catch (KeyNotExistException ignored) {
@@ -1,9 +1,11 @@
 package cn.edu.thssdb.query;
 
 import cn.edu.thssdb.exception.*;
-import cn.edu.thssdb.schema.Entry;
+import cn.edu.thssdb.schema.Column;
+import cn.edu.thssdb.schema.CompactRow;
 import cn.edu.thssdb.schema.Row;
 import cn.edu.thssdb.schema.Table;
+import cn.edu.thssdb.type.ColumnType;
 import cn.edu.thssdb.utils.Pair;
 
 import java.util.ArrayList;
@@ -16,6 +18,7 @@ public class QueryResult implements Iterator<Row> {
   private final List<Integer> indices;
   private final List<String> attrs;
   private final QueryTable queryTable;
+  private final ColumnType[] types; // of the selected columns
 
   public QueryResult(QueryTable queryTable, List<Pair<String, String>> columns) {
     this.metaInfoList = new ArrayList<>(queryTable.generateMetaInfo());
@@ -123,6 +126,14 @@ public class QueryResult implements Iterator<Row> {
         }
       }
     }
+
+    ArrayList<ColumnType> allTypes = new ArrayList<>();
+    for (MetaInfo metaInfo : metaInfoList) {
+      for (Column column : metaInfo.getColumns()) allTypes.add(column.getType());
+    }
+    this.types = new ColumnType[indices.size()];
+    for (int i = 0; i < types.length; i++) types[i] = allTypes.get(indices.get(i));
+    queryTable.setProjection(indices);
   }
 
   public List<String> getColumnNames() {
@@ -144,16 +155,15 @@ public class QueryResult implements Iterator<Row> {
   //    return null;
   //  }
 
+  /** Copies the selected columns into a compact row through the typed accessors of the row. */
   public Row generateQueryRecord(Row row) {
     if (row == null) {
       return null;
     }
-    ArrayList<Entry> entries = row.getEntries();
-    Entry[] filteredEntries = new Entry[indices.size()];
-    int i = 0;
-    for (int index : indices) {
-      filteredEntries[i++] = entries.get(index);
+    CompactRow record = new CompactRow(types);
+    for (int i = 0; i < types.length; i++) {
+      record.set(i, row, indices.get(i));
     }
-    return new Row(filteredEntries);
+    return record;
   }
 }
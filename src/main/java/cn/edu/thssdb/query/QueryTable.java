@@ -6,11 +6,13 @@ import cn.edu.thssdb.schema.Row;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 
 /** Abstract base class for query tables. */
 public abstract class QueryTable implements Iterator<Row> {
   LinkedList<JointRow> mQueue;
   Logic mLogicSelect;
+  List<Integer> mProjection; // indices of the selected columns, null until the result is built
   boolean isFirst;
   public ArrayList<Column> mColumns;
 
@@ -27,6 +29,11 @@ public abstract class QueryTable implements Iterator<Row> {
     this.mLogicSelect = selectLogic;
   }
 
+  /** Tells the table which of its columns the result selects, before the first row is read. */
+  public void setProjection(List<Integer> indices) {
+    this.mProjection = indices;
+  }
+
   @Override
   public boolean hasNext() {
     return isFirst || !mQueue.isEmpty();
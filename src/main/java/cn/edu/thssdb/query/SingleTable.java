@@ -4,26 +4,109 @@ import cn.edu.thssdb.exception.KeyNotExistException;
 import cn.edu.thssdb.schema.Entry;
 import cn.edu.thssdb.schema.Row;
 import cn.edu.thssdb.schema.Table;
+import cn.edu.thssdb.storage.ZoneMap;
 import cn.edu.thssdb.type.ColumnType;
 import cn.edu.thssdb.type.ComparerType;
 import cn.edu.thssdb.type.ConditionType;
+import cn.edu.thssdb.type.LogicType;
 import cn.edu.thssdb.type.ResultType;
 
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.function.Predicate;
 
 public class SingleTable extends QueryTable implements Iterator<Row> {
 
   private final Table mTable;
-  private final Iterator<Row> mIterator;
+  private Iterator<Row> mIterator; // opened by the first scan
 
   public SingleTable(Table table) {
     super();
     this.mTable = table;
-    this.mIterator = table.iterator();
     this.mColumns = table.columns;
   }
 
+  /**
+   * The rows of the table the WHERE logic may select, read through the primary key or a secondary
+   * index where the logic bounds them, and reading only the columns the query uses and the pages
+   * that may hold rows the logic selects, where the engine allows it.
+   */
+  private Iterator<Row> rows() {
+    if (mIterator == null) {
+      Predicate<ZoneMap> pages =
+          mLogicSelect == null ? null : zones -> mayMatch(mLogicSelect, zones);
+      mIterator = mTable.iterator(mLogicSelect, columnsRead(), pages);
+    }
+    return mIterator;
+  }
+
+  /** Whether a page with the given zone map may hold a row the logic selects. */
+  private boolean mayMatch(Logic logic, ZoneMap zones) {
+    if (logic == null) return true;
+    if (!logic.mTerminal) {
+      boolean left = mayMatch(logic.mLeft, zones);
+      if (logic.mType == LogicType.AND && !left) return false;
+      if (logic.mType == LogicType.OR && left) return true;
+      return mayMatch(logic.mRight, zones);
+    }
+    Condition condition = logic.getCondition();
+    if (condition == null) return true;
+    Comparer column = condition.mLeft;
+    Comparer constant = condition.mRight;
+    ConditionType type = condition.mType;
+    if (constant.getType() == ComparerType.COLUMN) {
+      column = condition.mRight;
+      constant = condition.mLeft;
+      type = ColumnRange.flip(type);
+    }
+    // a comparison with null is never true
+    if (constant.getType() == ComparerType.NULL || constant.getValue() == null) return false;
+    if (column.getType() != ComparerType.COLUMN || constant.getType() == ComparerType.COLUMN) {
+      return true;
+    }
+    int index = columnIndex((String) column.getValue());
+    if (index < 0) return true;
+    boolean isString = mTable.columns.get(index).getType() == ColumnType.STRING;
+    // a comparison of mismatched types is left to the row, which reports it
+    if (isString != (constant.getType() == ComparerType.STRING)) return true;
+    return isString
+        ? zones.mayMatch(index, type, (String) constant.getValue())
+        : zones.mayMatch(index, type, ((Number) constant.getValue()).doubleValue());
+  }
+
+  /**
+   * Marks the selected columns and those in the WHERE logic.
+   *
+   * @return whether each column is read, or null if every column is
+   */
+  private boolean[] columnsRead() {
+    if (mProjection == null) return null;
+    boolean[] read = new boolean[mTable.columns.size()];
+    for (int index : mProjection) read[index] = true;
+    return markColumns(mLogicSelect, read) ? read : null;
+  }
+
+  /** @return false if the logic names a column that cannot be told from its name */
+  private boolean markColumns(Logic logic, boolean[] read) {
+    if (logic == null) return true;
+    if (!logic.mTerminal) return markColumns(logic.mLeft, read) && markColumns(logic.mRight, read);
+    Condition condition = logic.getCondition();
+    return condition == null
+        || markColumn(condition.mLeft, read) && markColumn(condition.mRight, read);
+  }
+
+  private boolean markColumn(Comparer comparer, boolean[] read) {
+    if (comparer == null || comparer.getType() != ComparerType.COLUMN) return true;
+    int index = columnIndex((String) comparer.getValue());
+    if (index < 0) return false;
+    read[index] = true;
+    return true;
+  }
+
+  private int columnIndex(String name) {
+    return ColumnRange.columnIndex(mTable, name);
+  }
+
   @Override
   public ArrayList<MetaInfo> generateMetaInfo() {
     ArrayList<MetaInfo> the_meta = new ArrayList<>();
@@ -109,8 +192,8 @@ public class SingleTable extends QueryTable implements Iterator<Row> {
 
   /** Prepare the next row directly from the iterator. */
   private void prepareNextDirect() {
-    if (mIterator.hasNext()) {
-      JointRow the_row = new JointRow(mIterator.next(), mTable);
+    if (rows().hasNext()) {
+      JointRow the_row = new JointRow(rows().next(), mTable);
       mQueue.add(the_row);
     }
   }
@@ -141,8 +224,8 @@ public class SingleTable extends QueryTable implements Iterator<Row> {
    * logic and added to the queue.
    */
   private void prepareNextByLogic() {
-    while (mIterator.hasNext()) {
-      Row row = mIterator.next();
+    while (rows().hasNext()) {
+      Row row = rows().next();
       JointRow searchRow = new JointRow(row, mTable);
       if (mLogicSelect.getResult(searchRow) != ResultType.TRUE) {
         continue;
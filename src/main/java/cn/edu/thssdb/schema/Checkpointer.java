@@ -0,0 +1,59 @@
+package cn.edu.thssdb.schema;
+
+import cn.edu.thssdb.utils.Global;
+
+/**
+ * Background thread that checkpoints every database each {@link Global#CHECKPOINT_INTERVAL}
+ * milliseconds. Only dirty pages are written, and a database with nothing logged since its last
+ * checkpoint is skipped. A last checkpoint is taken when the thread is shut down.
+ */
+public class Checkpointer extends Thread {
+  private final Manager manager;
+  private volatile boolean running = true;
+  private long checkpoints = 0;
+
+  public Checkpointer(Manager manager) {
+    super("checkpointer");
+    setDaemon(true);
+    this.manager = manager;
+  }
+
+  /** Checkpoints completed since startup. */
+  public synchronized long getCheckpoints() {
+    return checkpoints;
+  }
+
+  /** Stops the thread after a final checkpoint. */
+  public void shutdown() {
+    running = false;
+    synchronized (this) {
+      notify();
+    }
+    checkpoint();
+  }
+
+  @Override
+  public void run() {
+    while (running) {
+      synchronized (this) {
+        try {
+          wait(Global.CHECKPOINT_INTERVAL);
+        } catch (InterruptedException e) {
+          return;
+        }
+      }
+      if (running) checkpoint();
+    }
+  }
+
+  private void checkpoint() {
+    try {
+      manager.checkpoint();
+      synchronized (this) {
+        checkpoints++;
+      }
+    } catch (RuntimeException e) {
+      System.err.println("Warning: checkpoint failed: " + e.getMessage());
+    }
+  }
+}
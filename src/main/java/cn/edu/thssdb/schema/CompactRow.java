@@ -0,0 +1,190 @@
+package cn.edu.thssdb.schema;
+
+import cn.edu.thssdb.storage.StringDictionary;
+import cn.edu.thssdb.type.ColumnType;
+
+import java.util.ArrayList;
+import java.util.StringJoiner;
+
+/**
+ * A row laid out by the types of its columns: every number in one {@code long[]}, the strings in a
+ * {@code String[]} and the nulls in a bitmap, instead of a boxed value and an {@link Entry} per
+ * column.
+ *
+ * <p>INT and LONG columns are stored as they are, FLOAT and DOUBLE columns as the bits of a double.
+ * A STRING column of a table with a {@link StringDictionary} for it keeps the code of its value in
+ * place of the number, or -1 if the value has none. {@link #getEntries} and {@link #getEntry} box
+ * the values into new entries on every call, so changing them does not change the row.
+ */
+public class CompactRow extends Row {
+  private static final long serialVersionUID = 4527086325212634061L;
+  private final ColumnType[] types;
+  private final transient StringDictionary[] dictionaries;
+  private final long[] numbers;
+  private final String[] strings;
+  private final long[] nulls;
+
+  /** Creates a row of the given column types with every column 0. */
+  public CompactRow(ColumnType[] types) {
+    this(types, (StringDictionary[]) null);
+  }
+
+  /**
+   * Creates a row of the given column types with every column 0.
+   *
+   * @param dictionaries the dictionary of each column, or null for none
+   */
+  public CompactRow(ColumnType[] types, StringDictionary[] dictionaries) {
+    super((ArrayList<Entry>) null);
+    this.types = types;
+    this.dictionaries = dictionaries;
+    this.numbers = new long[types.length];
+    this.strings = new String[types.length];
+    this.nulls = new long[(types.length + 63) >>> 6];
+  }
+
+  public ColumnType getType(int index) {
+    return types[index];
+  }
+
+  public void setNull(int index) {
+    nulls[index >>> 6] |= 1L << index;
+    strings[index] = null;
+  }
+
+  /** Sets an INT or LONG column. */
+  public void setLong(int index, long value) {
+    nulls[index >>> 6] &= ~(1L << index);
+    numbers[index] = value;
+  }
+
+  /** Sets a FLOAT or DOUBLE column. */
+  public void setDouble(int index, double value) {
+    nulls[index >>> 6] &= ~(1L << index);
+    numbers[index] = Double.doubleToRawLongBits(value);
+  }
+
+  /** Sets a STRING column. */
+  public void setString(int index, String value) {
+    nulls[index >>> 6] &= ~(1L << index);
+    numbers[index] = -1;
+    strings[index] = value;
+  }
+
+  /** Sets a STRING column to a value of its dictionary. */
+  public void setCode(int index, int code) {
+    nulls[index >>> 6] &= ~(1L << index);
+    numbers[index] = code;
+    strings[index] = dictionaries[index].valueOf(code);
+  }
+
+  /** Sets a column to the value of a column of the same type in another row. */
+  public void set(int index, Row row, int rowIndex) {
+    if (row.isNull(rowIndex)) {
+      setNull(index);
+      return;
+    }
+    switch (types[index]) {
+      case INT:
+      case LONG:
+        setLong(index, row.getLong(rowIndex));
+        break;
+      case FLOAT:
+      case DOUBLE:
+        setDouble(index, row.getDouble(rowIndex));
+        break;
+      case STRING:
+        setString(index, row.getString(rowIndex));
+        break;
+    }
+  }
+
+  @Override
+  public int size() {
+    return types.length;
+  }
+
+  @Override
+  public boolean isNull(int index) {
+    return (nulls[index >>> 6] & (1L << index)) != 0;
+  }
+
+  @Override
+  public long getLong(int index) {
+    if (types[index] == ColumnType.FLOAT || types[index] == ColumnType.DOUBLE) {
+      return (long) Double.longBitsToDouble(numbers[index]);
+    }
+    return numbers[index];
+  }
+
+  @Override
+  public double getDouble(int index) {
+    if (types[index] == ColumnType.FLOAT || types[index] == ColumnType.DOUBLE) {
+      return Double.longBitsToDouble(numbers[index]);
+    }
+    return numbers[index];
+  }
+
+  @Override
+  public String getString(int index) {
+    return strings[index];
+  }
+
+  @Override
+  public int getCode(int index) {
+    return types[index] != ColumnType.STRING || isNull(index) ? -1 : (int) numbers[index];
+  }
+
+  @Override
+  public StringDictionary getDictionary(int index) {
+    return dictionaries == null ? null : dictionaries[index];
+  }
+
+  @Override
+  public Entry getEntry(int index) {
+    if (isNull(index)) return new Entry(null);
+    switch (types[index]) {
+      case INT:
+        return new Entry((int) numbers[index]);
+      case LONG:
+        return new Entry(numbers[index]);
+      case FLOAT:
+        return new Entry((float) Double.longBitsToDouble(numbers[index]));
+      case DOUBLE:
+        return new Entry(Double.longBitsToDouble(numbers[index]));
+      default:
+        return new Entry(strings[index]);
+    }
+  }
+
+  @Override
+  public ArrayList<Entry> getEntries() {
+    ArrayList<Entry> entries = new ArrayList<>(types.length);
+    for (int i = 0; i < types.length; i++) entries.add(getEntry(i));
+    return entries;
+  }
+
+  @Override
+  public String format(int index) {
+    if (isNull(index)) return "null";
+    switch (types[index]) {
+      case INT:
+        return Integer.toString((int) numbers[index]);
+      case LONG:
+        return Long.toString(numbers[index]);
+      case FLOAT:
+        return Float.toString((float) Double.longBitsToDouble(numbers[index]));
+      case DOUBLE:
+        return Double.toString(Double.longBitsToDouble(numbers[index]));
+      default:
+        return strings[index];
+    }
+  }
+
+  @Override
+  public String toString() {
+    StringJoiner sj = new StringJoiner(", ");
+    for (int i = 0; i < types.length; i++) sj.add(format(i));
+    return sj.toString();
+  }
+}
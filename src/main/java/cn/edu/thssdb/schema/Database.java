@@ -4,23 +4,44 @@ import cn.edu.thssdb.exception.DuplicateTableException;
 import cn.edu.thssdb.exception.IOFileException;
 import cn.edu.thssdb.exception.OtherException;
 import cn.edu.thssdb.exception.TableNotExistException;
+import cn.edu.thssdb.index.SecondaryIndex;
 import cn.edu.thssdb.query.*;
 import cn.edu.thssdb.type.ColumnType;
+import cn.edu.thssdb.type.CompressionType;
+import cn.edu.thssdb.type.EngineType;
 import cn.edu.thssdb.utils.Pair;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import static cn.edu.thssdb.utils.Global.DATA_DIRECTORY;
 
 public class Database {
+  // meta file line naming the storage engine of a table; absent for heap tables
+  private static final String ENGINE_PREFIX = "@engine,";
+  // meta file line naming the page compression of a table; absent for uncompressed tables
+  private static final String COMPRESSION_PREFIX = "@compression,";
+  // meta file line naming a secondary index of a table and the column it covers
+  private static final String INDEX_PREFIX = "@index,";
+  // log records around a checkpoint, written with session id -1
+  private static final String CHECKPOINT_BEGIN = "checkpoint";
+  private static final String CHECKPOINT_END = "checkpoint-end";
+  // side files of a log being cut down: one still being written, and one complete
+  private static final String LOG_PARTIAL_SUFFIX = ".new";
+  private static final String LOG_REWRITE_SUFFIX = ".tmp";
 
   private String name;
   private HashMap<String, Table> tables;
   ReentrantReadWriteLock lock;
   FileWriter logWriter;
+  private long checkpointedLength = -1; // length of the log after the last checkpoint
 
   public Database(String name) {
     this.name = name;
@@ -29,6 +50,7 @@ public class Database {
 
     String filename = DATA_DIRECTORY + this.name + ".log";
     try {
+      restoreLog(new File(filename));
       this.logWriter = new FileWriter(filename,true);
     } catch (IOException e) {
       e.printStackTrace();
@@ -49,6 +71,16 @@ public class Database {
         for (Column column : columns) {
           writer.write(column.toString() + "\n");
         }
+        if (table.getEngine() != EngineType.HEAP) {
+          writer.write(ENGINE_PREFIX + table.getEngine() + "\n");
+        }
+        if (table.getCompression() != CompressionType.NONE) {
+          writer.write(COMPRESSION_PREFIX + table.getCompression() + "\n");
+        }
+        for (SecondaryIndex index : table.getIndexes()) {
+          String column = columns.get(index.getColumn()).getName();
+          writer.write(INDEX_PREFIX + index.getName() + "," + column + "\n");
+        }
         writer.close();
         f.close();
       } catch (Exception e) {
@@ -58,12 +90,21 @@ public class Database {
   }
 
   public void create(String name, Column[] columns) {
+    create(name, columns, EngineType.HEAP);
+  }
+
+  public void create(String name, Column[] columns, EngineType engine) {
+    create(name, columns, engine, CompressionType.NONE);
+  }
+
+  public void create(
+      String name, Column[] columns, EngineType engine, CompressionType compression) {
     // TODO
     try {
       lock.writeLock().lock();
       if (tables.containsKey(name)) throw new DuplicateTableException(name);
 
-      Table newTable = new Table(this.name, name, columns);
+      Table newTable = new Table(this.name, name, columns, engine, compression);
       tables.put(name, newTable);
       persist();
     } finally {
@@ -71,6 +112,26 @@ public class Database {
     }
   }
 
+  public void createIndex(String tableName, String indexName, String columnName) {
+    try {
+      lock.writeLock().lock();
+      get(tableName).createIndex(indexName, columnName);
+      persist();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  public void dropIndex(String tableName, String indexName) {
+    try {
+      lock.writeLock().lock();
+      get(tableName).dropIndex(indexName);
+      persist();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
   public Table get(String name) {
     try {
       lock.readLock().lock();
@@ -103,6 +164,26 @@ public class Database {
     }
   }
 
+  /**
+   * Compacts the pages of one table, or of every table if the name is null.
+   *
+   * @return The number of pages removed.
+   */
+  public int vacuum(String name) {
+    try {
+      lock.readLock().lock();
+      if (name != null) {
+        if (!tables.containsKey(name)) throw new TableNotExistException(name);
+        return tables.get(name).vacuum();
+      }
+      int removed = 0;
+      for (Table table : tables.values()) removed += table.vacuum();
+      return removed;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
   public QueryResult select(
       List<Pair<String, String>> resultColumns, QueryTable queryTable, Logic logic) {
     // TODO
@@ -178,7 +259,22 @@ public class Database {
         InputStreamReader reader = new InputStreamReader(Files.newInputStream(f.toPath()));
         BufferedReader bufferedReader = new BufferedReader(reader);
         String line = null;
+        EngineType engine = EngineType.HEAP;
+        CompressionType compression = CompressionType.NONE;
+        ArrayList<String[]> indexes = new ArrayList<>();
         while ((line = bufferedReader.readLine()) != null) {
+          if (line.startsWith(ENGINE_PREFIX)) {
+            engine = EngineType.valueOf(line.substring(ENGINE_PREFIX.length()));
+            continue;
+          }
+          if (line.startsWith(COMPRESSION_PREFIX)) {
+            compression = CompressionType.valueOf(line.substring(COMPRESSION_PREFIX.length()));
+            continue;
+          }
+          if (line.startsWith(INDEX_PREFIX)) {
+            indexes.add(line.substring(INDEX_PREFIX.length()).split(","));
+            continue;
+          }
           String[] info = line.split(",");
           String columnName = info[0];
           ColumnType columnType = ColumnType.valueOf(info[1]);
@@ -188,7 +284,11 @@ public class Database {
           Column column = new Column(columnName, columnType, primaryKey, notNull, maxLen);
           columns.add(column);
         }
-        Table table = new Table(this.name, tableName, columns.toArray(new Column[0]));
+        Table table =
+            new Table(
+                this.name, tableName, columns.toArray(new Column[0]), engine, compression);
+        // opened before the log is replayed, which keeps them in step with its changes
+        for (String[] index : indexes) table.openIndex(index[0], index[1]);
         tables.put(tableName, table);
         bufferedReader.close();
         reader.close();
@@ -213,6 +313,109 @@ public class Database {
     }
   }
 
+  /**
+   * Writes the dirty pages of every table between a begin and an end record in the log. A change
+   * logged before the begin record is on disk once the end record is written, so recovery only
+   * redoes the log after the begin record of the last complete checkpoint. Tables log and apply a
+   * change holding their lock, which an insert may hold shared, so the begin record is written
+   * holding the write lock of every table, which leaves no change logged before it that has not
+   * reached its table. Once the end record is written the log is cut down to what recovery still
+   * reads. Nothing is done if nothing was logged since the last checkpoint.
+   */
+  public void checkpoint() {
+    try {
+      lock.readLock().lock();
+      File logFile = new File(DATA_DIRECTORY + this.name + ".log");
+      if (logFile.length() == checkpointedLength) return;
+      // taken in order of name, so that two threads locking several tables never wait on each other
+      ArrayList<Table> locked = new ArrayList<>(new TreeMap<>(tables).values());
+      for (Table table : locked) table.lock.writeLock().lock();
+      try {
+        writeLog(CHECKPOINT_BEGIN, -1);
+      } finally {
+        for (Table table : locked) table.lock.writeLock().unlock();
+      }
+      for (Table table : tables.values()) {
+        table.persist();
+      }
+      writeLog(CHECKPOINT_END, -1);
+      for (Table table : locked) table.lock.writeLock().lock();
+      try {
+        truncateLog(logFile);
+      } catch (IOException e) {
+        throw new IOFileException(logFile.getName());
+      } finally {
+        for (Table table : locked) table.lock.writeLock().unlock();
+      }
+      checkpointedLength = logFile.length();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Drops the records recovery no longer reads: those before the begin record of the last complete
+   * checkpoint, except the ones of transactions still open, which an undo walks back. The log is
+   * cut in place, since the tables hold on to its writer, so the kept records go to a side file
+   * first; a crash while the log is rewritten leaves them for {@link #restoreLog} to put back.
+   * Called holding the write lock of every table, and transactions log under the monitor, so
+   * nothing is appended meanwhile.
+   */
+  private synchronized void truncateLog(File logFile) throws IOException {
+    logWriter.flush();
+    List<String> logs = Files.readAllLines(logFile.toPath(), Charset.defaultCharset());
+    int cut = -1;
+    int checkpointBegin = -1;
+    for (int i = 0; i < logs.size(); i++) {
+      String[] parts = logs.get(i).split("##");
+      if (parts.length != 2) continue;
+      if (parts[1].equals(CHECKPOINT_BEGIN)) checkpointBegin = i;
+      else if (parts[1].equals(CHECKPOINT_END) && checkpointBegin >= 0) cut = checkpointBegin;
+    }
+    if (cut <= 0) return;
+
+    HashSet<String> open = new HashSet<>();
+    for (String log : logs) {
+      String[] parts = log.split("##");
+      if (parts.length == 3) open.add(parts[0]);
+      else if (parts.length == 2) open.remove(parts[0]);
+    }
+    StringBuilder kept = new StringBuilder();
+    for (int i = 0; i < logs.size(); i++) {
+      String log = logs.get(i);
+      if (i >= cut || open.contains(log.split("##")[0])) kept.append(log).append('\n');
+    }
+    byte[] bytes = kept.toString().getBytes(Charset.defaultCharset());
+
+    File partial = new File(logFile.getPath() + LOG_PARTIAL_SUFFIX);
+    File rewrite = new File(logFile.getPath() + LOG_REWRITE_SUFFIX);
+    writeSynced(partial, bytes);
+    Files.move(partial.toPath(), rewrite.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    // the writer appends, so it goes on at the end of the shorter log
+    try (FileChannel channel = FileChannel.open(logFile.toPath(), StandardOpenOption.WRITE)) {
+      channel.truncate(0);
+      ByteBuffer buffer = ByteBuffer.wrap(bytes);
+      while (buffer.hasRemaining()) channel.write(buffer);
+      channel.force(true);
+    }
+    Files.delete(rewrite.toPath());
+  }
+
+  /** Puts back a log whose rewrite by {@link #truncateLog} was cut short by a crash. */
+  private static void restoreLog(File logFile) throws IOException {
+    Files.deleteIfExists(new File(logFile.getPath() + LOG_PARTIAL_SUFFIX).toPath());
+    File rewrite = new File(logFile.getPath() + LOG_REWRITE_SUFFIX);
+    if (rewrite.isFile())
+      Files.move(rewrite.toPath(), logFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  private static void writeSynced(File file, byte[] bytes) throws IOException {
+    try (FileOutputStream stream = new FileOutputStream(file)) {
+      stream.write(bytes);
+      stream.getFD().sync();
+    }
+  }
+
   /**
    * Inserts data into a table.
    *
@@ -341,7 +544,7 @@ public class Database {
     return new JointTable(my_tables, logic);
   }
 
-  public void writeLog(String log, long sessionId) {
+  public synchronized void writeLog(String log, long sessionId) {
     try {
       logWriter.write(String.format("%d##%s\n", sessionId, log));
       logWriter.flush();
@@ -370,14 +573,29 @@ public class Database {
         bufferedReader.close();
         reader.close();
 
+        // Changes logged before the last complete checkpoint are already on disk
+        int redoFrom = 0;
+        int checkpointBegin = -1;
+        for (int i = 0; i < logs.size(); i++) {
+          String[] parts = logs.get(i).split("##");
+          if (parts.length != 2) continue;
+          if (parts[1].equals(CHECKPOINT_BEGIN)) checkpointBegin = i;
+          else if (parts[1].equals(CHECKPOINT_END) && checkpointBegin >= 0) redoFrom = checkpointBegin;
+        }
+
         // Redo from the top
 //        System.err.println("Redo");
         ArrayList<Long> sessionIdList = new ArrayList<>();
-        for (String log : logs) {
+        for (int i = 0; i < logs.size(); i++) {
+          String log = logs.get(i);
 //          System.err.println(log);
           String[] parts = log.split("##");
 
           Long sessionId = Long.parseLong(parts[0]);
+          if (sessionId < 0) {
+            // Checkpoint
+            continue;
+          }
           if (parts.length == 3) {
             // Begin transaction
             sessionIdList.add(sessionId);
@@ -386,6 +604,7 @@ public class Database {
             sessionIdList.remove(sessionId);
           } else if (parts.length == 4) {
             // Data
+            if (i < redoFrom) continue;
             String tableName = parts[1];
             String oldVal = parts[2];
             String newVal = parts[3];
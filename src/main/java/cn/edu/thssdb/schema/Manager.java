@@ -26,6 +26,7 @@ public class Manager {
   private final Object lock_mutex = new Object();
   private final Object queue_mutex = new Object();
   private static final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+  private final Checkpointer checkpointer = new Checkpointer(this);
 
   public static Manager getInstance() {
     return Manager.ManagerHolder.INSTANCE;
@@ -227,13 +228,13 @@ public class Manager {
     }
   }
 
+  /**
+   * Ends a session. Its changes are already in the log and reach the table files with the next
+   * checkpoint, so nothing is persisted here.
+   */
   public void quit(long sessionId) {
     try {
       lock.writeLock().lock();
-      for (Database db : databases.values()) {
-        db.quit();
-      }
-      persist();
       if (currentDB.containsKey(sessionId)) {
         currentDB.remove(sessionId);
       }
@@ -243,6 +244,23 @@ public class Manager {
     }
   }
 
+  /** Checkpoints every database, see {@link Database#checkpoint}. */
+  public synchronized void checkpoint() {
+    try {
+      lock.readLock().lock();
+      for (Database db : databases.values()) {
+        db.checkpoint();
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /** The thread that checkpoints the databases; the server starts it and shuts it down. */
+  public Checkpointer getCheckpointer() {
+    return checkpointer;
+  }
+
   private void persist() {
     try {
       FileOutputStream fos = new FileOutputStream(DATA_DIRECTORY + "manager.data");
@@ -1,10 +1,19 @@
 package cn.edu.thssdb.schema;
 
+import cn.edu.thssdb.storage.StringDictionary;
+
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.StringJoiner;
 
+/**
+ * A row as a list of entries.
+ *
+ * <p>The typed accessors read one column without going through its {@link Entry}. They are what
+ * {@link CompactRow} and the query rows built on it implement without boxing; here they unwrap the
+ * entry.
+ */
 public class Row implements Serializable {
   private static final long serialVersionUID = -5809782578272943999L;
   protected ArrayList<Entry> entries;
@@ -21,6 +30,12 @@ public class Row implements Serializable {
     position = 0;
   }
 
+  /** For subclasses that keep their values elsewhere and build the entries on demand. */
+  protected Row(ArrayList<Entry> entries) {
+    this.entries = entries;
+    position = 0;
+  }
+
   public int getPosition() {
     return position;
   }
@@ -33,8 +48,47 @@ public class Row implements Serializable {
     return entries;
   }
 
-  public void appendEntries(ArrayList<Entry> entries) {
-    this.entries.addAll(entries);
+  /** Number of columns. */
+  public int size() {
+    return entries.size();
+  }
+
+  public Entry getEntry(int index) {
+    return entries.get(index);
+  }
+
+  public boolean isNull(int index) {
+    return entries.get(index).value == null;
+  }
+
+  /** Value of a non-null INT or LONG column. */
+  public long getLong(int index) {
+    return ((Number) entries.get(index).value).longValue();
+  }
+
+  /** Value of a non-null numeric column. */
+  public double getDouble(int index) {
+    return ((Number) entries.get(index).value).doubleValue();
+  }
+
+  /** Value of a non-null STRING column. */
+  public String getString(int index) {
+    return (String) entries.get(index).value;
+  }
+
+  /** Code of a STRING column in its {@link #getDictionary dictionary}, or -1 if it has none. */
+  public int getCode(int index) {
+    return -1;
+  }
+
+  /** The dictionary that codes a STRING column, or null. */
+  public StringDictionary getDictionary(int index) {
+    return null;
+  }
+
+  /** A column as {@link Entry#toString} prints it. */
+  public String format(int index) {
+    return entries.get(index).toString();
   }
 
   public String toString() {
@@ -2,18 +2,29 @@ package cn.edu.thssdb.schema;
 
 import cn.edu.thssdb.exception.*;
 import cn.edu.thssdb.index.BPlusTree;
+import cn.edu.thssdb.index.SecondaryIndex;
+import cn.edu.thssdb.query.ColumnRange;
 import cn.edu.thssdb.query.Comparer;
 import cn.edu.thssdb.query.JointRow;
 import cn.edu.thssdb.query.Logic;
+import cn.edu.thssdb.storage.ColumnarStorage;
+import cn.edu.thssdb.storage.KeyRange;
+import cn.edu.thssdb.storage.LsmStorage;
 import cn.edu.thssdb.storage.Storage;
+import cn.edu.thssdb.storage.TableStorage;
+import cn.edu.thssdb.storage.ZoneMap;
 import cn.edu.thssdb.type.ColumnType;
 import cn.edu.thssdb.type.ComparerType;
+import cn.edu.thssdb.type.CompressionType;
+import cn.edu.thssdb.type.EngineType;
 import cn.edu.thssdb.type.ResultType;
 import cn.edu.thssdb.utils.Pair;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
 
 import static cn.edu.thssdb.utils.Global.DATA_DIRECTORY;
 
@@ -26,10 +37,21 @@ public class Table implements Iterable<Row> {
     return columns;
   }
 
+  public EngineType getEngine() {
+    return engine;
+  }
+
+  public CompressionType getCompression() {
+    return compression;
+  }
+
   public ArrayList<Column> columns;
+  private final EngineType engine;
+  private final CompressionType compression;
   public BPlusTree<Entry, Row> index;
-  public Storage storage;
+  public TableStorage storage;
   private int primaryIndex;
+  private final LinkedHashMap<String, SecondaryIndex> indexes = new LinkedHashMap<>();
   int tp_lock = 0;
   private final Object lock_mutex = new Object();
   public ArrayList<Long> xLockList; // 独占锁
@@ -39,9 +61,24 @@ public class Table implements Iterable<Row> {
   public long sessionId = -1;
 
   public Table(String databaseName, String tableName, Column[] columns) {
+    this(databaseName, tableName, columns, EngineType.HEAP);
+  }
+
+  public Table(String databaseName, String tableName, Column[] columns, EngineType engine) {
+    this(databaseName, tableName, columns, engine, CompressionType.NONE);
+  }
+
+  public Table(
+      String databaseName,
+      String tableName,
+      Column[] columns,
+      EngineType engine,
+      CompressionType compression) {
     ReentrantReadWriteLock lock; // 读写锁
     this.databaseName = databaseName;
     this.tableName = tableName;
+    this.engine = engine;
+    this.compression = compression;
     this.columns = new ArrayList<>(Arrays.asList(columns));
     for (int i = 0; i < this.columns.size(); i++) {
       if (this.columns.get(i).getPrimary() == 1) primaryIndex = i;
@@ -49,7 +86,13 @@ public class Table implements Iterable<Row> {
     if (primaryIndex < 0 || primaryIndex >= this.columns.size()) {
       throw new PrimaryNotExistException(tableName);
     }
-    this.storage = new Storage(databaseName, tableName);
+    if (engine == EngineType.COLUMNAR) {
+      this.storage = new ColumnarStorage(databaseName, tableName, this.columns, compression);
+    } else if (engine == EngineType.LSM) {
+      this.storage = new LsmStorage(databaseName, tableName, this.columns);
+    } else {
+      this.storage = new Storage(databaseName, tableName, this.columns, engine, compression);
+    }
     this.lock = new ReentrantReadWriteLock();
     this.xLockList = new ArrayList<>();
     this.sLockList = new ArrayList<>();
@@ -148,43 +191,7 @@ public class Table implements Iterable<Row> {
     }
 
   private void recover() {
-    // TODO
-    File dir = new File(DATA_DIRECTORY);
-    File[] fileList = dir.listFiles();
-    if (fileList == null) {
-      return;
-    }
-
-    HashMap<Integer, File> pageFileList = new HashMap<>();
-    int pageNum = 0;
-
-    for (File file : fileList) {
-      if (file != null && file.isFile()) {
-        try {
-          String fileName = file.getName();
-          String[] parts = fileName.substring(0, fileName.indexOf('.')).split("#_#");
-
-          String databaseName = parts[1];
-          String tableName = parts[2];
-
-          int id = Integer.parseInt(parts[3]);
-
-          if (!(this.databaseName.equals(databaseName) && this.tableName.equals(tableName))) {
-            continue;
-          }
-
-          pageFileList.put(id, file);
-          pageNum = Math.max(pageNum, id);
-        } catch (Exception ignored) {
-        }
-      }
-    }
-
-    for (int i = 1; i <= pageNum; i++) {
-      File file = pageFileList.get(i);
-      ArrayList<Row> rows = deserialize(file);
-      storage.insertPage(rows, primaryIndex);
-    }
+    storage.recover(primaryIndex);
   }
 
   public void insert(ArrayList<Column> columns, ArrayList<Entry> entries) {
@@ -237,14 +244,34 @@ public class Table implements Iterable<Row> {
   }
 
   private void writeToStorage(ArrayList<Entry> orderedEntries) {
+    Lock insertLock = insertLock();
     try {
-      lock.writeLock().lock();
-      storage.insertRow(orderedEntries, primaryIndex);
+      insertLock.lock();
+      insertRow(orderedEntries, false);
     } finally {
-      lock.writeLock().unlock();
+      insertLock.unlock();
     }
   }
 
+  /**
+   * The lock an insert holds: the read lock if the storage takes inserts in parallel, so that they
+   * run alongside each other and the reads of the table, and the write lock otherwise. Either keeps
+   * a checkpoint, which takes the write lock, from starting while a row is inserted and logged.
+   */
+  private Lock insertLock() {
+    return storage.concurrentInserts() ? lock.readLock() : lock.writeLock();
+  }
+
+  /**
+   * Writes a new row to the storage and its values to the secondary indexes. The caller holds the
+   * lock of {@link #insertLock}.
+   */
+  private void insertRow(ArrayList<Entry> entries, boolean isTransaction) {
+    storage.insertRow(entries, primaryIndex, isTransaction);
+    Entry primary = entries.get(primaryIndex);
+    for (SecondaryIndex index : indexes.values()) index.put(entries.get(index.getColumn()), primary);
+  }
+
   /**
    * Insert a new row. use transaction options.
    *
@@ -260,11 +287,12 @@ public class Table implements Iterable<Row> {
     ArrayList<Entry> orderedEntries = reorderEntriesAccordingToSchema(columns, entries);
 
     // write to cache
+    Lock insertLock = insertLock();
     try {
-      lock.writeLock().lock();
-      storage.insertRow(orderedEntries, primaryIndex, isTransaction);
+      insertLock.lock();
+      insertRow(orderedEntries, isTransaction);
     } finally {
-      lock.writeLock().unlock();
+      insertLock.unlock();
     }
   }
 
@@ -401,13 +429,14 @@ public class Table implements Iterable<Row> {
   public void insert(String[] columns, String[] values) {
     ArrayList<Entry> orderedEntries = prepareInsertion(columns, values);
     // write to cache
+    Lock insertLock = insertLock();
     try {
-      lock.writeLock().lock();
-      storage.insertRow(orderedEntries, primaryIndex);
+      insertLock.lock();
+      insertRow(orderedEntries, false);
     } catch (DuplicateKeyException e) {
       throw e;
     } finally {
-      lock.writeLock().unlock();
+      insertLock.unlock();
     }
   }
 
@@ -426,18 +455,19 @@ public class Table implements Iterable<Row> {
    */
   public void insert(String[] columns, String[] values, boolean isTransaction) {
     ArrayList<Entry> orderedEntries = prepareInsertion(columns, values);
-    if (logWriter != null) {
-      writeLog(null, orderedEntries);
-    }
-
     // write to cache
+    Lock insertLock = insertLock();
     try {
-      lock.writeLock().lock();
-      storage.insertRow(orderedEntries, primaryIndex, isTransaction);
+      insertLock.lock();
+      // logged once inserted, since of two inserts of a key running at once only one succeeds
+      insertRow(orderedEntries, isTransaction);
+      if (logWriter != null) {
+        writeLog(null, orderedEntries);
+      }
     } catch (DuplicateKeyException e) {
       throw e;
     } finally {
-      lock.writeLock().unlock();
+      insertLock.unlock();
     }
   }
 
@@ -506,18 +536,19 @@ public class Table implements Iterable<Row> {
       orderedEntries.add(new Entry(the_entry_value));
     }
 
-    if (logWriter != null) {
-      writeLog(null, orderedEntries);
-    }
-
     // write to cache
+    Lock insertLock = insertLock();
     try {
-      lock.writeLock().lock();
-      storage.insertRow(orderedEntries, primaryIndex, isTransaction);
+      insertLock.lock();
+      // logged once inserted, since of two inserts of a key running at once only one succeeds
+      insertRow(orderedEntries, isTransaction);
+      if (logWriter != null) {
+        writeLog(null, orderedEntries);
+      }
     } catch (DuplicateKeyException e) {
       throw e;
     } finally {
-      lock.writeLock().unlock();
+      insertLock.unlock();
     }
   }
 
@@ -545,19 +576,24 @@ public class Table implements Iterable<Row> {
     Comparable entryValue = ParseValue(column, primaryValue);
     validateValue(column, entryValue);
 
-    if (logWriter != null) {
-      // Construct a new row
-      ArrayList<Entry> oldEntries = new ArrayList<>();
-      for (int i = 0; i < this.columns.size(); i++) {
-        Comparable the_entry_value = ParseValue(this.columns.get(i), values[i]);
-        validateValue(this.columns.get(i), the_entry_value);
-        oldEntries.add(new Entry(the_entry_value));
+    try {
+      lock.writeLock().lock();
+      if (logWriter != null) {
+        // Construct a new row
+        ArrayList<Entry> oldEntries = new ArrayList<>();
+        for (int i = 0; i < this.columns.size(); i++) {
+          Comparable the_entry_value = ParseValue(this.columns.get(i), values[i]);
+          validateValue(this.columns.get(i), the_entry_value);
+          oldEntries.add(new Entry(the_entry_value));
+        }
+
+        writeLog(oldEntries, null);
       }
 
-      writeLog(oldEntries, null);
+      delete(new Entry(entryValue));
+    } finally {
+      lock.writeLock().unlock();
     }
-
-    delete(new Entry(entryValue));
   }
 
   /**
@@ -583,7 +619,10 @@ public class Table implements Iterable<Row> {
   private void executeDelete(Entry primaryEntry, boolean isTransaction) {
     try {
       lock.writeLock().lock();
+      Entry[] indexed = indexedValues(primaryEntry);
       storage.deleteRow(primaryEntry, primaryIndex, isTransaction);
+      int i = 0;
+      for (SecondaryIndex index : indexes.values()) index.remove(indexed[i++], primaryEntry);
     } finally {
       lock.writeLock().unlock();
     }
@@ -609,14 +648,21 @@ public class Table implements Iterable<Row> {
    */
   public String delete(Logic the_logic, boolean isTransaction) {
     int count = 0;
-    for (Row row : this) {
+    Iterator<Row> rows = iterator(the_logic, null, null);
+    while (rows.hasNext()) {
+      Row row = rows.next();
       JointRow the_row = new JointRow(row, this);
       if (the_logic == null || the_logic.getResult(the_row) == ResultType.TRUE) {
-        Entry primary_entry = row.getEntries().get(primaryIndex);
-        if (logWriter != null) {
-          writeLog(row.getEntries(), null);
+        Entry primary_entry = row.getEntry(primaryIndex);
+        try {
+          lock.writeLock().lock();
+          if (logWriter != null) {
+            writeLog(row.getEntries(), null);
+          }
+          delete(primary_entry, isTransaction);
+        } finally {
+          lock.writeLock().unlock();
         }
-        delete(primary_entry, isTransaction);
         count++;
       }
     }
@@ -668,7 +714,25 @@ public class Table implements Iterable<Row> {
 
     try {
       lock.writeLock().lock();
+      Entry[] indexed = indexedValues(primaryEntry);
       storage.updateRow(primaryEntry, primaryIndex, targetKeys, updateEntries, isTransaction);
+      Entry newPrimary = primaryEntry;
+      for (int i = 0; i < targetKeys.length; i++) {
+        if (targetKeys[i] == primaryIndex) newPrimary = updateEntries.get(i);
+      }
+      int i = 0;
+      for (SecondaryIndex index : indexes.values()) {
+        Entry value = indexed[i++];
+        Entry newValue = value;
+        for (int j = 0; j < targetKeys.length; j++) {
+          if (targetKeys[j] == index.getColumn()) newValue = updateEntries.get(j);
+        }
+        if (Objects.equals(value.value, newValue.value) && newPrimary.equals(primaryEntry)) {
+          continue;
+        }
+        index.remove(value, primaryEntry);
+        index.put(newValue, newPrimary);
+      }
     } catch (KeyNotExistException | DuplicateKeyException e) {
       throw e;
     } finally {
@@ -699,10 +763,12 @@ public class Table implements Iterable<Row> {
 
     int count = 0;
 
-    for (Row row : this) {
+    Iterator<Row> rows = iterator(the_logic, null, null);
+    while (rows.hasNext()) {
+      Row row = rows.next();
       JointRow the_row = new JointRow(row, this);
       if (the_logic.getResult(the_row) == ResultType.TRUE) {
-        Entry primary_entry = row.getEntries().get(primaryIndex);
+        Entry primary_entry = row.getEntry(primaryIndex);
         Pair<Integer, Column> c = findColumn(column_name);
         Column the_column = c.right;
         if (the_column == null) {
@@ -718,24 +784,29 @@ public class Table implements Iterable<Row> {
         ArrayList<Entry> the_entry_list = new ArrayList<>();
         the_entry_list.add(the_entry);
 
-        if (logWriter != null) {
-          // Construct a new row
-          ArrayList<Entry> oldEntries = row.getEntries();
-          ArrayList<Entry> newEntries = new ArrayList<>();
-          int updateColumnIndex = c.left;
-          int rowLength = row.getEntries().size();
-          for (int i = 0; i < rowLength; i++) {
-            if (i == updateColumnIndex) {
-              newEntries.add(the_entry);
-            }
-            else {
-              newEntries.add(oldEntries.get(i));
+        try {
+          lock.writeLock().lock();
+          if (logWriter != null) {
+            // Construct a new row
+            ArrayList<Entry> oldEntries = row.getEntries();
+            ArrayList<Entry> newEntries = new ArrayList<>();
+            int updateColumnIndex = c.left;
+            int rowLength = oldEntries.size();
+            for (int i = 0; i < rowLength; i++) {
+              if (i == updateColumnIndex) {
+                newEntries.add(the_entry);
+              }
+              else {
+                newEntries.add(oldEntries.get(i));
+              }
             }
-          }
 
-          writeLog(oldEntries, newEntries);
+            writeLog(oldEntries, newEntries);
+          }
+          update(primary_entry, the_column_list, the_entry_list, isTransaction);
+        } finally {
+          lock.writeLock().unlock();
         }
-        update(primary_entry, the_column_list, the_entry_list, isTransaction);
         count++;
       }
     }
@@ -756,19 +827,24 @@ public class Table implements Iterable<Row> {
       orderedEntries.add(new Entry(the_entry_value));
     }
 
-    if (logWriter != null) {
-      // Construct a new row
-      ArrayList<Entry> oldEntries = new ArrayList<>();
-      for (int i = 0; i < this.columns.size(); i++) {
-        Comparable the_entry_value = ParseValue(this.columns.get(i), oldValues[i]);
-        validateValue(this.columns.get(i), the_entry_value);
-        oldEntries.add(new Entry(the_entry_value));
+    try {
+      lock.writeLock().lock();
+      if (logWriter != null) {
+        // Construct a new row
+        ArrayList<Entry> oldEntries = new ArrayList<>();
+        for (int i = 0; i < this.columns.size(); i++) {
+          Comparable the_entry_value = ParseValue(this.columns.get(i), oldValues[i]);
+          validateValue(this.columns.get(i), the_entry_value);
+          oldEntries.add(new Entry(the_entry_value));
+        }
+
+        writeLog(oldEntries, orderedEntries);
       }
 
-      writeLog(oldEntries, orderedEntries);
+      update(new Entry(primaryEntryValue), columns, orderedEntries, false);
+    } finally {
+      lock.writeLock().unlock();
     }
-
-    update(new Entry(primaryEntryValue), columns, orderedEntries, false);
   }
 
   /**
@@ -820,15 +896,116 @@ public class Table implements Iterable<Row> {
     return targetKeys;
   }
 
+  /**
+   * The values of the indexed columns in the row of a key, in the order of the indexes, read before
+   * the row changes. The caller holds the write lock.
+   *
+   * @throws KeyNotExistException if there is no row with the key
+   */
+  private Entry[] indexedValues(Entry primaryEntry) {
+    Entry[] values = new Entry[indexes.size()];
+    if (values.length == 0) return values;
+    Row row = storage.getRow(primaryEntry, primaryIndex, false);
+    int i = 0;
+    for (SecondaryIndex index : indexes.values()) values[i++] = row.getEntry(index.getColumn());
+    return values;
+  }
+
+  /**
+   * Creates an index of a column, filled from the rows the table holds.
+   *
+   * @throws DuplicateIndexException if the table has an index of the name already
+   * @throws AttributeNotFoundException if the table has no column of the name
+   */
+  public void createIndex(String name, String columnName) {
+    addIndex(name, columnName, false);
+  }
+
+  /**
+   * Opens an index the table had when it was persisted. Its file is read as it is unless it was
+   * changed after it was last saved, in which case the index is filled again from the rows.
+   */
+  void openIndex(String name, String columnName) {
+    addIndex(name, columnName, true);
+  }
+
+  private void addIndex(String name, String columnName, boolean reuse) {
+    try {
+      lock.writeLock().lock();
+      if (indexes.containsKey(name)) throw new DuplicateIndexException(name);
+      int column = getColumnIndex(columnName);
+      if (column < 0) throw new AttributeNotFoundException(columnName);
+      if (column == primaryIndex) {
+        throw new OtherException(columnName + " is the primary key, which is indexed already");
+      }
+      String file = DATA_DIRECTORY + "sindex#_#" + databaseName + "#_#" + tableName;
+      SecondaryIndex index =
+          new SecondaryIndex(
+              name,
+              column,
+              file + "#_#" + name + ".data",
+              columns.get(column),
+              columns.get(primaryIndex));
+      if (!reuse || !index.isTrusted()) {
+        index.clear();
+        for (Row row : this) index.put(row.getEntry(column), row.getEntry(primaryIndex));
+      }
+      indexes.put(name, index);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /** @throws IndexNotExistException if the table has no index of the name */
+  public void dropIndex(String name) {
+    try {
+      lock.writeLock().lock();
+      SecondaryIndex index = indexes.remove(name);
+      if (index == null) throw new IndexNotExistException(name);
+      index.drop();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  public Collection<SecondaryIndex> getIndexes() {
+    return indexes.values();
+  }
+
+  /** Whether a secondary index covers the column of the name. */
+  public boolean isIndexed(String columnName) {
+    int column = getColumnIndex(columnName);
+    for (SecondaryIndex index : indexes.values()) {
+      if (index.getColumn() == column) return true;
+    }
+    return false;
+  }
+
   public void persist() {
     try {
       lock.readLock().lock();
       storage.persist();
+      for (SecondaryIndex index : indexes.values()) index.persist();
     } finally {
       lock.readLock().unlock();
     }
   }
 
+  /**
+   * Method to compact the pages of the table and give the empty ones at its end back to the file
+   * system.
+   *
+   * @return The number of pages removed.
+   */
+  public int vacuum() {
+    try {
+      lock.writeLock().lock();
+      return storage.vacuum();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
   /**
    * Method to get a row from a table or cache based on a primary key.
    *
@@ -842,7 +1019,7 @@ public class Table implements Iterable<Row> {
     Row row;
     try {
       lock.readLock().lock();
-      row = storage.getRow(entry, primaryIndex);
+      row = storage.getRow(entry, primaryIndex, false);
     } finally {
       lock.readLock().unlock();
     }
@@ -854,49 +1031,18 @@ public class Table implements Iterable<Row> {
     try {
       lock.writeLock().lock();
       dropFromStorage();
-      deleteDataFiles();
       clearColumns();
     } finally {
       lock.writeLock().unlock();
     }
   }
 
-  /** Method to drop the table from the cache. */
+  /** Method to drop the table from the cache together with its tablespace and indexes. */
   private void dropFromStorage() {
     storage.dropSelf();
     storage = null;
-  }
-
-  /** Method to delete the data files of the table. */
-  private void deleteDataFiles() {
-    File dir = new File(DATA_DIRECTORY);
-    File[] fileList = dir.listFiles();
-    if (fileList == null) return;
-    for (File f : fileList) {
-      if (f.isFile() && isDataFileOfTable(f)) {
-        boolean deleted = f.delete();
-        if (!deleted) {
-          System.err.println("Warning: Failed to delete file " + f.getName());
-        }
-      }
-    }
-  }
-
-  /**
-   * Method to check if a file is a data file of the table.
-   *
-   * @param file The file to check.
-   * @return True if the file is a data file of the table, false otherwise.
-   */
-  private boolean isDataFileOfTable(File file) {
-    String[] parts = file.getName().split("\\.")[0].split("_");
-    if (parts.length != 3) {
-      return false;
-    }
-
-    String databaseName = parts[1];
-    String tableName = parts[2];
-    return this.databaseName.equals(databaseName) && this.tableName.equals(tableName);
+    for (SecondaryIndex index : indexes.values()) index.drop();
+    indexes.clear();
   }
 
   /** Method to clear the columns of the table. */
@@ -905,18 +1051,6 @@ public class Table implements Iterable<Row> {
     columns = null;
   }
 
-  private void serialize() {}
-
-  private ArrayList<Row> deserialize(File file) {
-    ArrayList<Row> rows = null;
-    try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(file))) { // 不需要显式关闭
-      rows = (ArrayList<Row>) ois.readObject();
-    } catch (IOException | ClassNotFoundException e) {
-      e.printStackTrace();
-    }
-    return rows;
-  }
-
   /**
    * Method to create a string representation of the table.
    *
@@ -966,6 +1100,10 @@ public class Table implements Iterable<Row> {
     return -1;
   }
 
+  /**
+   * Logs a change to the table. The caller holds the write lock from here until the change is
+   * applied, which keeps a checkpoint from starting in between.
+   */
   public void writeLog(ArrayList<Entry> oldVal, ArrayList<Entry> newVal) {
     try {
       logWriter.write(String.format("%d##%s##%s##%s\n", sessionId, tableName, oldVal, newVal));
@@ -975,35 +1113,115 @@ public class Table implements Iterable<Row> {
     }
   }
 
-  private class TableIterator implements Iterator<Row> {
-    private Iterator<Pair<Entry, Row>> iterator;
-    private final Storage mStorage;
+  @Override
+  public Iterator<Row> iterator() {
+    return iterator(null, null, KeyRange.ALL);
+  }
+
+  /**
+   * Iterates the rows of a range of primary keys in key order, starting at the range in the index.
+   * A columnar table only reads the given columns and leaves the others null; the other engines
+   * read whole rows. A table kept in pages leaves out the rows of the pages whose zone map the
+   * filter rejects, without reading them.
+   *
+   * @param columns whether each column is read, or null to read them all
+   * @param pages whether a page may hold a row the caller wants, or null to read every page
+   * @param keys the range of the rows read
+   */
+  public Iterator<Row> iterator(boolean[] columns, Predicate<ZoneMap> pages, KeyRange keys) {
+    return locked(storage.scan(columns, pages, keys));
+  }
 
-    TableIterator(Table table) {
-      mStorage = table.storage;
-      iterator = table.storage.getIndexIter();
+  /**
+   * Iterates the rows in primary key order that may satisfy the logic, reading the range of
+   * primary keys the logic leaves, else the range of values of an indexed column it leaves, else
+   * every row. The rows are still to be checked against the logic.
+   *
+   * @param columns whether each column is read, or null to read them all
+   * @param pages whether a page may hold a row the caller wants, or null to read every page
+   */
+  public Iterator<Row> iterator(Logic logic, boolean[] columns, Predicate<ZoneMap> pages) {
+    KeyRange keys = ColumnRange.of(logic, this, primaryIndex);
+    if (keys.isEmpty()) return Collections.emptyIterator();
+    if (keys.isAll()) {
+      SecondaryIndex chosen = null;
+      KeyRange chosenValues = null;
+      for (SecondaryIndex index : indexes.values()) {
+        KeyRange values = ColumnRange.of(logic, this, index.getColumn());
+        if (values.isEmpty()) return Collections.emptyIterator();
+        // a single value is likely to leave the fewest rows
+        if (!values.isAll() && (chosen == null || values.isSingle() && !chosenValues.isSingle())) {
+          chosen = index;
+          chosenValues = values;
+        }
+      }
+      if (chosen != null) return iterator(chosen, chosenValues);
     }
+    return iterator(columns, pages, keys);
+  }
 
-    @Override
-    public boolean hasNext() {
-      return iterator.hasNext();
+  /**
+   * Iterates the rows whose value of an indexed column lies in a range. Their keys are taken from
+   * the index at once and sorted, so the rows come in primary key order and the caller may change
+   * the table meanwhile; a row deleted since is left out.
+   */
+  private Iterator<Row> iterator(SecondaryIndex index, KeyRange values) {
+    ArrayList<Entry> keys;
+    try {
+      lock.readLock().lock();
+      keys = index.find(values);
+    } finally {
+      lock.readLock().unlock();
     }
+    Collections.sort(keys);
+    Iterator<Entry> iterator = keys.iterator();
+    return new Iterator<Row>() {
+      private Row next;
+
+      @Override
+      public boolean hasNext() {
+        while (next == null && iterator.hasNext()) {
+          try {
+            next = get(iterator.next());
+          } catch (KeyNotExistException ignored) {
+          }
+        }
+        return next != null;
+      }
 
-    @Override
-    public Row next() {
-      Entry entry = iterator.next().getKey();
-      try {
-        return get(entry);
-      } catch (KeyNotExistException exception) {
-        System.err.printf("retrieving entry %s %s %s\n", tableName, entry, exception);
-        throw exception;
+      @Override
+      public Row next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        Row row = next;
+        next = null;
+        return row;
       }
-    }
+    };
   }
 
-  @Override
-  public Iterator<Row> iterator() {
-    return new TableIterator(this);
+  /** Reads every row of a scan of the storage under the read lock of the table. */
+  private Iterator<Row> locked(Iterator<Row> rows) {
+    return new Iterator<Row>() {
+      @Override
+      public boolean hasNext() {
+        try {
+          lock.readLock().lock();
+          return rows.hasNext();
+        } finally {
+          lock.readLock().unlock();
+        }
+      }
+
+      @Override
+      public Row next() {
+        try {
+          lock.readLock().lock();
+          return rows.next();
+        } finally {
+          lock.readLock().unlock();
+        }
+      }
+    };
   }
 
   // cancel all pinned pages
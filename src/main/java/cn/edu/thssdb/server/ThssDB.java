@@ -32,12 +32,21 @@ public class ThssDB {
   }
 
   private void start() {
+    manager = Manager.getInstance();
+    manager.getCheckpointer().start();
+    Runtime.getRuntime().addShutdownHook(new Thread(this::stop, "final-checkpoint"));
     handler = new IServiceHandler();
     processor = new IService.Processor(handler);
     Runnable setup = () -> setUp(processor);
     new Thread(setup).start();
   }
 
+  /** Stops serving and writes a last checkpoint, so that the next start has no log to redo. */
+  private void stop() {
+    if (server != null) server.stop();
+    manager.getCheckpointer().shutdown();
+  }
+
   private static void setUp(IService.Processor processor) {
     try {
       transport = new TServerSocket(Global.DEFAULT_SERVER_PORT);
@@ -23,7 +23,6 @@ import org.apache.thrift.TException;
 
 import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.stream.Collectors;
 
 public class IServiceHandler implements IService.Iface {
 
@@ -138,7 +137,7 @@ public class IServiceHandler implements IService.Iface {
           CreateTablePlan ct_plan = (CreateTablePlan) plan;
           String name = ct_plan.getTableName();
           Column[] columns = ct_plan.getColumns();
-          database.create(name, columns);
+          database.create(name, columns, ct_plan.getEngine(), ct_plan.getCompression());
           return new ExecuteStatementResp(
               StatusUtil.success(String.format("Created table %s.", name)), false);
         } catch (Exception e) {
@@ -160,6 +159,34 @@ public class IServiceHandler implements IService.Iface {
           return new ExecuteStatementResp(StatusUtil.fail(e.toString()), false);
         }
 
+      case CREATE_INDEX:
+        try {
+          Database database = manager.getCurrent(sessionId);
+          CreateIndexPlan ci_plan = (CreateIndexPlan) plan;
+          String name = ci_plan.getIndexName();
+          database.createIndex(ci_plan.getTableName(), name, ci_plan.getColumnName());
+          return new ExecuteStatementResp(
+              StatusUtil.success(String.format("Created index %s.", name)), false);
+        } catch (Exception e) {
+          System.err.printf("%d %s\n", sessionId, req.statement);
+          e.printStackTrace();
+          return new ExecuteStatementResp(StatusUtil.fail(e.toString()), false);
+        }
+
+      case DROP_INDEX:
+        try {
+          Database database = manager.getCurrent(sessionId);
+          DropIndexPlan di_plan = (DropIndexPlan) plan;
+          String name = di_plan.getIndexName();
+          database.dropIndex(di_plan.getTableName(), name);
+          return new ExecuteStatementResp(
+              StatusUtil.success(String.format("Dropped index %s.", name)), false);
+        } catch (Exception e) {
+          System.err.printf("%d %s\n", sessionId, req.statement);
+          e.printStackTrace();
+          return new ExecuteStatementResp(StatusUtil.fail(e.toString()), false);
+        }
+
       case SHOW_TB:
         try {
           Database database = manager.getCurrent(sessionId);
@@ -171,13 +198,16 @@ public class IServiceHandler implements IService.Iface {
           resp.addToColumnsList("Type");
           resp.addToColumnsList("Null");
           resp.addToColumnsList("Key");
-          for (Column column : database.get(name).getColumns()) {
+          Table table = database.get(name);
+          for (Column column : table.getColumns()) {
             resp.addToRowList(
                 Arrays.asList(
                     column.getName(),
                     column.getType().toString(),
                     column.isNotNull() ? "NO" : "YES",
-                    column.getPrimary() > 0 ? "PRI" : ""));
+                    column.getPrimary() > 0
+                        ? "PRI"
+                        : table.isIndexed(column.getName()) ? "MUL" : ""));
           }
           return resp;
         } catch (Exception e) {
@@ -186,6 +216,24 @@ public class IServiceHandler implements IService.Iface {
           return new ExecuteStatementResp(StatusUtil.fail(e.toString()), false);
         }
 
+      case VACUUM:
+        try {
+          Database database = manager.getCurrent(sessionId);
+          String name = ((VacuumPlan) plan).getTableName();
+          int removed = database.vacuum(name);
+          return new ExecuteStatementResp(
+              StatusUtil.success(
+                  String.format(
+                      "Vacuumed %s, %d pages removed.",
+                      name == null ? "database " + database.get_name() : "table " + name,
+                      removed)),
+              false);
+        } catch (Exception e) {
+          System.err.printf("%d %s\n", sessionId, req.statement);
+          e.printStackTrace();
+          return new ExecuteStatementResp(StatusUtil.fail(e.toString()), false);
+        }
+
       case INSERT:
         try {
           Database database = manager.getCurrent(sessionId);
@@ -308,8 +356,11 @@ public class IServiceHandler implements IService.Iface {
             if (row == null) {
               break;
             }
-            ArrayList<Entry> entries = row.getEntries();
-            resp.addToRowList(entries.stream().map(Entry::toString).collect(Collectors.toList()));
+            List<String> values = new ArrayList<>(row.size());
+            for (int i = 0; i < row.size(); i++) {
+              values.add(row.format(i));
+            }
+            resp.addToRowList(values);
           }
 
           // Free s lock if autocommit
@@ -0,0 +1,74 @@
+package cn.edu.thssdb.storage;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A set of 64-bit hashes that may answer "maybe" for a hash it does not hold but never "no" for one
+ * it does. With {@link #BITS_PER_KEY} bits per key and {@link #HASHES} probes about 1% of the
+ * absent keys are let through.
+ */
+public class BloomFilter {
+  static final int BITS_PER_KEY = 10;
+  static final int HASHES = 7;
+
+  private final long[] words;
+  private final long bits;
+
+  /** Creates an empty filter sized for the given number of keys. */
+  public BloomFilter(int keys) {
+    this(new long[(int) ((Math.max(keys, 1) * (long) BITS_PER_KEY + 63) / 64)]);
+  }
+
+  private BloomFilter(long[] words) {
+    this.words = words;
+    this.bits = words.length * 64L;
+  }
+
+  public void add(long hash) {
+    int h1 = (int) hash;
+    int h2 = (int) (hash >>> 32);
+    for (int i = 0; i < HASHES; i++) {
+      long bit = ((h1 + i * h2) & Integer.MAX_VALUE) % bits;
+      words[(int) (bit >>> 6)] |= 1L << bit;
+    }
+  }
+
+  public boolean mightContain(long hash) {
+    int h1 = (int) hash;
+    int h2 = (int) (hash >>> 32);
+    for (int i = 0; i < HASHES; i++) {
+      long bit = ((h1 + i * h2) & Integer.MAX_VALUE) % bits;
+      if ((words[(int) (bit >>> 6)] & (1L << bit)) == 0) return false;
+    }
+    return true;
+  }
+
+  /** A 64-bit hash of the bytes of a key, spread over all its bits. */
+  public static long hash(byte[] bytes, int length) {
+    long h = 0xcbf29ce484222325L;
+    for (int i = 0; i < length; i++) {
+      h ^= bytes[i] & 0xFF;
+      h *= 0x100000001b3L;
+    }
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+
+  public void write(DataOutputStream output) throws IOException {
+    output.writeInt(words.length);
+    for (long word : words) output.writeLong(word);
+  }
+
+  /** Reads a filter written by {@link #write} at the position of the buffer. */
+  public static BloomFilter read(ByteBuffer buffer) {
+    long[] words = new long[buffer.getInt()];
+    for (int i = 0; i < words.length; i++) words[i] = buffer.getLong();
+    return new BloomFilter(words);
+  }
+}
@@ -0,0 +1,176 @@
+package cn.edu.thssdb.storage;
+
+import cn.edu.thssdb.utils.Global;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The page cache shared by every table of the server.
+ *
+ * <p>The pool has a fixed number of frames, one per {@link Page#PAGE_SIZE} bytes of {@link
+ * Global#BUFFER_POOL_SIZE}. A {@link PageOwner} registers a page with {@link #admit} before loading
+ * or creating it, and the pool evicts an unpinned page of any table, chosen by its {@link
+ * ReplacementPolicy}, to make room. A page that is pinned by a thread using it, or by a
+ * transaction, is never chosen. An owner only evicts a page when it can take its latches without
+ * waiting, so a thread holding the pool never blocks on a table, and a page that is busy is
+ * skipped. Every method is synchronized, so any number of threads can fault pages in at once.
+ *
+ * <p>Dirty pages are counted as their owners report them, and a {@link PageFlusher} writes them
+ * back in the background so that eviction rarely has to write a page itself.
+ *
+ * <p>The pool also hands out the direct buffers of {@link OffHeapPage}s. They are cut from slabs of
+ * {@link #SLAB_FRAMES} frames that are allocated as needed and never given back, and a frame is
+ * reused once its page leaves the pool.
+ */
+public class BufferPool {
+  static final int MIN_FRAMES = 16;
+  static final int SLAB_FRAMES = 64;
+
+  private final int capacity;
+  private final ReplacementPolicy policy;
+  private final AtomicInteger dirtyPages = new AtomicInteger();
+  private final PageFlusher flusher;
+  private final ConcurrentLinkedQueue<ByteBuffer> freeFrames = new ConcurrentLinkedQueue<>();
+  private long evictions;
+  private long dirtyEvictions;
+
+  private static class BufferPoolHolder {
+    private static final BufferPool INSTANCE = new BufferPool(Global.BUFFER_POOL_SIZE);
+
+    static {
+      INSTANCE.flusher.start();
+    }
+  }
+
+  public static BufferPool getInstance() {
+    return BufferPoolHolder.INSTANCE;
+  }
+
+  public BufferPool(long budget) {
+    this.capacity =
+        (int) Math.max(MIN_FRAMES, Math.min(Integer.MAX_VALUE, budget / Page.PAGE_SIZE));
+    this.policy = ReplacementPolicy.create(capacity);
+    this.flusher = new PageFlusher(this);
+  }
+
+  public int getCapacity() {
+    return capacity;
+  }
+
+  public synchronized int getResidentPages() {
+    return policy.size();
+  }
+
+  public synchronized long getEvictions() {
+    return evictions;
+  }
+
+  /** Number of evictions that had to write the page on the evicting thread. */
+  public synchronized long getDirtyEvictions() {
+    return dirtyEvictions;
+  }
+
+  public int getDirtyPages() {
+    return dirtyPages.get();
+  }
+
+  public PageFlusher getFlusher() {
+    return flusher;
+  }
+
+  /** Called by the owner of a page when the page goes from clean to dirty. */
+  public void pageDirtied() {
+    if (dirtyPages.incrementAndGet() > flusher.getHighWatermark()) flusher.wakeUp();
+  }
+
+  /** Called by the owner of a page when a dirty page is written back or dropped. */
+  public void pageCleaned() {
+    dirtyPages.decrementAndGet();
+  }
+
+  /**
+   * Dirty, unpinned pages among the {@code window} pages that are next in line for eviction, at
+   * most {@code limit} of them.
+   */
+  synchronized List<Page> dirtyCandidates(int window, int limit) {
+    ArrayList<Page> candidates = new ArrayList<>();
+    for (Page page : policy.coldest(window)) {
+      if (candidates.size() >= limit) break;
+      if (page.getEdit() && !page.getPinned()) candidates.add(page);
+    }
+    return candidates;
+  }
+
+  /** Whether a page can be admitted without evicting another one. */
+  public synchronized boolean hasFreeFrame() {
+    return policy.size() < capacity;
+  }
+
+  /**
+   * Gives the page a frame, evicting other pages while the pool is full. When every resident page
+   * is pinned or busy the pool temporarily goes over its budget rather than failing the query.
+   */
+  public synchronized void admit(Page page, boolean isScan) {
+    HashSet<Page> busy = new HashSet<>();
+    while (policy.size() >= capacity && evictOne(busy)) {}
+    policy.admit(page, isScan);
+  }
+
+  /** Records an access to a resident page. */
+  public synchronized void access(Page page, boolean isScan) {
+    policy.access(page, isScan);
+  }
+
+  /** Returns the frame of a page that its owner dropped. */
+  public synchronized void release(Page page) {
+    policy.remove(page);
+    page.free();
+  }
+
+  /** Takes a direct buffer of {@link Page#PAGE_SIZE} bytes for the rows of an off-heap page. */
+  ByteBuffer takeFrame() {
+    ByteBuffer frame = freeFrames.poll();
+    if (frame != null) return frame;
+    synchronized (freeFrames) {
+      frame = freeFrames.poll();
+      if (frame != null) return frame;
+      ByteBuffer slab = ByteBuffer.allocateDirect(SLAB_FRAMES * Page.PAGE_SIZE);
+      for (int i = 0; i < SLAB_FRAMES; i++) {
+        slab.limit((i + 1) * Page.PAGE_SIZE).position(i * Page.PAGE_SIZE);
+        ByteBuffer slice = slab.slice();
+        if (i == 0) frame = slice;
+        else freeFrames.add(slice);
+      }
+      return frame;
+    }
+  }
+
+  /** Gives back the buffer of an off-heap page that left the pool. */
+  void returnFrame(ByteBuffer frame) {
+    freeFrames.add(frame);
+  }
+
+  private boolean evictOne(HashSet<Page> busy) {
+    Iterator<Page> victims = policy.victims();
+    while (victims.hasNext()) {
+      Page victim = victims.next();
+      if (victim.getPinned() || victim.getPinCount() > 0 || busy.contains(victim)) continue;
+      boolean dirty = victim.getEdit();
+      if (victim.getOwner().evict(victim)) {
+        policy.remove(victim);
+        victim.free();
+        evictions++;
+        if (dirty) dirtyEvictions++;
+        return true;
+      }
+      busy.add(victim);
+    }
+    return false;
+  }
+}
@@ -0,0 +1,117 @@
+package cn.edu.thssdb.storage;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * CLOCK: resident pages form a ring with a reference bit each. The hand clears set bits as it
+ * passes and offers the first page whose bit is already clear. Scans never set the bit, so pages
+ * that only a scan touched are the first to go.
+ */
+public class ClockPolicy implements ReplacementPolicy {
+  private static class Frame {
+    final Page page;
+    boolean referenced;
+    Frame prev;
+    Frame next;
+
+    Frame(Page page) {
+      this.page = page;
+    }
+  }
+
+  private final HashMap<Page, Frame> frames = new HashMap<>();
+  private Frame hand;
+
+  @Override
+  public void admit(Page page, boolean isScan) {
+    Frame frame = new Frame(page);
+    frame.referenced = !isScan;
+    if (hand == null) {
+      frame.prev = frame;
+      frame.next = frame;
+      hand = frame;
+    } else {
+      // insert just behind the hand, so the new page is the last one the hand reaches
+      frame.prev = hand.prev;
+      frame.next = hand;
+      hand.prev.next = frame;
+      hand.prev = frame;
+    }
+    frames.put(page, frame);
+  }
+
+  @Override
+  public void access(Page page, boolean isScan) {
+    if (isScan) return;
+    Frame frame = frames.get(page);
+    if (frame != null) frame.referenced = true;
+  }
+
+  @Override
+  public void remove(Page page) {
+    Frame frame = frames.remove(page);
+    if (frame == null) return;
+    if (frame.next == frame) {
+      hand = null;
+      return;
+    }
+    frame.prev.next = frame.next;
+    frame.next.prev = frame.prev;
+    if (hand == frame) hand = frame.next;
+  }
+
+  /** Walks at most two revolutions: the first one may only clear reference bits. */
+  @Override
+  public Iterator<Page> victims() {
+    return new Iterator<Page>() {
+      private int steps = 2 * frames.size();
+      private Page nextPage;
+
+      @Override
+      public boolean hasNext() {
+        while (nextPage == null && steps > 0 && hand != null) {
+          steps--;
+          Frame frame = hand;
+          hand = hand.next;
+          if (frame.referenced) frame.referenced = false;
+          else nextPage = frame.page;
+        }
+        return nextPage != null;
+      }
+
+      @Override
+      public Page next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        Page page = nextPage;
+        nextPage = null;
+        return page;
+      }
+    };
+  }
+
+  /** Pages in the order the hand reaches them, unreferenced ones first. */
+  @Override
+  public List<Page> coldest(int count) {
+    ArrayList<Page> pages = new ArrayList<>();
+    ArrayList<Page> referenced = new ArrayList<>();
+    Frame frame = hand;
+    for (int i = 0; i < frames.size() && pages.size() < count; i++, frame = frame.next) {
+      if (frame.referenced) referenced.add(frame.page);
+      else pages.add(frame.page);
+    }
+    for (Page page : referenced) {
+      if (pages.size() >= count) break;
+      pages.add(page);
+    }
+    return pages;
+  }
+
+  @Override
+  public int size() {
+    return frames.size();
+  }
+}
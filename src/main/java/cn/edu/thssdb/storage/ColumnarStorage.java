@@ -0,0 +1,255 @@
+package cn.edu.thssdb.storage;
+
+import cn.edu.thssdb.exception.KeyNotExistException;
+import cn.edu.thssdb.schema.Column;
+import cn.edu.thssdb.schema.CompactRow;
+import cn.edu.thssdb.schema.Entry;
+import cn.edu.thssdb.schema.Row;
+import cn.edu.thssdb.type.ColumnType;
+import cn.edu.thssdb.type.CompressionType;
+import cn.edu.thssdb.type.EngineType;
+import cn.edu.thssdb.utils.Pair;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * A table stored column by column, for tables that are scanned over a few of their columns.
+ *
+ * <p>The pages and index of the storage itself only hold the primary keys. Every other column is a
+ * segment of its own: a clustered {@link Storage} of (primary key, value) rows in its own files, so
+ * a scan reads the pages of the columns it needs and no others. A row is the same key in every
+ * segment, and the segments are changed one after the other, so the table has to keep readers out
+ * while a row changes, as it does for the other engines.
+ */
+public class ColumnarStorage extends Storage {
+  private final ColumnType[] types;
+  private final int primaryKey;
+  private final Storage[] segments; // by column, null for the primary key
+
+  public ColumnarStorage(
+      String databaseName, String tableName, List<Column> columns, CompressionType compression) {
+    super(databaseName, tableName, keyColumns(columns), EngineType.CLUSTERED, compression);
+    this.types = new ColumnType[columns.size()];
+    this.segments = new Storage[columns.size()];
+    int primary = 0;
+    for (int i = 0; i < columns.size(); i++) {
+      if (columns.get(i).getPrimary() == 1) primary = i;
+    }
+    this.primaryKey = primary;
+    for (int i = 0; i < columns.size(); i++) {
+      types[i] = columns.get(i).getType();
+      if (i == primary) continue;
+      segments[i] =
+          new Storage(
+              databaseName,
+              tableName + "#_#" + columns.get(i).getName(),
+              Arrays.asList(columns.get(primary), columns.get(i)),
+              EngineType.CLUSTERED,
+              compression);
+    }
+  }
+
+  private static List<Column> keyColumns(List<Column> columns) {
+    for (Column column : columns) {
+      if (column.getPrimary() == 1) return Arrays.asList(column);
+    }
+    return columns.subList(0, 1);
+  }
+
+  @Override
+  public void recover(int primaryKey) {
+    super.recover(0);
+    for (Storage segment : segments) {
+      if (segment != null) segment.recover(0);
+    }
+  }
+
+  /** A row reaches its segments one after another, which a reader must not see halfway. */
+  @Override
+  public boolean concurrentInserts() {
+    return false;
+  }
+
+  @Override
+  public void insertRow(ArrayList<Entry> entries, int primaryKey, boolean isTransaction) {
+    Entry key = entries.get(this.primaryKey);
+    // the key goes first, so that a duplicate is refused before any segment changes
+    super.insertRow(values(key), 0, isTransaction);
+    for (int i = 0; i < segments.length; i++) {
+      if (segments[i] != null) segments[i].insertRow(values(key, entries.get(i)), 0, isTransaction);
+    }
+  }
+
+  @Override
+  public void deleteRow(Entry entry, int primaryKey, boolean isTransaction) {
+    super.deleteRow(entry, 0, isTransaction);
+    for (Storage segment : segments) {
+      if (segment != null) segment.deleteRow(entry, 0, isTransaction);
+    }
+  }
+
+  @Override
+  public void updateRow(
+      Entry primaryEntry,
+      int primaryKey,
+      int[] targetKeys,
+      ArrayList<Entry> targetEntries,
+      boolean isTransaction) {
+    Entry updatedKey = primaryEntry;
+    for (int i = 0; i < targetKeys.length; i++) {
+      if (targetKeys[i] == this.primaryKey) updatedKey = targetEntries.get(i);
+    }
+    boolean keyChanged = !primaryEntry.equals(updatedKey);
+    if (keyChanged) {
+      super.updateRow(primaryEntry, 0, new int[] {0}, values(updatedKey), isTransaction);
+    } else if (!containsKey(primaryEntry)) {
+      throw new KeyNotExistException(primaryEntry.toString());
+    }
+    for (int column = 0; column < segments.length; column++) {
+      if (segments[column] == null) continue;
+      Entry value = null;
+      for (int i = 0; i < targetKeys.length; i++) {
+        if (targetKeys[i] == column) value = targetEntries.get(i);
+      }
+      if (value == null && !keyChanged) continue;
+      int[] keys = keyChanged ? value == null ? new int[] {0} : new int[] {0, 1} : new int[] {1};
+      ArrayList<Entry> entries =
+          keyChanged
+              ? value == null ? values(updatedKey) : values(updatedKey, value)
+              : values(value);
+      segments[column].updateRow(primaryEntry, 0, keys, entries, isTransaction);
+    }
+  }
+
+  /** The pages of the storage only hold the keys, so no key is left out. */
+  @Override
+  public Iterator<Pair<Entry, Long>> getIndexIter(KeyRange range, Predicate<ZoneMap> filter) {
+    return getIndexIter(range);
+  }
+
+  /** Returns the row of a primary key, read from every segment. */
+  @Override
+  public Row getRow(Entry entry, int primaryKey, boolean isScan) {
+    if (!containsKey(entry)) throw new KeyNotExistException(entry.toString());
+    return assemble(entry, isScan);
+  }
+
+  /**
+   * Returns the row whose key is at a row id taken from the index of the keys.
+   *
+   * @return the row, or null if the slot is empty
+   */
+  @Override
+  public Row getRow(long rowId, boolean isScan) {
+    Row key = super.getRow(rowId, isScan);
+    return key == null ? null : assemble(key.getEntry(0), isScan);
+  }
+
+  private Row assemble(Entry key, boolean isScan) {
+    CompactRow row = new CompactRow(types);
+    row.set(primaryKey, new Row(new Entry[] {key}), 0);
+    for (int i = 0; i < segments.length; i++) {
+      if (segments[i] != null) row.set(i, segments[i].getRow(key, 0, isScan), 1);
+    }
+    return row;
+  }
+
+  /**
+   * Iterates the rows of a range of keys in primary key order, reading only the segments of the
+   * given columns. The other columns of the rows are null, and the primary key is always read. The
+   * pages hold only the keys, so none is left out by the filter.
+   */
+  @Override
+  public Iterator<Row> scan(boolean[] columns, Predicate<ZoneMap> pages, KeyRange range) {
+    Iterator<Pair<Entry, Long>> keys = getIndexIter(range);
+    ArrayList<Integer> read = new ArrayList<>();
+    ArrayList<Cursor> cursors = new ArrayList<>();
+    for (int i = 0; i < segments.length; i++) {
+      if (segments[i] == null || columns != null && !columns[i]) continue;
+      read.add(i);
+      cursors.add(new Cursor(segments[i], range));
+    }
+    return new Iterator<Row>() {
+      @Override
+      public boolean hasNext() {
+        return keys.hasNext();
+      }
+
+      @Override
+      public Row next() {
+        Entry key = keys.next().left;
+        CompactRow row = new CompactRow(types);
+        for (int i = 0; i < types.length; i++) row.setNull(i);
+        row.set(primaryKey, new Row(new Entry[] {key}), 0);
+        for (int i = 0; i < read.size(); i++) row.set(read.get(i), cursors.get(i).seek(key), 1);
+        return row;
+      }
+    };
+  }
+
+  /** Walks the index of a segment along the keys of a scan. */
+  private static class Cursor {
+    private final Storage segment;
+    private final Iterator<Pair<Entry, Long>> iterator;
+    private Pair<Entry, Long> head;
+
+    Cursor(Storage segment, KeyRange range) {
+      this.segment = segment;
+      this.iterator = segment.getIndexIter(range);
+    }
+
+    /** Returns the row of a key not smaller than the keys sought before. */
+    Row seek(Entry key) {
+      while ((head == null || head.left.compareTo(key) < 0) && iterator.hasNext()) {
+        head = iterator.next();
+      }
+      if (head != null && head.left.equals(key)) {
+        Row row = segment.getRow(head.right, true);
+        if (row != null && row.getEntry(0).equals(key)) return row;
+      }
+      // the segment changed since its index was read
+      return segment.getRow(key, 0, true);
+    }
+  }
+
+  @Override
+  public void persist() {
+    super.persist();
+    for (Storage segment : segments) {
+      if (segment != null) segment.persist();
+    }
+  }
+
+  @Override
+  public int vacuum() {
+    int removed = super.vacuum();
+    for (Storage segment : segments) {
+      if (segment != null) removed += segment.vacuum();
+    }
+    return removed;
+  }
+
+  @Override
+  public void dropSelf() {
+    super.dropSelf();
+    for (Storage segment : segments) {
+      if (segment != null) segment.dropSelf();
+    }
+  }
+
+  @Override
+  public void unpin() {
+    super.unpin();
+    for (Storage segment : segments) {
+      if (segment != null) segment.unpin();
+    }
+  }
+
+  private static ArrayList<Entry> values(Entry... entries) {
+    return new ArrayList<>(Arrays.asList(entries));
+  }
+}
@@ -0,0 +1,370 @@
+package cn.edu.thssdb.storage;
+
+import cn.edu.thssdb.exception.IOFileException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A tablespace that stores every page compressed.
+ *
+ * <p>The file starts with the same header as a plain {@link TableSpace}. After it the file is cut
+ * into sectors of {@link #SECTOR_SIZE} bytes, and each page is a record of whole sectors: a header
+ * with the page id, a sequence number, the compression level and a checksum, followed by the
+ * deflated page image. A page is never overwritten in place. Its new record goes into the first
+ * free extent that is large enough, or to the end of the file, and only then is its old extent
+ * freed, so a crash in the middle of a write leaves the old record. Opening the file reads the
+ * record headers only; the record with the highest sequence number of each page wins and everything
+ * else is free space.
+ *
+ * <p>Pages are written with a fast compression level. {@link #compressCold} moves pages that have
+ * not been read for a while to the strongest level, where they are smaller but slower to write.
+ *
+ * <p>Reads run in parallel; writes and changes to the free space are exclusive.
+ */
+public class CompressedTableSpace extends TableSpace {
+  private static final int MAGIC = 0x54534331; // "TSC1"
+  private static final int RECORD_MAGIC = 0x50474331; // "PGC1"
+  static final int SECTOR_SIZE = 512;
+  private static final int RECORD_HEADER_SIZE = 32;
+  private static final int HOT = Deflater.BEST_SPEED;
+  private static final int COLD = Deflater.BEST_COMPRESSION;
+
+  /** Where the current record of a page is. */
+  private static class Extent {
+    final long offset;
+    final int sectors;
+    final long sequence;
+    final int level;
+    volatile long lastRead;
+
+    Extent(long offset, int sectors, long sequence, int level) {
+      this.offset = offset;
+      this.sectors = sectors;
+      this.sequence = sequence;
+      this.level = level;
+      this.lastRead = System.currentTimeMillis();
+    }
+  }
+
+  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+  private Extent[] extents; // by page id
+  private TreeMap<Long, Integer> free; // first sector offset to number of sectors
+  private long end; // offset after the last record
+  private long sequence;
+
+  public CompressedTableSpace(String fileName) {
+    super(fileName, MAGIC);
+    load();
+  }
+
+  /**
+   * Reads a data page and inflates it into a fresh heap buffer.
+   *
+   * @throws IOFileException if the record does not match its checksum
+   */
+  @Override
+  public ByteBuffer readPage(int pageId) {
+    lock.readLock().lock();
+    try {
+      if (pageId < 1 || pageId > pageCount) throw new IOFileException(fileName + "#" + pageId);
+      Extent extent = extents[pageId];
+      if (extent == null) return ByteBuffer.allocate(Page.PAGE_SIZE); // like a hole in a plain file
+      extent.lastRead = System.currentTimeMillis();
+      return inflate(pageId, readRecord(pageId, extent));
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /** Compresses a data page into a new record, growing the space when the page is past its end. */
+  @Override
+  public void writePage(int pageId, ByteBuffer image) {
+    if (pageId < 1) throw new IOFileException(fileName + "#" + pageId);
+    byte[] compressed = deflate(image, HOT);
+    lock.writeLock().lock();
+    try {
+      write(pageId, compressed, HOT);
+      if (pageId > pageCount) {
+        pageCount = pageId;
+        writeHeader();
+      }
+    } catch (IOException e) {
+      throw new IOFileException(fileName);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /** Forgets the pages after the first {@code pageCount} and cuts the free space off the end. */
+  @Override
+  public void truncate(int pageCount) {
+    lock.writeLock().lock();
+    try {
+      if (pageCount >= this.pageCount) return;
+      for (int i = pageCount + 1; i <= this.pageCount; i++) {
+        if (extents[i] != null) release(extents[i].offset, extents[i].sectors);
+        extents[i] = null;
+      }
+      this.pageCount = pageCount;
+      writeHeader();
+      shrink();
+    } catch (IOException e) {
+      throw new IOFileException(fileName);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Recompresses at the strongest level every page that is not there yet and has not been read for
+   * {@code idleMillis}.
+   *
+   * @return the number of pages moved to the cold tier
+   */
+  @Override
+  public int compressCold(long idleMillis) {
+    long before = System.currentTimeMillis() - idleMillis;
+    int moved = 0;
+    for (int pageId = 1; pageId <= pageCount; pageId++) {
+      lock.writeLock().lock();
+      try {
+        if (pageId > pageCount) break;
+        Extent extent = extents[pageId];
+        if (extent == null || extent.level == COLD || extent.lastRead > before) continue;
+        long lastRead = extent.lastRead;
+        byte[] compressed = deflate(inflate(pageId, readRecord(pageId, extent)), COLD);
+        write(pageId, compressed, COLD);
+        extents[pageId].lastRead = lastRead;
+        moved++;
+      } catch (IOException e) {
+        throw new IOFileException(fileName);
+      } finally {
+        lock.writeLock().unlock();
+      }
+    }
+    return moved;
+  }
+
+  @Override
+  public void replaceWith(TableSpace other) {
+    lock.writeLock().lock();
+    try {
+      super.replaceWith(other);
+      load();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /** Rebuilds the page map and the free space from the record headers. */
+  private void load() {
+    extents = new Extent[pageCount + 1];
+    free = new TreeMap<>();
+    sequence = 0;
+    try {
+      long size = channel.size();
+      long offset = SECTOR_SIZE;
+      ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+      while (offset + RECORD_HEADER_SIZE <= size) {
+        header.clear();
+        while (header.hasRemaining()) {
+          if (channel.read(header, offset + header.position()) < 0) break;
+        }
+        header.flip();
+        int magic = header.getInt();
+        int pageId = header.getInt();
+        long recordSequence = header.getLong();
+        int level = header.getInt();
+        int length = header.getInt();
+        int sectors = sectorsOf(length);
+        if (magic != RECORD_MAGIC
+            || length <= 0
+            || length > 2 * Page.PAGE_SIZE
+            || offset + (long) sectors * SECTOR_SIZE > size) {
+          offset += SECTOR_SIZE;
+          continue;
+        }
+        sequence = Math.max(sequence, recordSequence);
+        if (pageId >= 1 && pageId <= pageCount) {
+          Extent current = extents[pageId];
+          if (current == null || current.sequence < recordSequence) {
+            extents[pageId] = new Extent(offset, sectors, recordSequence, level);
+          }
+        }
+        offset += (long) sectors * SECTOR_SIZE;
+      }
+
+      ArrayList<Extent> live = new ArrayList<>();
+      for (Extent extent : extents) {
+        if (extent != null) live.add(extent);
+      }
+      live.sort(Comparator.comparingLong(extent -> extent.offset));
+      end = SECTOR_SIZE;
+      for (Extent extent : live) {
+        if (extent.offset > end) free.put(end, (int) ((extent.offset - end) / SECTOR_SIZE));
+        end = extent.offset + (long) extent.sectors * SECTOR_SIZE;
+      }
+      if (size > end) channel.truncate(end);
+    } catch (IOException e) {
+      throw new IOFileException(fileName);
+    }
+  }
+
+  /** Writes a new record of a page and frees its old one. */
+  private void write(int pageId, byte[] compressed, int level) throws IOException {
+    int sectors = sectorsOf(compressed.length);
+    long offset = allocate(sectors);
+    ByteBuffer record = ByteBuffer.allocate(sectors * SECTOR_SIZE);
+    CRC32 crc = new CRC32();
+    crc.update(compressed, 0, compressed.length);
+    record
+        .putInt(RECORD_MAGIC)
+        .putInt(pageId)
+        .putLong(++sequence)
+        .putInt(level)
+        .putInt(compressed.length)
+        .putInt((int) crc.getValue());
+    record.position(RECORD_HEADER_SIZE);
+    record.put(compressed);
+    record.clear();
+    while (record.hasRemaining()) {
+      channel.write(record, offset + record.position());
+    }
+
+    if (pageId >= extents.length) {
+      extents = Arrays.copyOf(extents, Math.max(pageId + 1, extents.length * 2));
+    }
+    Extent old = extents[pageId];
+    extents[pageId] = new Extent(offset, sectors, sequence, level);
+    if (old != null) release(old.offset, old.sectors);
+  }
+
+  private byte[] readRecord(int pageId, Extent extent) {
+    ByteBuffer record = ByteBuffer.allocate(extent.sectors * SECTOR_SIZE);
+    try {
+      while (record.hasRemaining()) {
+        if (channel.read(record, extent.offset + record.position()) < 0) break;
+      }
+    } catch (IOException e) {
+      throw new IOFileException(fileName);
+    }
+    record.flip();
+    if (record.remaining() < RECORD_HEADER_SIZE
+        || record.getInt() != RECORD_MAGIC
+        || record.getInt() != pageId) throw new IOFileException(fileName + "#" + pageId);
+    record.getLong(); // sequence
+    record.getInt(); // level
+    int length = record.getInt();
+    int checksum = record.getInt();
+    record.position(RECORD_HEADER_SIZE);
+    if (length > record.remaining()) throw new IOFileException(fileName + "#" + pageId);
+    byte[] compressed = new byte[length];
+    record.get(compressed);
+    CRC32 crc = new CRC32();
+    crc.update(compressed, 0, length);
+    if ((int) crc.getValue() != checksum) throw new IOFileException(fileName + "#" + pageId);
+    return compressed;
+  }
+
+  private ByteBuffer inflate(int pageId, byte[] compressed) {
+    Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(compressed);
+      byte[] image = new byte[Page.PAGE_SIZE];
+      int length = 0;
+      while (length < image.length && !inflater.finished()) {
+        int read = inflater.inflate(image, length, image.length - length);
+        if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+        length += read;
+      }
+      if (length != image.length) throw new IOFileException(fileName + "#" + pageId);
+      return ByteBuffer.wrap(image);
+    } catch (DataFormatException e) {
+      throw new IOFileException(fileName + "#" + pageId);
+    } finally {
+      inflater.end();
+    }
+  }
+
+  private static byte[] deflate(ByteBuffer image, int level) {
+    ByteBuffer buffer = image.duplicate();
+    buffer.clear();
+    byte[] input;
+    if (buffer.hasArray() && buffer.arrayOffset() == 0 && buffer.array().length == buffer.limit()) {
+      input = buffer.array();
+    } else {
+      input = new byte[buffer.remaining()];
+      buffer.get(input);
+    }
+    Deflater deflater = new Deflater(level);
+    try {
+      deflater.setInput(input);
+      deflater.finish();
+      // an incompressible page grows by a few bytes per 16 KB block
+      byte[] output = new byte[input.length + input.length / 1000 + 64];
+      int length = 0;
+      while (!deflater.finished()) {
+        if (length == output.length) output = Arrays.copyOf(output, output.length * 2);
+        length += deflater.deflate(output, length, output.length - length);
+      }
+      return Arrays.copyOf(output, length);
+    } finally {
+      deflater.end();
+    }
+  }
+
+  /** First free extent of at least {@code sectors}, otherwise the end of the file. */
+  private long allocate(int sectors) {
+    for (Map.Entry<Long, Integer> extent : free.entrySet()) {
+      long offset = extent.getKey();
+      int length = extent.getValue();
+      if (length < sectors) continue;
+      free.remove(offset);
+      if (length > sectors) free.put(offset + (long) sectors * SECTOR_SIZE, length - sectors);
+      return offset;
+    }
+    long offset = end;
+    end += (long) sectors * SECTOR_SIZE;
+    return offset;
+  }
+
+  /** Returns an extent to the free space, merging it with its free neighbours. */
+  private void release(long offset, int sectors) {
+    Map.Entry<Long, Integer> next = free.ceilingEntry(offset);
+    if (next != null && next.getKey() == offset + (long) sectors * SECTOR_SIZE) {
+      free.remove(next.getKey());
+      sectors += next.getValue();
+    }
+    Map.Entry<Long, Integer> previous = free.floorEntry(offset);
+    if (previous != null
+        && previous.getKey() + (long) previous.getValue() * SECTOR_SIZE == offset) {
+      offset = previous.getKey();
+      sectors += previous.getValue();
+    }
+    free.put(offset, sectors);
+  }
+
+  /** Gives the free extent at the end of the file back to the file system. */
+  private void shrink() throws IOException {
+    Map.Entry<Long, Integer> last = free.lastEntry();
+    if (last == null || last.getKey() + (long) last.getValue() * SECTOR_SIZE != end) return;
+    free.remove(last.getKey());
+    end = last.getKey();
+    channel.truncate(end);
+  }
+
+  private static int sectorsOf(int length) {
+    return (RECORD_HEADER_SIZE + length + SECTOR_SIZE - 1) / SECTOR_SIZE;
+  }
+}
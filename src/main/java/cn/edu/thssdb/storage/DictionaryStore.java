@@ -0,0 +1,107 @@
+package cn.edu.thssdb.storage;
+
+import cn.edu.thssdb.exception.IOFileException;
+import cn.edu.thssdb.schema.Column;
+import cn.edu.thssdb.type.ColumnType;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static cn.edu.thssdb.utils.Global.DATA_DIRECTORY;
+import static cn.edu.thssdb.utils.Global.DICTIONARY_SIZE;
+
+/**
+ * The {@link StringDictionary}s of the STRING columns of a table other than its primary key, kept
+ * in one append-only file.
+ *
+ * <p>The file is a magic number followed by one record per value: the column index, the length and
+ * the UTF-8 bytes of the value. A value is appended before any page can store its code, so the file
+ * always covers the codes on disk. A record cut short by a crash is cut off when the file is read.
+ */
+public class DictionaryStore {
+  private static final int MAGIC = 0x44494331; // "DIC1"
+
+  private final String fileName;
+  private final StringDictionary[] dictionaries;
+
+  public DictionaryStore(String databaseName, String tableName, List<Column> columns) {
+    this(DATA_DIRECTORY + "dict#_#" + databaseName + "#_#" + tableName + ".data", columns);
+  }
+
+  /** Opens a dictionary file under another name. */
+  public DictionaryStore(String fileName, List<Column> columns) {
+    this.fileName = fileName;
+    this.dictionaries = new StringDictionary[columns.size()];
+    ArrayList<ArrayList<String>> loaded = load(columns.size());
+    for (int i = 0; i < columns.size(); i++) {
+      Column column = columns.get(i);
+      if (column.getType() != ColumnType.STRING || column.getPrimary() == 1) continue;
+      dictionaries[i] = new StringDictionary(this, i, loaded.get(i), DICTIONARY_SIZE);
+    }
+  }
+
+  /** The dictionary of every column, null for the columns that are not encoded. */
+  public StringDictionary[] getDictionaries() {
+    return dictionaries;
+  }
+
+  private ArrayList<ArrayList<String>> load(int columnCount) {
+    ArrayList<ArrayList<String>> values = new ArrayList<>();
+    for (int i = 0; i < columnCount; i++) values.add(new ArrayList<>());
+    File file = new File(fileName);
+    if (!file.isFile()) return values;
+    long valid = 0;
+    try (DataInputStream input =
+        new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+      if (input.readInt() != MAGIC) throw new IOFileException(fileName);
+      valid = 4;
+      while (valid < file.length()) {
+        int column = input.readUnsignedShort();
+        byte[] bytes = new byte[input.readUnsignedShort()];
+        input.readFully(bytes);
+        if (column >= columnCount) throw new IOFileException(fileName);
+        values.get(column).add(new String(bytes, StandardCharsets.UTF_8));
+        valid += 4 + bytes.length;
+      }
+    } catch (EOFException e) {
+      truncate(valid);
+    } catch (IOException e) {
+      throw new IOFileException(fileName);
+    }
+    return values;
+  }
+
+  private void truncate(long length) {
+    try (RandomAccessFile file = new RandomAccessFile(fileName, "rw")) {
+      file.setLength(length);
+    } catch (IOException e) {
+      throw new IOFileException(fileName);
+    }
+  }
+
+  /** Appends a value to the file, creating the file with the first one. */
+  synchronized void append(int column, String value) {
+    File file = new File(fileName);
+    boolean fresh = !file.isFile() || file.length() == 0;
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    try (DataOutputStream output =
+        new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)))) {
+      if (fresh) output.writeInt(MAGIC);
+      output.writeShort(column);
+      output.writeShort(bytes.length);
+      output.write(bytes);
+    } catch (IOException e) {
+      throw new IOFileException(fileName);
+    }
+  }
+
+  public synchronized void drop() {
+    File file = new File(fileName);
+    if (file.isFile() && !file.delete()) {
+      System.err.println("Warning: Failed to delete file " + file.getName());
+    }
+  }
+}
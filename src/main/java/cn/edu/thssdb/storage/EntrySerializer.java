@@ -0,0 +1,80 @@
+package cn.edu.thssdb.storage;
+
+import cn.edu.thssdb.index.Serializer;
+import cn.edu.thssdb.schema.Column;
+import cn.edu.thssdb.schema.Entry;
+import cn.edu.thssdb.type.ColumnType;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/** Binary form of the primary keys of one column, for the nodes of an on-disk index. */
+public class EntrySerializer implements Serializer<Entry> {
+  private static final int DEFAULT_STRING_LENGTH = 256;
+
+  private final ColumnType type;
+  private final int maxBytes;
+
+  public EntrySerializer(Column column) {
+    this.type = column.getType();
+    switch (type) {
+      case INT:
+      case FLOAT:
+        maxBytes = 4;
+        break;
+      case LONG:
+      case DOUBLE:
+        maxBytes = 8;
+        break;
+      default:
+        int length = column.getMaxLength() > 0 ? column.getMaxLength() : DEFAULT_STRING_LENGTH;
+        maxBytes = 2 + 3 * length; // a char takes at most 3 bytes in UTF-8
+    }
+  }
+
+  @Override
+  public int maxBytes() {
+    return maxBytes;
+  }
+
+  @Override
+  public void write(ByteBuffer buffer, Entry entry) {
+    switch (type) {
+      case INT:
+        buffer.putInt(((Number) entry.value).intValue());
+        break;
+      case LONG:
+        buffer.putLong(((Number) entry.value).longValue());
+        break;
+      case FLOAT:
+        buffer.putFloat(((Number) entry.value).floatValue());
+        break;
+      case DOUBLE:
+        buffer.putDouble(((Number) entry.value).doubleValue());
+        break;
+      case STRING:
+        byte[] bytes = entry.value.toString().getBytes(StandardCharsets.UTF_8);
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+        break;
+    }
+  }
+
+  @Override
+  public Entry read(ByteBuffer buffer) {
+    switch (type) {
+      case INT:
+        return new Entry(buffer.getInt());
+      case LONG:
+        return new Entry(buffer.getLong());
+      case FLOAT:
+        return new Entry(buffer.getFloat());
+      case DOUBLE:
+        return new Entry(buffer.getDouble());
+      default:
+        byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(bytes);
+        return new Entry(new String(bytes, StandardCharsets.UTF_8));
+    }
+  }
+}
@@ -0,0 +1,84 @@
+package cn.edu.thssdb.storage;
+
+import java.util.Arrays;
+
+/**
+ * The free bytes of every data page of a table, rounded down to a multiple of {@link #STEP} so that
+ * a page fits in one byte.
+ *
+ * <p>The values are the leaves of a binary tree whose inner nodes hold the maximum of their
+ * children, so the first page with room for a record is found in {@code O(log n)} without looking
+ * at the pages themselves. A page whose free space is not known counts as full.
+ */
+class FreeSpaceMap {
+  static final int STEP = 32;
+  private static final int MAX_CATEGORY = 0xFF;
+
+  private int leaves = 1; // a power of two; the leaf of page id i is leaves + i
+  private byte[] tree = new byte[2];
+
+  /** Records the free bytes of a page. */
+  void set(int pageId, int freeBytes) {
+    if (pageId >= leaves) grow(pageId + 1);
+    int node = leaves + pageId;
+    tree[node] = (byte) Math.min(MAX_CATEGORY, Math.max(0, freeBytes / STEP));
+    for (node >>= 1; node > 0; node >>= 1) {
+      int max = Math.max(category(2 * node), category(2 * node + 1));
+      if (category(node) == max) break;
+      tree[node] = (byte) max;
+    }
+  }
+
+  /** Free bytes of a page as last recorded, rounded down. */
+  int get(int pageId) {
+    return pageId < leaves ? category(leaves + pageId) * STEP : 0;
+  }
+
+  /**
+   * Finds the page with the smallest id below {@code limit} that has at least {@code length} free
+   * bytes.
+   *
+   * @return the page id, or 0 if there is none
+   */
+  int find(int length, int limit) {
+    int need = (length + STEP - 1) / STEP;
+    if (need > MAX_CATEGORY) return 0;
+    return find(1, 0, leaves, Math.min(limit, leaves), need);
+  }
+
+  private int find(int node, int from, int to, int limit, int need) {
+    if (from >= limit || category(node) < need) return 0;
+    if (node >= leaves) return from;
+    int middle = (from + to) >>> 1;
+    int found = find(2 * node, from, middle, limit, need);
+    return found > 0 ? found : find(2 * node + 1, middle, to, limit, need);
+  }
+
+  /** Forgets the pages from {@code pageCount + 1} on. */
+  void truncate(int pageCount) {
+    for (int i = pageCount + 1; i < leaves; i++) {
+      if (tree[leaves + i] != 0) set(i, 0);
+    }
+  }
+
+  void clear() {
+    Arrays.fill(tree, (byte) 0);
+  }
+
+  private int category(int node) {
+    return tree[node] & 0xFF;
+  }
+
+  private void grow(int size) {
+    int grown = leaves;
+    while (grown < size) grown <<= 1;
+    byte[] old = tree;
+    int oldLeaves = leaves;
+    leaves = grown;
+    tree = new byte[2 * leaves];
+    System.arraycopy(old, oldLeaves, tree, leaves, oldLeaves);
+    for (int node = leaves - 1; node > 0; node--) {
+      tree[node] = (byte) Math.max(category(2 * node), category(2 * node + 1));
+    }
+  }
+}
@@ -0,0 +1,74 @@
+package cn.edu.thssdb.storage;
+
+import cn.edu.thssdb.schema.Entry;
+
+/** A range of primary keys. Either end may be open, and a closed end may hold its key or not. */
+public class KeyRange {
+  public static final KeyRange ALL = new KeyRange(null, true, null, true);
+
+  public final Entry from; // null if there is no lower end
+  public final boolean fromInclusive;
+  public final Entry to; // null if there is no upper end
+  public final boolean toInclusive;
+
+  public KeyRange(Entry from, boolean fromInclusive, Entry to, boolean toInclusive) {
+    this.from = from;
+    this.fromInclusive = fromInclusive;
+    this.to = to;
+    this.toInclusive = toInclusive;
+  }
+
+  /** The range of a single key. */
+  public static KeyRange of(Entry key) {
+    return new KeyRange(key, true, key, true);
+  }
+
+  public boolean isAll() {
+    return from == null && to == null;
+  }
+
+  /** Whether the range holds one key only. */
+  public boolean isSingle() {
+    return from != null && to != null && fromInclusive && toInclusive && from.compareTo(to) == 0;
+  }
+
+  /** Whether the key lies above the lower end. */
+  public boolean afterStart(Entry key) {
+    if (from == null) return true;
+    int comparison = key.compareTo(from);
+    return fromInclusive ? comparison >= 0 : comparison > 0;
+  }
+
+  /** Whether the key lies below the upper end. */
+  public boolean beforeEnd(Entry key) {
+    if (to == null) return true;
+    int comparison = key.compareTo(to);
+    return toInclusive ? comparison <= 0 : comparison < 0;
+  }
+
+  /** Whether no key can lie in the range. */
+  public boolean isEmpty() {
+    if (from == null || to == null) return false;
+    int comparison = from.compareTo(to);
+    return comparison > 0 || comparison == 0 && !(fromInclusive && toInclusive);
+  }
+
+  /** The range of the keys in both ranges. */
+  public KeyRange intersect(KeyRange other) {
+    KeyRange lower = other.from != null && (from == null || other.startsAfter(this)) ? other : this;
+    KeyRange upper = other.to != null && (to == null || other.endsBefore(this)) ? other : this;
+    return new KeyRange(lower.from, lower.fromInclusive, upper.to, upper.toInclusive);
+  }
+
+  /** Whether the lower end, which both ranges have, lets in fewer keys than the other's. */
+  private boolean startsAfter(KeyRange other) {
+    int comparison = from.compareTo(other.from);
+    return comparison > 0 || comparison == 0 && !fromInclusive;
+  }
+
+  /** Whether the upper end, which both ranges have, lets in fewer keys than the other's. */
+  private boolean endsBefore(KeyRange other) {
+    int comparison = to.compareTo(other.to);
+    return comparison < 0 || comparison == 0 && !toInclusive;
+  }
+}
@@ -0,0 +1,691 @@
+package cn.edu.thssdb.storage;
+
+import cn.edu.thssdb.exception.DuplicateKeyException;
+import cn.edu.thssdb.exception.IOFileException;
+import cn.edu.thssdb.exception.KeyNotExistException;
+import cn.edu.thssdb.schema.Column;
+import cn.edu.thssdb.schema.Entry;
+import cn.edu.thssdb.schema.Row;
+import cn.edu.thssdb.utils.Pair;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+
+import static cn.edu.thssdb.utils.Global.DATA_DIRECTORY;
+import static cn.edu.thssdb.utils.Global.LSM_MAX_RUNS;
+import static cn.edu.thssdb.utils.Global.LSM_MEMTABLE_SIZE;
+
+/**
+ * A table stored as a log-structured merge tree, for tables that are written more than they are
+ * read.
+ *
+ * <p>Changes go into a sorted in-memory memtable; a deleted key is kept as a {@link #TOMBSTONE}.
+ * Once the memtable holds {@link cn.edu.thssdb.utils.Global#LSM_MEMTABLE_SIZE} bytes it is frozen
+ * and a background thread writes it out as a {@link SortedRun}, in one sequential pass. When there
+ * are {@link cn.edu.thssdb.utils.Global#LSM_MAX_RUNS} runs the thread merges the newest ones of
+ * about the same size into one. A key is looked for in the memtables and then in the runs from the
+ * newest, and the bloom filter of a run keeps most reads of keys it does not hold off its file.
+ *
+ * <p>The runs that make up the table are listed in a manifest, which is replaced atomically after
+ * every flush and merge; run files it does not list are left over from a crash and deleted when the
+ * table is opened. The memtables are only as durable as the log of the database, which is replayed
+ * from the last checkpoint, and {@link #persist} flushes them all.
+ *
+ * <p>Reads and changes take the latch in shared mode, and only swapping a memtable or the list of
+ * runs takes it exclusively. Flushes and merges are serialized by their own lock, so that readers
+ * and writers never wait for the disk.
+ */
+public class LsmStorage implements TableStorage {
+  /** The value of a deleted key. */
+  static final Row TOMBSTONE = new Row();
+
+  private static final int MAGIC = 0x4C534D4D; // "LSMM"
+  // rough size in memory of a memtable entry besides its encoded row
+  private static final int ENTRY_OVERHEAD = 64;
+  // frozen memtables a writer leaves to the background thread before flushing one itself
+  private static final int MAX_FROZEN = 2;
+
+  private final String name;
+  private final String manifestName;
+  private final DictionaryStore dictionaries;
+  private final PageCodec codec;
+  private final EntrySerializer serializer;
+  private final int primaryIndex;
+
+  private volatile ConcurrentSkipListMap<Entry, Row> memtable = new ConcurrentSkipListMap<>();
+  private final AtomicLong memtableBytes = new AtomicLong();
+  // both lists are newest first and replaced as a whole under the exclusive latch
+  private volatile List<ConcurrentSkipListMap<Entry, Row>> frozen = Collections.emptyList();
+  private volatile List<SortedRun> runs = Collections.emptyList();
+  // bumped whenever runs are closed, so that scans reopen their cursors
+  private volatile int version;
+  private int nextRunId;
+  // whether the memtable holds changes of an open transaction, which are kept off disk
+  private volatile boolean pinned;
+
+  private final ReentrantReadWriteLock latch = new ReentrantReadWriteLock();
+  private final ReentrantLock ioLock = new ReentrantLock();
+  private final Compactor compactor;
+
+  public LsmStorage(String databaseName, String tableName, List<Column> columns) {
+    this.name = databaseName + "#_#" + tableName;
+    this.manifestName = DATA_DIRECTORY + "lsm#_#" + name + ".data";
+    this.dictionaries = new DictionaryStore(databaseName, tableName, columns);
+    this.codec = new PageCodec(columns, dictionaries.getDictionaries());
+    int primary = 0;
+    for (int i = 0; i < columns.size(); i++) {
+      if (columns.get(i).getPrimary() == 1) primary = i;
+    }
+    this.primaryIndex = primary;
+    this.serializer = new EntrySerializer(columns.get(primary));
+    this.compactor = new Compactor();
+  }
+
+  private String runFileName(int id) {
+    return DATA_DIRECTORY + "lsm#_#" + name + "#_#" + id + ".data";
+  }
+
+  /** Opens the runs listed in the manifest and starts the background thread. */
+  @Override
+  public void recover(int primaryKey) {
+    ArrayList<SortedRun> opened = new ArrayList<>();
+    Set<String> listed = new HashSet<>();
+    File manifest = new File(manifestName);
+    if (manifest.isFile()) {
+      try (DataInputStream input =
+          new DataInputStream(new BufferedInputStream(Files.newInputStream(manifest.toPath())))) {
+        if (input.readInt() != MAGIC) throw new IOFileException(manifestName);
+        nextRunId = input.readInt();
+        int count = input.readInt();
+        for (int i = 0; i < count; i++) {
+          int id = input.readInt();
+          opened.add(new SortedRun(runFileName(id), id, codec, serializer));
+          listed.add(new File(runFileName(id)).getName());
+        }
+      } catch (IOException e) {
+        throw new IOFileException(manifestName);
+      }
+    }
+    String prefix = "lsm#_#" + name + "#_#";
+    File[] files = new File(DATA_DIRECTORY).listFiles();
+    if (files != null) {
+      for (File file : files) {
+        String fileName = file.getName();
+        if (fileName.startsWith(prefix) && !listed.contains(fileName) && !file.delete()) {
+          System.err.println("Warning: Failed to delete file " + fileName);
+        }
+      }
+    }
+    runs = Collections.unmodifiableList(opened);
+    compactor.start();
+  }
+
+  private void writeManifest() {
+    File temporary = new File(manifestName + ".tmp");
+    try (FileOutputStream file = new FileOutputStream(temporary);
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(file))) {
+      List<SortedRun> current = runs;
+      output.writeInt(MAGIC);
+      output.writeInt(nextRunId);
+      output.writeInt(current.size());
+      for (SortedRun run : current) output.writeInt(run.getId());
+      output.flush();
+      file.getFD().sync();
+    } catch (IOException e) {
+      throw new IOFileException(manifestName);
+    }
+    try {
+      Files.move(
+          temporary.toPath(),
+          new File(manifestName).toPath(),
+          StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      throw new IOFileException(manifestName);
+    }
+  }
+
+  /** Returns the live row of a key, or null if the key is absent or deleted. */
+  private Row find(Entry key) {
+    latch.readLock().lock();
+    try {
+      Row row = memtable.get(key);
+      for (int i = 0; row == null && i < frozen.size(); i++) row = frozen.get(i).get(key);
+      if (row == null && !runs.isEmpty()) {
+        ByteBuffer bytes = ByteBuffer.allocate(serializer.maxBytes());
+        serializer.write(bytes, key);
+        long hash = BloomFilter.hash(bytes.array(), bytes.position());
+        for (SortedRun run : runs) {
+          row = run.get(key, hash);
+          if (row != null) break;
+        }
+      }
+      return row == TOMBSTONE ? null : row;
+    } finally {
+      latch.readLock().unlock();
+    }
+  }
+
+  private void put(Entry key, Row row, boolean isTransaction) {
+    latch.readLock().lock();
+    try {
+      memtable.put(key, row);
+      memtableBytes.addAndGet(ENTRY_OVERHEAD + (row == TOMBSTONE ? 0 : codec.rowSize(row)));
+    } finally {
+      latch.readLock().unlock();
+    }
+    if (isTransaction) pinned = true;
+  }
+
+  /** Freezes a full memtable, unless it holds changes of an open transaction. */
+  private void checkMemtable() {
+    if (pinned || memtableBytes.get() < LSM_MEMTABLE_SIZE) return;
+    freeze();
+    if (frozen.size() > MAX_FROZEN) {
+      // the background thread falls behind, so the writer slows down to the speed of the disk
+      ioLock.lock();
+      try {
+        flushFrozen();
+      } finally {
+        ioLock.unlock();
+      }
+    }
+    compactor.wakeUp();
+  }
+
+  private void freeze() {
+    latch.writeLock().lock();
+    try {
+      if (memtable.isEmpty()) return;
+      ArrayList<ConcurrentSkipListMap<Entry, Row>> updated = new ArrayList<>();
+      updated.add(memtable);
+      updated.addAll(frozen);
+      frozen = Collections.unmodifiableList(updated);
+      memtable = new ConcurrentSkipListMap<>();
+      memtableBytes.set(0);
+    } finally {
+      latch.writeLock().unlock();
+    }
+  }
+
+  /** Writes the frozen memtables into runs, the oldest first. Requires the io lock. */
+  private void flushFrozen() {
+    while (!frozen.isEmpty()) {
+      ConcurrentSkipListMap<Entry, Row> oldest = frozen.get(frozen.size() - 1);
+      int id = nextRunId++;
+      Iterator<Pair<Entry, Row>> records =
+          new Iterator<Pair<Entry, Row>>() {
+            private final Iterator<Map.Entry<Entry, Row>> entries = oldest.entrySet().iterator();
+
+            @Override
+            public boolean hasNext() {
+              return entries.hasNext();
+            }
+
+            @Override
+            public Pair<Entry, Row> next() {
+              Map.Entry<Entry, Row> entry = entries.next();
+              return new Pair<>(entry.getKey(), entry.getValue());
+            }
+          };
+      SortedRun.write(runFileName(id), records, oldest.size(), codec, serializer);
+      SortedRun run = new SortedRun(runFileName(id), id, codec, serializer);
+      latch.writeLock().lock();
+      try {
+        ArrayList<SortedRun> updated = new ArrayList<>();
+        updated.add(run);
+        updated.addAll(runs);
+        runs = Collections.unmodifiableList(updated);
+        frozen = Collections.unmodifiableList(frozen.subList(0, frozen.size() - 1));
+      } finally {
+        latch.writeLock().unlock();
+      }
+      writeManifest();
+    }
+  }
+
+  /**
+   * Merges the newest runs into one. Without {@code full} it only merges once there are {@link
+   * cn.edu.thssdb.utils.Global#LSM_MAX_RUNS} runs, and then the newest runs up to the first one
+   * more than twice as big as those before it, so that every row is rewritten a few times at most.
+   * Requires the io lock.
+   *
+   * @return the number of runs removed
+   */
+  private int compact(boolean full) {
+    List<SortedRun> current = runs;
+    if (current.isEmpty() || !full && current.size() < LSM_MAX_RUNS) return 0;
+    int count = 1;
+    long size = current.get(0).getLength();
+    while (count < current.size()
+        && (full || count < 2 || current.get(count).getLength() <= 2 * size)) {
+      size += current.get(count).getLength();
+      count++;
+    }
+    List<SortedRun> merged = current.subList(0, count);
+    // a deleted key may still be in an older run unless the oldest run is merged too
+    boolean dropTombstones = count == current.size();
+    int expected = 0;
+    ArrayList<Source> sources = new ArrayList<>();
+    for (SortedRun run : merged) {
+      expected += run.getCount();
+      sources.add(new RunSource(run.cursor(null)));
+    }
+    Iterator<Pair<Entry, Row>> merge = new Merge(sources);
+    Iterator<Pair<Entry, Row>> records =
+        new Iterator<Pair<Entry, Row>>() {
+          private Pair<Entry, Row> next;
+
+          @Override
+          public boolean hasNext() {
+            while (next == null && merge.hasNext()) {
+              next = merge.next();
+              if (dropTombstones && next.right == TOMBSTONE) next = null;
+            }
+            return next != null;
+          }
+
+          @Override
+          public Pair<Entry, Row> next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            Pair<Entry, Row> record = next;
+            next = null;
+            return record;
+          }
+        };
+    int id = nextRunId++;
+    int written = SortedRun.write(runFileName(id), records, expected, codec, serializer);
+    SortedRun run = new SortedRun(runFileName(id), id, codec, serializer);
+    latch.writeLock().lock();
+    try {
+      ArrayList<SortedRun> updated = new ArrayList<>();
+      if (written > 0) updated.add(run);
+      updated.addAll(current.subList(count, current.size()));
+      runs = Collections.unmodifiableList(updated);
+      version++;
+      writeManifest();
+      for (SortedRun old : merged) old.drop();
+      if (written == 0) run.drop();
+    } finally {
+      latch.writeLock().unlock();
+    }
+    return written > 0 ? count - 1 : count;
+  }
+
+  @Override
+  public void insertRow(ArrayList<Entry> entries, int primaryKey, boolean isTransaction) {
+    Entry key = entries.get(primaryKey);
+    if (find(key) != null) throw new DuplicateKeyException(key.toString());
+    put(key, codec.compact(entries), isTransaction);
+    checkMemtable();
+  }
+
+  @Override
+  public void deleteRow(Entry entry, int primaryKey, boolean isTransaction) {
+    if (find(entry) == null) throw new KeyNotExistException(entry.toString());
+    put(entry, TOMBSTONE, isTransaction);
+    checkMemtable();
+  }
+
+  @Override
+  public void updateRow(
+      Entry primaryEntry,
+      int primaryKey,
+      int[] targetKeys,
+      ArrayList<Entry> targetEntries,
+      boolean isTransaction) {
+    Row row = find(primaryEntry);
+    if (row == null) throw new KeyNotExistException(primaryEntry.toString());
+    Entry updatedPrimaryEntry = primaryEntry;
+    for (int i = 0; i < targetKeys.length; i++) {
+      if (targetKeys[i] == primaryKey) updatedPrimaryEntry = targetEntries.get(i);
+    }
+    boolean primaryKeyChanged = !primaryEntry.equals(updatedPrimaryEntry);
+    if (primaryKeyChanged && find(updatedPrimaryEntry) != null) {
+      throw new DuplicateKeyException(updatedPrimaryEntry.toString());
+    }
+    ArrayList<Entry> updatedEntries = new ArrayList<>(row.getEntries());
+    for (int i = 0; i < targetKeys.length; i++) {
+      updatedEntries.set(targetKeys[i], targetEntries.get(i));
+    }
+    if (primaryKeyChanged) put(primaryEntry, TOMBSTONE, isTransaction);
+    put(updatedPrimaryEntry, codec.compact(updatedEntries), isTransaction);
+    checkMemtable();
+  }
+
+  @Override
+  public Row getRow(Entry entry, int primaryKey, boolean isScan) {
+    Row row = find(entry);
+    if (row == null) throw new KeyNotExistException(entry.toString());
+    return row;
+  }
+
+  /** Iterates the keys in order. Rows have no address, so every value is 0. */
+  @Override
+  public Iterator<Pair<Entry, Long>> getIndexIter() {
+    return getIndexIter(KeyRange.ALL);
+  }
+
+  /**
+   * Iterates the keys of a range like {@link #getIndexIter()}, starting each source at the range.
+   */
+  @Override
+  public Iterator<Pair<Entry, Long>> getIndexIter(KeyRange range) {
+    Iterator<Pair<Entry, Row>> records = new Scan(range);
+    return new Iterator<Pair<Entry, Long>>() {
+      @Override
+      public boolean hasNext() {
+        return records.hasNext();
+      }
+
+      @Override
+      public Pair<Entry, Long> next() {
+        return new Pair<>(records.next().left, 0L);
+      }
+    };
+  }
+
+  /** Rows have no address, so this always returns null. */
+  @Override
+  public Row getRow(long rowId, boolean isScan) {
+    return null;
+  }
+
+  /**
+   * Iterates the rows of a range of keys in primary key order. Rows are read whole, from no page.
+   */
+  @Override
+  public Iterator<Row> scan(boolean[] columns, Predicate<ZoneMap> pages, KeyRange keys) {
+    Iterator<Pair<Entry, Row>> records = new Scan(keys);
+    return new Iterator<Row>() {
+      @Override
+      public boolean hasNext() {
+        return records.hasNext();
+      }
+
+      @Override
+      public Row next() {
+        return records.next().right;
+      }
+    };
+  }
+
+  /** Writes every memtable into a run, including the changes of open transactions. */
+  @Override
+  public void persist() {
+    ioLock.lock();
+    try {
+      freeze();
+      flushFrozen();
+    } finally {
+      ioLock.unlock();
+    }
+  }
+
+  /** Merges all the runs into one, dropping the deleted keys. */
+  @Override
+  public int vacuum() {
+    ioLock.lock();
+    try {
+      freeze();
+      flushFrozen();
+      return compact(true);
+    } finally {
+      ioLock.unlock();
+    }
+  }
+
+  @Override
+  public void dropSelf() {
+    compactor.shutdown();
+    ioLock.lock();
+    latch.writeLock().lock();
+    try {
+      for (SortedRun run : runs) run.drop();
+      runs = Collections.emptyList();
+      frozen = Collections.emptyList();
+      memtable = new ConcurrentSkipListMap<>();
+      version++;
+      File manifest = new File(manifestName);
+      if (manifest.isFile() && !manifest.delete()) {
+        System.err.println("Warning: Failed to delete file " + manifest.getName());
+      }
+      dictionaries.drop();
+    } finally {
+      latch.writeLock().unlock();
+      ioLock.unlock();
+    }
+  }
+
+  @Override
+  public void unpin() {
+    pinned = false;
+    checkMemtable();
+  }
+
+  /** One input of a {@link Merge}, at its current key until it is advanced. */
+  private interface Source {
+    /** The current key, or null once the source is exhausted. */
+    Entry key();
+
+    Row row();
+
+    void advance();
+  }
+
+  private static class MapSource implements Source {
+    private final Iterator<Map.Entry<Entry, Row>> entries;
+    private Map.Entry<Entry, Row> current;
+
+    MapSource(Map<Entry, Row> map) {
+      this.entries = map.entrySet().iterator();
+      advance();
+    }
+
+    @Override
+    public Entry key() {
+      return current == null ? null : current.getKey();
+    }
+
+    @Override
+    public Row row() {
+      return current.getValue();
+    }
+
+    @Override
+    public void advance() {
+      current = entries.hasNext() ? entries.next() : null;
+    }
+  }
+
+  private static class RunSource implements Source {
+    private final SortedRun.Cursor cursor;
+
+    RunSource(SortedRun.Cursor cursor) {
+      this.cursor = cursor;
+    }
+
+    @Override
+    public Entry key() {
+      return cursor.getKey();
+    }
+
+    @Override
+    public Row row() {
+      return cursor.getRow();
+    }
+
+    @Override
+    public void advance() {
+      cursor.advance();
+    }
+  }
+
+  /**
+   * Merges sources given newest first into one sequence of keys in order. Of the records of a key
+   * only the one of the newest source is returned, which may be a {@link #TOMBSTONE}.
+   */
+  private static class Merge implements Iterator<Pair<Entry, Row>> {
+    private final PriorityQueue<Integer> heap;
+    private final List<Source> sources;
+
+    Merge(List<Source> sources) {
+      this.sources = sources;
+      this.heap =
+          new PriorityQueue<>(
+              Math.max(sources.size(), 1),
+              (a, b) -> {
+                int comparison = sources.get(a).key().compareTo(sources.get(b).key());
+                return comparison != 0 ? comparison : Integer.compare(a, b);
+              });
+      for (int i = 0; i < sources.size(); i++) {
+        if (sources.get(i).key() != null) heap.add(i);
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      return !heap.isEmpty();
+    }
+
+    @Override
+    public Pair<Entry, Row> next() {
+      if (heap.isEmpty()) throw new NoSuchElementException();
+      Source newest = sources.get(heap.peek());
+      Pair<Entry, Row> record = new Pair<>(newest.key(), newest.row());
+      while (!heap.isEmpty() && sources.get(heap.peek()).key().equals(record.left)) {
+        int index = heap.poll();
+        sources.get(index).advance();
+        if (sources.get(index).key() != null) heap.add(index);
+      }
+      return record;
+    }
+  }
+
+  /**
+   * Iterates the live records of a range in key order. The sources are read under the shared latch,
+   * and are reopened after the last key returned when a merge has closed runs since.
+   */
+  private class Scan implements Iterator<Pair<Entry, Row>> {
+    private final KeyRange range;
+    private Merge merge;
+    private int seen;
+    // where the sources are opened: the start of the range, then after the last key returned
+    private Entry last;
+    private boolean lastInclusive;
+    private boolean ended;
+    private Pair<Entry, Row> next;
+
+    Scan(KeyRange range) {
+      this.range = range;
+      this.last = range.from;
+      this.lastInclusive = range.fromInclusive;
+    }
+
+    @Override
+    public boolean hasNext() {
+      if (next == null && !ended) fill();
+      return next != null;
+    }
+
+    @Override
+    public Pair<Entry, Row> next() {
+      if (!hasNext()) throw new NoSuchElementException();
+      Pair<Entry, Row> record = next;
+      next = null;
+      return record;
+    }
+
+    private void fill() {
+      latch.readLock().lock();
+      try {
+        if (merge == null || seen != version) open();
+        while (merge.hasNext()) {
+          Pair<Entry, Row> record = merge.next();
+          if (!range.beforeEnd(record.left)) break;
+          last = record.left;
+          lastInclusive = false;
+          if (record.right != TOMBSTONE) {
+            next = record;
+            return;
+          }
+        }
+        ended = true;
+      } finally {
+        latch.readLock().unlock();
+      }
+    }
+
+    private void open() {
+      seen = version;
+      ArrayList<Source> sources = new ArrayList<>();
+      sources.add(new MapSource(last == null ? memtable : memtable.tailMap(last, lastInclusive)));
+      for (ConcurrentSkipListMap<Entry, Row> map : frozen) {
+        sources.add(new MapSource(last == null ? map : map.tailMap(last, lastInclusive)));
+      }
+      for (SortedRun run : runs) sources.add(new RunSource(run.cursor(last, lastInclusive)));
+      merge = new Merge(sources);
+    }
+  }
+
+  /** Flushes frozen memtables and merges runs in the background. */
+  private class Compactor extends Thread {
+    private volatile boolean running = true;
+    private boolean signaled = false;
+
+    Compactor() {
+      super("lsm-compactor-" + name);
+      setDaemon(true);
+    }
+
+    synchronized void wakeUp() {
+      signaled = true;
+      notify();
+    }
+
+    void shutdown() {
+      running = false;
+      wakeUp();
+    }
+
+    @Override
+    public void run() {
+      while (running) {
+        synchronized (this) {
+          try {
+            if (!signaled) wait();
+          } catch (InterruptedException e) {
+            return;
+          }
+          signaled = false;
+        }
+        if (!running) return;
+        ioLock.lock();
+        try {
+          flushFrozen();
+          while (compact(false) > 0) {}
+        } catch (RuntimeException e) {
+          System.err.println("Warning: compaction of " + name + " failed: " + e.getMessage());
+        } finally {
+          ioLock.unlock();
+        }
+      }
+    }
+  }
+}
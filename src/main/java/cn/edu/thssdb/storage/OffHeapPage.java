@@ -0,0 +1,218 @@
+package cn.edu.thssdb.storage;
+
+import cn.edu.thssdb.schema.Entry;
+import cn.edu.thssdb.schema.Row;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.List;
+
+/**
+ * A data page whose rows stay encoded in a direct buffer taken from the {@link BufferPool}, in the
+ * slotted layout of {@link PageCodec}. The buffer is the page image itself, so the page is read and
+ * written without decoding, and the rows cost the garbage collector nothing while cached. A {@link
+ * Row} is only decoded when a caller asks for it, and changing the row it returns does not change
+ * the page.
+ *
+ * <p>A new record is written below the lowest one. When the space between the slot directory and
+ * the records runs out, the records are packed again towards the end of the page, which keeps their
+ * slots.
+ */
+public class OffHeapPage extends Page {
+  private final BufferPool pool;
+  private ByteBuffer frame;
+  private int size; // bytes of the records, without their slots
+  private int holes; // empty slots before the last one
+
+  public OffHeapPage(int id, PageOwner owner, PageCodec codec, BufferPool pool) {
+    super(id, owner, codec);
+    this.pool = pool;
+    this.frame = pool.takeFrame();
+    clear();
+  }
+
+  @Override
+  public int getSize() {
+    return size + getSlotCount() * SLOT_SIZE;
+  }
+
+  @Override
+  public int getSlotCount() {
+    return frame.getShort(PageCodec.SLOT_COUNT_OFFSET) & 0xFFFF;
+  }
+
+  /** The rows by slot, decoded as they are read. */
+  @Override
+  public List<Row> getSlots() {
+    return new AbstractList<Row>() {
+      @Override
+      public Row get(int slot) {
+        return getRow(slot);
+      }
+
+      @Override
+      public int size() {
+        return getSlotCount();
+      }
+    };
+  }
+
+  @Override
+  public Row getRow(int slot) {
+    int offset = offsetOf(slot);
+    return offset == 0 ? null : codec.decodeRow(frame, offset);
+  }
+
+  @Override
+  public Entry getEntry(int slot, int column) {
+    int offset = offsetOf(slot);
+    return offset == 0 ? null : codec.decodeEntry(frame, offset, column);
+  }
+
+  @Override
+  public int insertRow(Row row, int length) {
+    int slot = getSlotCount();
+    for (int i = 0; holes > 0 && i < slot; i++) {
+      if (offsetOf(i) == 0) {
+        slot = i;
+        break;
+      }
+    }
+    insertRow(slot, row, length);
+    return slot;
+  }
+
+  @Override
+  public void insertRow(int slot, Row row, int length) {
+    int slotCount = getSlotCount();
+    if (slot < slotCount) holes--;
+    else holes += slot - slotCount;
+    write(slot, row, length - SLOT_SIZE);
+    getZones().add(row);
+  }
+
+  @Override
+  public void updateRow(int slot, Row row, int oldLength, int length) {
+    getZones().remove(getRow(slot));
+    getZones().add(row);
+    setSlot(slot, 0, 0);
+    size -= oldLength - SLOT_SIZE;
+    write(slot, row, length - SLOT_SIZE);
+  }
+
+  @Override
+  public Row removeRow(int slot, int length) {
+    Row row = getRow(slot);
+    getZones().remove(row);
+    setSlot(slot, 0, 0);
+    size -= length - SLOT_SIZE;
+    holes++;
+    int slotCount = getSlotCount();
+    while (slotCount > 0 && offsetOf(slotCount - 1) == 0) {
+      slotCount--;
+      holes--;
+    }
+    frame.putShort(PageCodec.SLOT_COUNT_OFFSET, (short) slotCount);
+    if (slotCount == 0) frame.putShort(PageCodec.DATA_START_OFFSET, (short) PAGE_SIZE);
+    return row;
+  }
+
+  /** Copies a page image into the frame. */
+  @Override
+  public void load(ByteBuffer image) {
+    ByteBuffer source = image.duplicate();
+    source.limit(source.position() + PAGE_SIZE);
+    ByteBuffer target = frame.duplicate();
+    target.clear();
+    target.put(source);
+    size = 0;
+    holes = 0;
+    int slotCount = getSlotCount();
+    for (int slot = 0; slot < slotCount; slot++) {
+      if (offsetOf(slot) == 0) holes++;
+      else size += frame.getShort(slotAt(slot) + 2) & 0xFFFF;
+    }
+    rebuildZones();
+  }
+
+  /** The frame itself, which the caller only reads. */
+  @Override
+  public ByteBuffer toImage() {
+    ByteBuffer image = frame.duplicate();
+    image.clear();
+    return image;
+  }
+
+  @Override
+  void free() {
+    if (frame == null) return;
+    pool.returnFrame(frame);
+    frame = null;
+  }
+
+  private void clear() {
+    frame.putInt(0, PageCodec.MAGIC);
+    frame.putShort(PageCodec.SLOT_COUNT_OFFSET, (short) 0);
+    frame.putShort(PageCodec.DATA_START_OFFSET, (short) PAGE_SIZE);
+    size = 0;
+    holes = 0;
+  }
+
+  /**
+   * Encodes a row below the lowest record, adding slots up to the given one and packing the records
+   * first if they leave no room.
+   */
+  private void write(int slot, Row row, int recordLength) {
+    int slotCount = getSlotCount();
+    int dataStart = frame.getShort(PageCodec.DATA_START_OFFSET) & 0xFFFF;
+    if (dataStart - recordLength < slotAt(Math.max(slotCount, slot + 1))) dataStart = compact();
+    for (; slotCount <= slot; slotCount++) setSlot(slotCount, 0, 0);
+    frame.putShort(PageCodec.SLOT_COUNT_OFFSET, (short) slotCount);
+    dataStart -= recordLength;
+    ByteBuffer target = frame.duplicate();
+    target.position(dataStart);
+    codec.encodeRow(row, target);
+    frame.putShort(PageCodec.DATA_START_OFFSET, (short) dataStart);
+    setSlot(slot, dataStart, recordLength);
+    size += recordLength;
+  }
+
+  /**
+   * Moves the records to the end of the page in slot order, leaving no gaps between them.
+   *
+   * @return the new start of the records
+   */
+  private int compact() {
+    byte[] copy = new byte[PAGE_SIZE];
+    ByteBuffer source = frame.duplicate();
+    source.clear();
+    source.get(copy);
+    int dataStart = PAGE_SIZE;
+    int slotCount = getSlotCount();
+    for (int slot = 0; slot < slotCount; slot++) {
+      int offset = offsetOf(slot);
+      if (offset == 0) continue;
+      int length = frame.getShort(slotAt(slot) + 2) & 0xFFFF;
+      dataStart -= length;
+      ByteBuffer target = frame.duplicate();
+      target.position(dataStart);
+      target.put(copy, offset, length);
+      setSlot(slot, dataStart, length);
+    }
+    frame.putShort(PageCodec.DATA_START_OFFSET, (short) dataStart);
+    return dataStart;
+  }
+
+  private int offsetOf(int slot) {
+    return slot < getSlotCount() ? frame.getShort(slotAt(slot)) & 0xFFFF : 0;
+  }
+
+  private void setSlot(int slot, int offset, int length) {
+    frame.putShort(slotAt(slot), (short) offset);
+    frame.putShort(slotAt(slot) + 2, (short) length);
+  }
+
+  private static int slotAt(int slot) {
+    return HEADER_SIZE + slot * SLOT_SIZE;
+  }
+}
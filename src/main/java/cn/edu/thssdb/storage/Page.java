@@ -1,68 +1,194 @@
 package cn.edu.thssdb.storage;
 
 import cn.edu.thssdb.schema.Entry;
+import cn.edu.thssdb.schema.Row;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A frame of the {@link BufferPool}.
+ *
+ * <p>The pin count is the number of threads using the page; a page with pins is never evicted. The
+ * latch is held exclusively while the page is read from disk or written back, and in shared mode by
+ * a thread that has to wait for either to finish.
+ *
+ * <p>A data page keeps its rows as {@link Row} objects; an {@link OffHeapPage} keeps them encoded
+ * outside the Java heap instead. Either way it keeps the {@link ZoneMap} of its rows up to date.
+ */
 public class Page {
-  public static final int maxSize = 2048;
+  public static final int PAGE_SIZE = 8192;
+  public static final int HEADER_SIZE = 8;
+  public static final int SLOT_SIZE = 4;
+  // bytes available to records and their slots
+  public static final int CAPACITY = PAGE_SIZE - HEADER_SIZE;
   private int id;
-  private int size;
-  private ArrayList<Entry> entries;
-  private long lastVisit;
-  private Boolean edit;
-  private Boolean Pinned; // whether is pinned in a transaction
-  private String pageFile;
-
-  public Page(String name, int id) {
+  private final PageOwner owner;
+  protected final PageCodec codec; // encoding of the rows of a data page
+  private int size; // bytes of the records, without their slots
+  // rows of a data page by slot; a deleted row leaves an empty slot so the others keep theirs
+  private ArrayList<Row> slots;
+  private int holes; // empty slots before the last one
+  private volatile ZoneMap zones; // of a data page
+  private volatile Boolean edit;
+  private volatile Boolean Pinned; // whether is pinned in a transaction
+  private final AtomicInteger pinCount = new AtomicInteger();
+  private final ReentrantReadWriteLock latch = new ReentrantReadWriteLock();
+
+  public Page(int id, PageOwner owner) {
+    this(id, owner, null);
+  }
+
+  public Page(int id, PageOwner owner, PageCodec codec) {
     this.id = id;
+    this.owner = owner;
+    this.codec = codec;
     this.size = 0;
-    this.entries = new ArrayList<>();
-    this.lastVisit = System.currentTimeMillis();
+    this.slots = new ArrayList<>();
+    this.holes = 0;
+    this.zones = codec == null ? null : new ZoneMap(codec.getTypes());
+    this.edit = false;
     this.Pinned = false;
-    pageFile = "page#_#" + name + "#_#" + id + ".data";
   }
 
   public int getId() {
     return id;
   }
 
+  public PageOwner getOwner() {
+    return owner;
+  }
+
+  /** Bytes taken by the records and the slot directory, empty slots included. */
   public int getSize() {
-    return size;
+    return size + slots.size() * SLOT_SIZE;
   }
 
-  public ArrayList<Entry> getEntries() {
-    return entries;
+  public int getSlotCount() {
+    return slots.size();
   }
 
-  public void insertEntry(Entry entry, int length) {
-    size += length;
-    entries.add(entry);
+  /** The rows by slot, with null for an empty slot. */
+  public List<Row> getSlots() {
+    return Collections.unmodifiableList(slots);
   }
 
-  public void removeEntry(Entry entry, int length) {
-    size -= length;
-    entries.remove(entry);
+  /** Returns the row in a slot, or null if the slot is empty or past the end. */
+  public Row getRow(int slot) {
+    return slot < slots.size() ? slots.get(slot) : null;
   }
 
-  public long getLastVisit() {
-    return lastVisit;
+  /** Returns one column of the row in a slot, or null if the slot is empty. */
+  public Entry getEntry(int slot, int column) {
+    Row row = getRow(slot);
+    return row == null ? null : row.getEntry(column);
   }
 
-  public Boolean getEdit() {
-    return edit;
+  /** The summary of the rows of a data page, which covers every row but may be wider. */
+  public ZoneMap getZones() {
+    return zones;
   }
 
-  public Boolean getPinned() {
-    return Pinned;
+  /** Recomputes the zone map from the rows, narrowing it to the rows the page still holds. */
+  public void rebuildZones() {
+    ZoneMap rebuilt = new ZoneMap(codec.getTypes());
+    for (Row row : getSlots()) {
+      if (row != null) rebuilt.add(row);
+    }
+    zones = rebuilt;
+  }
+
+  /** Fills an empty page from a page image read from disk. */
+  public void load(ByteBuffer image) {
+    ArrayList<Row> rows = codec.decodePage(image);
+    for (int slot = 0; slot < rows.size(); slot++) {
+      Row row = rows.get(slot);
+      if (row != null) insertRow(slot, row, codec.rowSize(row) + SLOT_SIZE);
+    }
+  }
+
+  /** Encodes the rows into a page image to be written to disk. */
+  public ByteBuffer toImage() {
+    return codec.encodePage(slots);
+  }
+
+  /** Called by the buffer pool once the page has left it, to give back the memory of the page. */
+  void free() {}
+
+  /**
+   * Adds a row in the first empty slot, or in a new one at the end.
+   *
+   * @param length size of the record including its slot
+   * @return the slot of the row
+   */
+  public int insertRow(Row row, int length) {
+    int slot = holes > 0 ? slots.indexOf(null) : slots.size();
+    insertRow(slot, row, length);
+    return slot;
+  }
+
+  /** Puts a row into a given slot, which must be empty, adding slots up to it if needed. */
+  public void insertRow(int slot, Row row, int length) {
+    if (slot < slots.size()) {
+      slots.set(slot, row);
+      holes--;
+    } else {
+      while (slots.size() < slot) {
+        slots.add(null);
+        holes++;
+      }
+      slots.add(row);
+    }
+    size += length - SLOT_SIZE;
+    zones.add(row);
   }
 
-  public String getPageFile() {
-    return pageFile;
+  /** Replaces the row in a slot. */
+  public void updateRow(int slot, Row row, int oldLength, int length) {
+    zones.remove(slots.set(slot, row));
+    zones.add(row);
+    size += length - oldLength;
   }
 
-  public void setLastVisit() {
-    this.lastVisit = System.currentTimeMillis();
+  /** Empties a slot. Empty slots at the end of the directory are dropped. */
+  public Row removeRow(int slot, int length) {
+    Row row = slots.set(slot, null);
+    zones.remove(row);
+    size -= length - SLOT_SIZE;
+    holes++;
+    while (!slots.isEmpty() && slots.get(slots.size() - 1) == null) {
+      slots.remove(slots.size() - 1);
+      holes--;
+    }
+    return row;
+  }
+
+  public ReentrantReadWriteLock getLatch() {
+    return latch;
+  }
+
+  public void pin() {
+    pinCount.incrementAndGet();
+  }
+
+  public void unpin() {
+    pinCount.decrementAndGet();
+  }
+
+  public int getPinCount() {
+    return pinCount.get();
+  }
+
+  public Boolean getEdit() {
+    return edit;
+  }
+
+  public Boolean getPinned() {
+    return Pinned;
   }
 
   public void setEdit(Boolean edit) {
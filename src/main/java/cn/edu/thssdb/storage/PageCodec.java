@@ -0,0 +1,292 @@
+package cn.edu.thssdb.storage;
+
+import cn.edu.thssdb.schema.Column;
+import cn.edu.thssdb.schema.CompactRow;
+import cn.edu.thssdb.schema.Entry;
+import cn.edu.thssdb.schema.Row;
+import cn.edu.thssdb.type.ColumnType;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binary encoding of rows and slotted pages for one table schema.
+ *
+ * <p>A row is a null bitmap followed by the non-null values in column order: INT and FLOAT take 4
+ * bytes, LONG and DOUBLE take 8 bytes, and STRING takes an unsigned 2-byte length followed by its
+ * UTF-8 bytes. A string coded by the {@link StringDictionary} of its column takes only the 2 bytes,
+ * holding its code with the top bit set; no string in a page is long enough to set that bit.
+ *
+ * <p>A page is {@link Page#PAGE_SIZE} bytes long. It starts with a header (magic, slot count, start
+ * of the record area), followed by the slot directory. Each slot stores the offset and length of
+ * one record. Records are packed from the end of the page towards the slot directory. A slot with
+ * offset 0 is empty: its row was deleted, and the slot is kept so that the other rows of the page
+ * keep their slot numbers.
+ */
+public class PageCodec {
+  static final int MAGIC = 0x54504731; // "TPG1"
+  static final int SLOT_COUNT_OFFSET = 4;
+  static final int DATA_START_OFFSET = 6;
+  private static final int CODED = 0x8000;
+
+  private final ColumnType[] types;
+  private final StringDictionary[] dictionaries;
+  private final int bitmapSize;
+
+  public PageCodec(List<Column> columns) {
+    this(columns, new StringDictionary[columns.size()]);
+  }
+
+  /**
+   * @param dictionaries the dictionary of each column, null for a column stored as it is
+   */
+  public PageCodec(List<Column> columns, StringDictionary[] dictionaries) {
+    this.types = new ColumnType[columns.size()];
+    for (int i = 0; i < types.length; i++) types[i] = columns.get(i).getType();
+    this.dictionaries = dictionaries;
+    this.bitmapSize = (types.length + 7) / 8;
+  }
+
+  public ColumnType[] getTypes() {
+    return types;
+  }
+
+  /**
+   * Copies entries into a {@link CompactRow} of the table's column types, coding its strings and
+   * adding the new ones to the dictionaries that have room.
+   */
+  public CompactRow compact(List<Entry> entries) {
+    CompactRow row = new CompactRow(types, dictionaries);
+    for (int i = 0; i < types.length; i++) {
+      Comparable value = entries.get(i).value;
+      if (value == null) row.setNull(i);
+      else if (types[i] == ColumnType.STRING) {
+        int code = dictionaries[i] == null ? -1 : dictionaries[i].encode(value.toString());
+        if (code >= 0) row.setCode(i, code);
+        else row.setString(i, value.toString());
+      } else if (types[i] == ColumnType.INT || types[i] == ColumnType.LONG) {
+        row.setLong(i, ((Number) value).longValue());
+      } else row.setDouble(i, ((Number) value).doubleValue());
+    }
+    return row;
+  }
+
+  /** Whether a string of the row is stored as a code of this table's dictionary. */
+  private boolean isCoded(Row row, int index) {
+    return dictionaries[index] != null
+        && row.getCode(index) >= 0
+        && row.getDictionary(index) == dictionaries[index];
+  }
+
+  /** Number of bytes the encoded row occupies in a page, excluding its slot. */
+  public int rowSize(Row row) {
+    int size = bitmapSize;
+    for (int i = 0; i < types.length; i++) {
+      if (row.isNull(i)) continue;
+      switch (types[i]) {
+        case INT:
+        case FLOAT:
+          size += 4;
+          break;
+        case LONG:
+        case DOUBLE:
+          size += 8;
+          break;
+        case STRING:
+          size += isCoded(row, i) ? 2 : 2 + utf8Length(row.getString(i));
+          break;
+      }
+    }
+    return size;
+  }
+
+  /** Writes the row at the current position of the buffer. */
+  public void encodeRow(Row row, ByteBuffer buffer) {
+    int bitmapStart = buffer.position();
+    for (int i = 0; i < bitmapSize; i++) buffer.put((byte) 0);
+    for (int i = 0; i < types.length; i++) {
+      if (row.isNull(i)) {
+        int at = bitmapStart + (i >> 3);
+        buffer.put(at, (byte) (buffer.get(at) | (1 << (i & 7))));
+        continue;
+      }
+      switch (types[i]) {
+        case INT:
+          buffer.putInt((int) row.getLong(i));
+          break;
+        case LONG:
+          buffer.putLong(row.getLong(i));
+          break;
+        case FLOAT:
+          buffer.putFloat((float) row.getDouble(i));
+          break;
+        case DOUBLE:
+          buffer.putDouble(row.getDouble(i));
+          break;
+        case STRING:
+          if (isCoded(row, i)) {
+            buffer.putShort((short) (CODED | row.getCode(i)));
+            break;
+          }
+          byte[] bytes = row.getString(i).getBytes(StandardCharsets.UTF_8);
+          buffer.putShort((short) bytes.length);
+          buffer.put(bytes);
+          break;
+      }
+    }
+  }
+
+  /** Reads the row stored at the given absolute offset of the buffer. */
+  public CompactRow decodeRow(ByteBuffer buffer, int offset) {
+    CompactRow row = new CompactRow(types, dictionaries);
+    int pos = offset + bitmapSize;
+    for (int i = 0; i < types.length; i++) {
+      if ((buffer.get(offset + (i >> 3)) & (1 << (i & 7))) != 0) {
+        row.setNull(i);
+        continue;
+      }
+      switch (types[i]) {
+        case INT:
+          row.setLong(i, buffer.getInt(pos));
+          pos += 4;
+          break;
+        case LONG:
+          row.setLong(i, buffer.getLong(pos));
+          pos += 8;
+          break;
+        case FLOAT:
+          row.setDouble(i, buffer.getFloat(pos));
+          pos += 4;
+          break;
+        case DOUBLE:
+          row.setDouble(i, buffer.getDouble(pos));
+          pos += 8;
+          break;
+        case STRING:
+          int length = buffer.getShort(pos) & 0xFFFF;
+          if ((length & CODED) != 0) {
+            row.setCode(i, length & ~CODED);
+            pos += 2;
+            break;
+          }
+          row.setString(i, readString(buffer, pos + 2, length));
+          pos += 2 + length;
+          break;
+      }
+    }
+    return row;
+  }
+
+  /** Reads one column of the row stored at the given absolute offset, skipping the others. */
+  public Entry decodeEntry(ByteBuffer buffer, int offset, int column) {
+    if ((buffer.get(offset + (column >> 3)) & (1 << (column & 7))) != 0) return new Entry(null);
+    int pos = offset + bitmapSize;
+    for (int i = 0; i < column; i++) {
+      if ((buffer.get(offset + (i >> 3)) & (1 << (i & 7))) != 0) continue;
+      switch (types[i]) {
+        case INT:
+        case FLOAT:
+          pos += 4;
+          break;
+        case LONG:
+        case DOUBLE:
+          pos += 8;
+          break;
+        case STRING:
+          int length = buffer.getShort(pos) & 0xFFFF;
+          pos += (length & CODED) != 0 ? 2 : 2 + length;
+          break;
+      }
+    }
+    switch (types[column]) {
+      case INT:
+        return new Entry(buffer.getInt(pos));
+      case LONG:
+        return new Entry(buffer.getLong(pos));
+      case FLOAT:
+        return new Entry(buffer.getFloat(pos));
+      case DOUBLE:
+        return new Entry(buffer.getDouble(pos));
+      default:
+        int length = buffer.getShort(pos) & 0xFFFF;
+        if ((length & CODED) != 0) return new Entry(dictionaries[column].valueOf(length & ~CODED));
+        return new Entry(readString(buffer, pos + 2, length));
+    }
+  }
+
+  /** Encodes the rows into a single slotted page image; a null row leaves its slot empty. */
+  public ByteBuffer encodePage(List<Row> rows) {
+    ByteBuffer buffer = ByteBuffer.allocate(Page.PAGE_SIZE);
+    buffer.putInt(0, MAGIC);
+    buffer.putShort(SLOT_COUNT_OFFSET, (short) rows.size());
+    int dataStart = Page.PAGE_SIZE;
+    int slot = Page.HEADER_SIZE;
+    for (Row row : rows) {
+      if (row == null) {
+        buffer.putInt(slot, 0);
+        slot += Page.SLOT_SIZE;
+        continue;
+      }
+      int size = rowSize(row);
+      dataStart -= size;
+      if (dataStart < slot + Page.SLOT_SIZE) throw new IllegalStateException("page overflow");
+      buffer.position(dataStart);
+      encodeRow(row, buffer);
+      buffer.putShort(slot, (short) dataStart);
+      buffer.putShort(slot + 2, (short) size);
+      slot += Page.SLOT_SIZE;
+    }
+    buffer.putShort(DATA_START_OFFSET, (short) dataStart);
+    buffer.clear();
+    return buffer;
+  }
+
+  /**
+   * Decodes every row of a page image starting at the current position of the buffer. The list is
+   * indexed by slot and holds null for an empty slot.
+   */
+  public ArrayList<Row> decodePage(ByteBuffer buffer) {
+    int base = buffer.position();
+    if (buffer.getInt(base) != MAGIC) throw new IllegalArgumentException("not a page image");
+    int slotCount = buffer.getShort(base + SLOT_COUNT_OFFSET) & 0xFFFF;
+    ArrayList<Row> rows = new ArrayList<>(slotCount);
+    for (int i = 0; i < slotCount; i++) {
+      int slot = base + Page.HEADER_SIZE + i * Page.SLOT_SIZE;
+      int offset = buffer.getShort(slot) & 0xFFFF;
+      rows.add(offset == 0 ? null : decodeRow(buffer, base + offset));
+    }
+    return rows;
+  }
+
+  public static boolean isPageImage(ByteBuffer buffer) {
+    return buffer.remaining() >= Page.HEADER_SIZE && buffer.getInt(buffer.position()) == MAGIC;
+  }
+
+  private static String readString(ByteBuffer buffer, int offset, int length) {
+    if (buffer.hasArray()) {
+      return new String(
+          buffer.array(), buffer.arrayOffset() + offset, length, StandardCharsets.UTF_8);
+    }
+    byte[] bytes = new byte[length];
+    ByteBuffer view = buffer.duplicate();
+    view.position(offset);
+    view.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static int utf8Length(String s) {
+    int length = 0;
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c < 0x80) length += 1;
+      else if (c < 0x800) length += 2;
+      else if (Character.isHighSurrogate(c)) {
+        length += 4;
+        i++;
+      } else length += 3;
+    }
+    return length;
+  }
+}
@@ -0,0 +1,227 @@
+package cn.edu.thssdb.storage;
+
+import cn.edu.thssdb.exception.IOFileException;
+import cn.edu.thssdb.schema.Entry;
+import cn.edu.thssdb.type.ColumnType;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.ArrayList;
+
+import static cn.edu.thssdb.utils.Global.DATA_DIRECTORY;
+
+/**
+ * The smallest and largest primary key, the free space and the {@link ZoneMap} of every data page
+ * of a table, kept in its own file so that a table can be opened, and its pages skipped by scans,
+ * without reading them. The zone map of a page is the one of its rows on disk.
+ *
+ * <p>The file is only trusted when it was written after all pages had been flushed. The flag in its
+ * header is cleared before the first page is written afterwards, so a crash leaves a directory that
+ * is ignored on the next start, and the table falls back to reading every page once.
+ *
+ * <p>Pages are read and written back by several threads at once, so every method is synchronized.
+ */
+public class PageDirectory {
+  private static final int MAGIC = 0x50445233; // "PDR3"
+  private static final byte EMPTY = 0;
+  private static final byte RANGE = 1;
+  private static final byte UNKNOWN = 2;
+  private static final Entry[] EMPTY_PAGE = new Entry[0];
+
+  private final String fileName;
+  private final ColumnType keyType;
+  private final ColumnType[] types;
+  // indexed by page id - 1: {min, max}, no keys for an empty page, or null if unknown
+  private final ArrayList<Entry[]> ranges = new ArrayList<>();
+  private final FreeSpaceMap freeSpace = new FreeSpaceMap();
+  // indexed by page id - 1, null if unknown
+  private final ArrayList<ZoneMap> zones = new ArrayList<>();
+  private boolean cleanOnDisk = false;
+  private int savedCount = -1; // pages described by the file when it is clean
+
+  /**
+   * @param keyType the type of the primary key
+   * @param types the types of all the columns
+   */
+  public PageDirectory(
+      String databaseName, String tableName, ColumnType keyType, ColumnType[] types) {
+    this.fileName = DATA_DIRECTORY + "dir#_#" + databaseName + "#_#" + tableName + ".data";
+    this.keyType = keyType;
+    this.types = types;
+  }
+
+  /**
+   * Reads the directory file.
+   *
+   * @return the number of pages it describes, or -1 if it is missing, stale or unreadable
+   */
+  public synchronized int load() {
+    ranges.clear();
+    freeSpace.clear();
+    zones.clear();
+    File file = new File(fileName);
+    if (!file.isFile()) return -1;
+    try (DataInputStream input =
+        new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+      if (input.readInt() != MAGIC || input.readInt() != 1) return -1;
+      int count = input.readInt();
+      if (input.readInt() != keyType.ordinal()) return -1;
+      for (int i = 0; i < count; i++) {
+        byte state = input.readByte();
+        freeSpace.set(i + 1, input.readUnsignedByte() * FreeSpaceMap.STEP);
+        if (state == RANGE) setRange(i + 1, readKey(input), readKey(input));
+        else if (state == EMPTY) setRange(i + 1, null, null);
+        else setUnknown(i + 1);
+        if (input.readBoolean()) setZones(i + 1, ZoneMap.read(input, types));
+      }
+      cleanOnDisk = true;
+      savedCount = count;
+      return count;
+    } catch (IOException e) {
+      ranges.clear();
+      freeSpace.clear();
+      zones.clear();
+      return -1;
+    }
+  }
+
+  /**
+   * Writes the directory of the first {@code pageCount} pages and marks it trusted. Nothing is
+   * written if the file is trusted and describes as many pages, since no page was written since.
+   */
+  public synchronized void save(int pageCount) {
+    if (cleanOnDisk && pageCount == savedCount) return;
+    try (DataOutputStream output =
+        new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName)))) {
+      output.writeInt(MAGIC);
+      output.writeInt(1);
+      output.writeInt(pageCount);
+      output.writeInt(keyType.ordinal());
+      for (int i = 0; i < pageCount; i++) {
+        Entry[] range = i < ranges.size() ? ranges.get(i) : null;
+        output.writeByte(range == null ? UNKNOWN : range.length == 0 ? EMPTY : RANGE);
+        output.writeByte(freeSpace.get(i + 1) / FreeSpaceMap.STEP);
+        if (range != null && range.length > 0) {
+          writeKey(output, range[0]);
+          writeKey(output, range[1]);
+        }
+        ZoneMap zone = i < zones.size() ? zones.get(i) : null;
+        output.writeBoolean(zone != null);
+        if (zone != null) zone.write(output);
+      }
+    } catch (IOException e) {
+      throw new IOFileException(fileName);
+    }
+    cleanOnDisk = true;
+    savedCount = pageCount;
+  }
+
+  /** Clears the trusted flag of the file, if it is set, before a page is written. */
+  public synchronized void markUnclean() {
+    if (!cleanOnDisk) return;
+    try (RandomAccessFile file = new RandomAccessFile(fileName, "rw")) {
+      file.seek(4);
+      file.writeInt(0);
+    } catch (IOException e) {
+      throw new IOFileException(fileName);
+    }
+    cleanOnDisk = false;
+  }
+
+  /** Records the key range of a page; null bounds mean the page is empty. */
+  public synchronized void setRange(int pageId, Entry min, Entry max) {
+    set(pageId, min == null ? EMPTY_PAGE : new Entry[] {min, max});
+  }
+
+  public synchronized void setUnknown(int pageId) {
+    set(pageId, null);
+  }
+
+  /** Records the zone map of the rows a page holds on disk. */
+  public synchronized void setZones(int pageId, ZoneMap zone) {
+    while (zones.size() < pageId) zones.add(null);
+    zones.set(pageId - 1, zone);
+  }
+
+  /** The zone map of the rows a page holds on disk, or null if it is not known. */
+  public synchronized ZoneMap getZones(int pageId) {
+    return pageId <= zones.size() ? zones.get(pageId - 1) : null;
+  }
+
+  /** Records the number of bytes a page has left for records. */
+  public synchronized void setFree(int pageId, int freeBytes) {
+    freeSpace.set(pageId, freeBytes);
+  }
+
+  /**
+   * Finds the first page below {@code limit} that has room for a record of the given length.
+   *
+   * @return the page id, or 0 if no such page is known
+   */
+  public synchronized int findFree(int length, int limit) {
+    return freeSpace.find(length, limit);
+  }
+
+  /** Forgets the pages past the first {@code pageCount}. */
+  public synchronized void truncate(int pageCount) {
+    while (ranges.size() > pageCount) ranges.remove(ranges.size() - 1);
+    while (zones.size() > pageCount) zones.remove(zones.size() - 1);
+    freeSpace.truncate(pageCount);
+  }
+
+  /** Whether the page may hold the key: false only if its recorded range excludes the key. */
+  public synchronized boolean mayContain(int pageId, Entry key) {
+    Entry[] range = pageId <= ranges.size() ? ranges.get(pageId - 1) : null;
+    if (range == null) return true;
+    if (range.length == 0) return false;
+    return range[0].compareTo(key) <= 0 && key.compareTo(range[1]) <= 0;
+  }
+
+  public synchronized void drop() {
+    File file = new File(fileName);
+    if (file.isFile() && !file.delete()) {
+      System.err.println("Warning: Failed to delete file " + file.getName());
+    }
+  }
+
+  private void set(int pageId, Entry[] range) {
+    while (ranges.size() < pageId) ranges.add(null);
+    ranges.set(pageId - 1, range);
+  }
+
+  private void writeKey(DataOutputStream output, Entry key) throws IOException {
+    Comparable value = key.value;
+    switch (keyType) {
+      case INT:
+        output.writeInt(((Number) value).intValue());
+        break;
+      case LONG:
+        output.writeLong(((Number) value).longValue());
+        break;
+      case FLOAT:
+        output.writeFloat(((Number) value).floatValue());
+        break;
+      case DOUBLE:
+        output.writeDouble(((Number) value).doubleValue());
+        break;
+      case STRING:
+        output.writeUTF(value.toString());
+        break;
+    }
+  }
+
+  private Entry readKey(DataInputStream input) throws IOException {
+    switch (keyType) {
+      case INT:
+        return new Entry(input.readInt());
+      case LONG:
+        return new Entry(input.readLong());
+      case FLOAT:
+        return new Entry(input.readFloat());
+      case DOUBLE:
+        return new Entry(input.readDouble());
+      default:
+        return new Entry(input.readUTF());
+    }
+  }
+}
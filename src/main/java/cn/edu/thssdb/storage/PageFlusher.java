@@ -0,0 +1,119 @@
+package cn.edu.thssdb.storage;
+
+import cn.edu.thssdb.utils.Global;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Background writer of the buffer pool.
+ *
+ * <p>Every {@link Global#PAGE_FLUSHER_INTERVAL} milliseconds it writes back the dirty pages among
+ * the next {@code capacity / 8} eviction candidates, so that the pages a query is about to evict
+ * are already clean. When the dirty pages exceed the high watermark it is woken up at once and
+ * flushes the coldest dirty pages until they are back at the low watermark.
+ */
+public class PageFlusher extends Thread {
+  private final BufferPool pool;
+  private final int highWatermark;
+  private final int lowWatermark;
+  private final int window;
+  private final AtomicLong flushedPages = new AtomicLong();
+  private volatile boolean running = true;
+  private boolean signaled = false;
+
+  // flush rate over the last completed interval of at least one second
+  private long rateStart = System.currentTimeMillis();
+  private long rateStartPages = 0;
+  private volatile double flushRate = 0;
+
+  public PageFlusher(BufferPool pool) {
+    super("page-flusher");
+    setDaemon(true);
+    this.pool = pool;
+    int capacity = pool.getCapacity();
+    this.highWatermark = (int) (capacity * Global.PAGE_FLUSHER_HIGH_WATERMARK);
+    this.lowWatermark = (int) (capacity * Global.PAGE_FLUSHER_LOW_WATERMARK);
+    this.window = Math.max(1, capacity / 8);
+  }
+
+  public int getHighWatermark() {
+    return highWatermark;
+  }
+
+  public int getLowWatermark() {
+    return lowWatermark;
+  }
+
+  /** Pages written by this thread since startup. */
+  public long getFlushedPages() {
+    return flushedPages.get();
+  }
+
+  /** Pages written per second, measured over the last second or so. */
+  public double getFlushRate() {
+    return flushRate;
+  }
+
+  public synchronized void wakeUp() {
+    signaled = true;
+    notify();
+  }
+
+  public void shutdown() {
+    running = false;
+    wakeUp();
+  }
+
+  @Override
+  public void run() {
+    while (running) {
+      synchronized (this) {
+        try {
+          if (!signaled) wait(Global.PAGE_FLUSHER_INTERVAL);
+        } catch (InterruptedException e) {
+          return;
+        }
+        signaled = false;
+      }
+      try {
+        flush();
+      } catch (RuntimeException e) {
+        System.err.println("Warning: page flusher failed: " + e.getMessage());
+      }
+      updateRate();
+    }
+  }
+
+  /** Runs one round of flushing and returns the number of pages written. */
+  public int flush() {
+    int written = flush(pool.dirtyCandidates(window, Integer.MAX_VALUE));
+    if (pool.getDirtyPages() > highWatermark) {
+      int excess;
+      while ((excess = pool.getDirtyPages() - lowWatermark) > 0) {
+        int count = flush(pool.dirtyCandidates(pool.getCapacity(), excess));
+        if (count == 0) break;
+        written += count;
+      }
+    }
+    return written;
+  }
+
+  private int flush(List<Page> pages) {
+    int written = 0;
+    for (Page page : pages) {
+      if (page.getOwner().flush(page)) written++;
+    }
+    flushedPages.addAndGet(written);
+    return written;
+  }
+
+  private void updateRate() {
+    long now = System.currentTimeMillis();
+    if (now - rateStart < 1000) return;
+    long pages = flushedPages.get();
+    flushRate = (pages - rateStartPages) * 1000.0 / (now - rateStart);
+    rateStart = now;
+    rateStartPages = pages;
+  }
+}
@@ -0,0 +1,18 @@
+package cn.edu.thssdb.storage;
+
+/** Something that keeps pages in the {@link BufferPool}: a table's data pages or its index. */
+public interface PageOwner {
+  /**
+   * Takes a page out of memory, writing it back first if it is dirty.
+   *
+   * @return false if the page cannot be evicted right now
+   */
+  boolean evict(Page page);
+
+  /**
+   * Writes a dirty page back while it stays cached.
+   *
+   * @return false if the page is clean, pinned or no longer cached
+   */
+  boolean flush(Page page);
+}
@@ -0,0 +1,50 @@
+package cn.edu.thssdb.storage;
+
+import cn.edu.thssdb.utils.Global;
+
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Decides which resident page of the {@link BufferPool} is evicted next. Every method runs in
+ * constant time, victim selection included (amortized over the pages it walks past).
+ *
+ * <p>Accesses made by sequential scans are flagged so that a policy can keep a full-table scan from
+ * pushing the hot pages of other queries out of the pool.
+ */
+public interface ReplacementPolicy {
+  /** Called when a page gets a frame. */
+  void admit(Page page, boolean isScan);
+
+  /** Called on every access to a resident page. */
+  void access(Page page, boolean isScan);
+
+  /** Called when a page leaves the pool. */
+  void remove(Page page);
+
+  /**
+   * Resident pages in the order they should be evicted. The pool stops iterating at the first page
+   * it manages to evict and calls {@link #remove} before asking again.
+   */
+  Iterator<Page> victims();
+
+  /** Up to {@code count} pages that are next in line for eviction, without changing any state. */
+  List<Page> coldest(int count);
+
+  int size();
+
+  static ReplacementPolicy create(String name, int capacity) {
+    switch (name.toLowerCase()) {
+      case "clock":
+        return new ClockPolicy();
+      case "2q":
+        return new TwoQueuePolicy(capacity);
+      default:
+        throw new IllegalArgumentException("unknown replacement policy " + name);
+    }
+  }
+
+  static ReplacementPolicy create(int capacity) {
+    return create(Global.BUFFER_POOL_POLICY, capacity);
+  }
+}
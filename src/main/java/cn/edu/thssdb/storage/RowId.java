@@ -0,0 +1,26 @@
+package cn.edu.thssdb.storage;
+
+/**
+ * The address of a row: the id of its data page and its slot in that page, packed into a long.
+ *
+ * <p>A row keeps its slot while it stays in its page, so the primary index can point at it directly
+ * and a lookup resolves the row through the buffer pool without searching the page.
+ */
+public final class RowId {
+  private static final int SLOT_BITS = 16;
+  private static final long SLOT_MASK = (1L << SLOT_BITS) - 1;
+
+  private RowId() {}
+
+  public static long of(int pageId, int slot) {
+    return ((long) pageId << SLOT_BITS) | slot;
+  }
+
+  public static int page(long rowId) {
+    return (int) (rowId >>> SLOT_BITS);
+  }
+
+  public static int slot(long rowId) {
+    return (int) (rowId & SLOT_MASK);
+  }
+}
@@ -0,0 +1,282 @@
+package cn.edu.thssdb.storage;
+
+import cn.edu.thssdb.exception.IOFileException;
+import cn.edu.thssdb.schema.Entry;
+import cn.edu.thssdb.schema.Row;
+import cn.edu.thssdb.utils.Pair;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+
+/**
+ * An immutable file of rows sorted by primary key, written in one sequential pass by {@link
+ * LsmStorage} when it flushes a memtable or merges runs.
+ *
+ * <p>The file is a header (magic, version), the records, a sparse index, a {@link BloomFilter} of
+ * the keys and a footer (offsets of the index and the filter, number of records, magic). A record
+ * is a flag, the key as {@link EntrySerializer} writes it and, unless the flag marks a deleted key,
+ * the length and the {@link PageCodec} encoding of the row. The index holds the key and offset of
+ * every {@link #INDEX_INTERVAL}th record, so a point read that gets past the filter reads one block
+ * of records.
+ *
+ * <p>The index and the filter stay in memory while the run is open. Blocks are read from the file
+ * on demand.
+ */
+public class SortedRun {
+  private static final int MAGIC = 0x4C534D31; // "LSM1"
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 8;
+  private static final int FOOTER_SIZE = 24;
+  private static final byte LIVE = 0;
+  private static final byte DELETED = 1;
+  static final int INDEX_INTERVAL = 32;
+
+  private final String fileName;
+  private final int id;
+  private final PageCodec codec;
+  private final EntrySerializer serializer;
+  private final FileChannel channel;
+  private final long length;
+  private final int count;
+  private final Entry[] indexKeys;
+  private final long[] indexOffsets;
+  private final long dataEnd;
+  private final BloomFilter filter;
+
+  /** Opens a run file, reading its index and filter. */
+  public SortedRun(String fileName, int id, PageCodec codec, EntrySerializer serializer) {
+    this.fileName = fileName;
+    this.id = id;
+    this.codec = codec;
+    this.serializer = serializer;
+    try {
+      channel = FileChannel.open(new File(fileName).toPath(), StandardOpenOption.READ);
+      length = channel.size();
+      if (length < HEADER_SIZE + FOOTER_SIZE) throw new IOFileException(fileName);
+      ByteBuffer footer = read(length - FOOTER_SIZE, FOOTER_SIZE);
+      long indexOffset = footer.getLong();
+      long filterOffset = footer.getLong();
+      count = footer.getInt();
+      if (footer.getInt() != MAGIC || read(0, 4).getInt() != MAGIC) {
+        throw new IOFileException(fileName);
+      }
+      ByteBuffer tail = read(indexOffset, (int) (length - FOOTER_SIZE - indexOffset));
+      int indexSize = tail.getInt();
+      indexKeys = new Entry[indexSize];
+      indexOffsets = new long[indexSize];
+      for (int i = 0; i < indexSize; i++) {
+        indexKeys[i] = serializer.read(tail);
+        indexOffsets[i] = tail.getLong();
+      }
+      tail.position((int) (filterOffset - indexOffset));
+      filter = BloomFilter.read(tail);
+      dataEnd = indexOffset;
+    } catch (IOException e) {
+      throw new IOFileException(fileName);
+    }
+  }
+
+  /**
+   * Writes records in key order into a new run file.
+   *
+   * @param records the keys with their rows, or with {@link LsmStorage#TOMBSTONE} for a deleted key
+   * @param expected about as many keys as there are records, to size the filter
+   * @return the number of records written
+   */
+  public static int write(
+      String fileName,
+      Iterator<Pair<Entry, Row>> records,
+      int expected,
+      PageCodec codec,
+      EntrySerializer serializer) {
+    BloomFilter filter = new BloomFilter(expected);
+    ByteArrayOutputStream index = new ByteArrayOutputStream();
+    DataOutputStream indexOutput = new DataOutputStream(index);
+    ByteBuffer key = ByteBuffer.allocate(serializer.maxBytes());
+    int count = 0;
+    try (FileOutputStream file = new FileOutputStream(fileName);
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(file, 1 << 16))) {
+      output.writeInt(MAGIC);
+      output.writeInt(VERSION);
+      long offset = HEADER_SIZE;
+      while (records.hasNext()) {
+        Pair<Entry, Row> record = records.next();
+        key.clear();
+        serializer.write(key, record.left);
+        filter.add(BloomFilter.hash(key.array(), key.position()));
+        if (count % INDEX_INTERVAL == 0) {
+          indexOutput.write(key.array(), 0, key.position());
+          indexOutput.writeLong(offset);
+        }
+        boolean deleted = record.right == LsmStorage.TOMBSTONE;
+        output.writeByte(deleted ? DELETED : LIVE);
+        output.write(key.array(), 0, key.position());
+        offset += 1 + key.position();
+        if (!deleted) {
+          ByteBuffer row = ByteBuffer.allocate(codec.rowSize(record.right));
+          codec.encodeRow(record.right, row);
+          output.writeInt(row.capacity());
+          output.write(row.array());
+          offset += 4 + row.capacity();
+        }
+        count++;
+      }
+      long indexOffset = offset;
+      output.writeInt((count + INDEX_INTERVAL - 1) / INDEX_INTERVAL);
+      output.write(index.toByteArray());
+      long filterOffset = indexOffset + 4 + index.size();
+      filter.write(output);
+      output.writeLong(indexOffset);
+      output.writeLong(filterOffset);
+      output.writeInt(count);
+      output.writeInt(MAGIC);
+      output.flush();
+      file.getFD().sync();
+    } catch (IOException e) {
+      throw new IOFileException(fileName);
+    }
+    return count;
+  }
+
+  public int getId() {
+    return id;
+  }
+
+  /** Size of the file in bytes. */
+  public long getLength() {
+    return length;
+  }
+
+  public int getCount() {
+    return count;
+  }
+
+  /**
+   * Looks a key up.
+   *
+   * @param hash the {@link BloomFilter#hash} of the serialized key
+   * @return the row of the key, {@link LsmStorage#TOMBSTONE} if the run deletes it, or null if the
+   *     run does not hold it
+   */
+  public Row get(Entry key, long hash) {
+    if (!filter.mightContain(hash)) return null;
+    int block = floor(key);
+    if (block < 0) return null;
+    ByteBuffer buffer = readBlock(block);
+    while (buffer.hasRemaining()) {
+      boolean deleted = buffer.get() == DELETED;
+      int comparison = serializer.read(buffer).compareTo(key);
+      if (comparison > 0) return null;
+      if (comparison == 0) return deleted ? LsmStorage.TOMBSTONE : decode(buffer);
+      if (!deleted) buffer.position(buffer.position() + 4 + buffer.getInt(buffer.position()));
+    }
+    return null;
+  }
+
+  /** Returns a cursor at the first key after {@code from}, or at the first key if it is null. */
+  public Cursor cursor(Entry from) {
+    return new Cursor(from, false);
+  }
+
+  /** Returns a cursor at the first key after {@code from}, or at it too if inclusive. */
+  public Cursor cursor(Entry from, boolean inclusive) {
+    return new Cursor(from, inclusive);
+  }
+
+  /** Reads the records of a run in key order, one block at a time. */
+  public class Cursor {
+    private int block;
+    private ByteBuffer buffer;
+    private Entry key;
+    private Row row;
+
+    private Cursor(Entry from, boolean inclusive) {
+      block = from == null ? 0 : Math.max(floor(from), 0);
+      buffer = indexKeys.length == 0 ? ByteBuffer.allocate(0) : readBlock(block);
+      do {
+        advance();
+      } while (key != null && from != null && key.compareTo(from) < (inclusive ? 0 : 1));
+    }
+
+    /** The current key, or null past the last record. */
+    public Entry getKey() {
+      return key;
+    }
+
+    /** The row of the current key, or {@link LsmStorage#TOMBSTONE} if the run deletes it. */
+    public Row getRow() {
+      return row;
+    }
+
+    public void advance() {
+      if (!buffer.hasRemaining()) {
+        if (++block >= indexKeys.length) {
+          key = null;
+          row = null;
+          return;
+        }
+        buffer = readBlock(block);
+      }
+      boolean deleted = buffer.get() == DELETED;
+      key = serializer.read(buffer);
+      row = deleted ? LsmStorage.TOMBSTONE : decode(buffer);
+    }
+  }
+
+  private Row decode(ByteBuffer buffer) {
+    int length = buffer.getInt();
+    Row row = codec.decodeRow(buffer, buffer.position());
+    buffer.position(buffer.position() + length);
+    return row;
+  }
+
+  /** Index of the last block whose first key is not greater than the key, or -1. */
+  private int floor(Entry key) {
+    int low = 0;
+    int high = indexKeys.length - 1;
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      if (indexKeys[middle].compareTo(key) <= 0) low = middle + 1;
+      else high = middle - 1;
+    }
+    return high;
+  }
+
+  private ByteBuffer readBlock(int block) {
+    long end = block + 1 < indexOffsets.length ? indexOffsets[block + 1] : dataEnd;
+    try {
+      return read(indexOffsets[block], (int) (end - indexOffsets[block]));
+    } catch (IOException e) {
+      throw new IOFileException(fileName);
+    }
+  }
+
+  private ByteBuffer read(long offset, int size) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(size);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, offset + buffer.position()) < 0) throw new EOFException();
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  public void close() {
+    try {
+      channel.close();
+    } catch (IOException e) {
+      throw new IOFileException(fileName);
+    }
+  }
+
+  /** Closes the run and deletes its file. */
+  public void drop() {
+    close();
+    File file = new File(fileName);
+    if (file.isFile() && !file.delete()) {
+      System.err.println("Warning: Failed to delete file " + file.getName());
+    }
+  }
+}
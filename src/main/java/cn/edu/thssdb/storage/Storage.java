@@ -1,383 +1,1033 @@
 package cn.edu.thssdb.storage;
 
 import cn.edu.thssdb.exception.DuplicateKeyException;
+import cn.edu.thssdb.exception.IOFileException;
 import cn.edu.thssdb.exception.KeyNotExistException;
+import cn.edu.thssdb.exception.RowSizeExceedException;
 import cn.edu.thssdb.index.BPlusTree;
+import cn.edu.thssdb.index.KeyLayout;
+import cn.edu.thssdb.index.PagedNodeStore;
+import cn.edu.thssdb.index.Serializer;
+import cn.edu.thssdb.schema.Column;
 import cn.edu.thssdb.schema.Entry;
 import cn.edu.thssdb.schema.Row;
+import cn.edu.thssdb.type.ColumnType;
+import cn.edu.thssdb.type.CompressionType;
+import cn.edu.thssdb.type.EngineType;
 import cn.edu.thssdb.utils.Pair;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
-import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Comparator;
 import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
 
+import static cn.edu.thssdb.utils.Global.COLD_PAGE_AGE;
 import static cn.edu.thssdb.utils.Global.DATA_DIRECTORY;
+import static cn.edu.thssdb.utils.Global.PAGE_OFF_HEAP;
 
-public class Storage {
-  public class EmptyRow extends Row {
-    public EmptyRow(int position) {
-      super();
-      this.position = position;
+/**
+ * The data pages and primary index of one table.
+ *
+ * <p>Reads take the latch of the storage in shared mode and run in parallel, faulting pages in
+ * concurrently; changes take it exclusively, except inserts into pages that have room, which run in
+ * parallel with the reads and with each other. A page in use is pinned so that no thread evicts it,
+ * and its frame latch is held while the page is read from disk or written back, and while its rows
+ * are read or a row is added under the shared latch. The index has its own latch, held for the
+ * duration of each tree operation, shared by lookups and exclusive for changes.
+ *
+ * <p>Every data page keeps a {@link ZoneMap} of its rows, and the page directory the one of every
+ * page as it was last written, so that a scan can leave out the pages a condition rejects without
+ * reading them.
+ *
+ * <p>The strings of low-cardinality columns are stored as codes of the {@link DictionaryStore} of
+ * the table, which is written before any page that uses a new code.
+ *
+ * <p>With {@code PAGE_OFF_HEAP} the cached pages are {@link OffHeapPage}s, which keep their rows
+ * encoded and decode a row only when it is read.
+ */
+public class Storage implements PageOwner, TableStorage {
+  // share of a page that a clustered table fills when it is rewritten, leaving room for inserts
+  private static final int CLUSTER_FILL = Page.CAPACITY * 9 / 10;
+
+  private String Name;
+  // pages of this table that hold a buffer pool frame
+  private final ConcurrentHashMap<Integer, Page> pages;
+  private volatile int pageNum;
+  private BPlusTree<Entry, Long> index; // primary key to the {@link RowId} of its row
+  private final PagedNodeStore<Entry, Long> indexStore;
+  private final PageCodec codec;
+  private final DictionaryStore dictionaries;
+  private final TableSpace space;
+  private final PageDirectory directory;
+  private final int primaryIndex;
+  private final boolean clustered; // whether pages hold contiguous key ranges
+  private final boolean compressed; // whether the tablespace deflates its pages
+  private final BufferPool pool;
+  // bumped whenever rows move to other pages, which makes the row ids read ahead by scans stale
+  private volatile long relocations;
+  // shared by reads, exclusive for changes; evictions started by other threads only try it
+  private final ReentrantReadWriteLock latch = new ReentrantReadWriteLock();
+  // shared by reads of the index, exclusive for its changes and the evictions of its nodes
+  private final ReentrantReadWriteLock indexLatch = new ReentrantReadWriteLock();
+
+  /**
+   * Returns a data page pinned in its frame, reading it from disk if needed. The caller unpins it
+   * when done.
+   */
+  private Page pinPage(int pageId, boolean isScan) {
+    while (true) {
+      Page page = pages.get(pageId);
+      if (page == null) {
+        Page fresh = newPage(pageId);
+        fresh.pin();
+        fresh.getLatch().writeLock().lock();
+        try {
+          if (pages.putIfAbsent(pageId, fresh) != null) {
+            fresh.unpin();
+            fresh.free();
+            continue;
+          }
+          try {
+            pool.admit(fresh, isScan);
+            ByteBuffer image = readImage(pageId);
+            if (image != null) fresh.load(image);
+            directory.setFree(pageId, Page.CAPACITY - fresh.getSize());
+          } catch (RuntimeException e) {
+            pages.remove(pageId, fresh);
+            pool.release(fresh);
+            fresh.unpin();
+            throw e;
+          }
+          return fresh;
+        } finally {
+          fresh.getLatch().writeLock().unlock();
+        }
+      }
+      page.pin();
+      // waits while another thread reads the page or evicts it
+      page.getLatch().readLock().lock();
+      boolean resident = pages.get(pageId) == page;
+      page.getLatch().readLock().unlock();
+      if (resident) {
+        pool.access(page, isScan);
+        return page;
+      }
+      page.unpin();
     }
   }
 
-  private String Name;
-  private static final int maxPageNum = 1000;
-  private HashMap<Integer, Page> pages;
-  private int pageNum;
-  private BPlusTree<Entry, Row> index;
-
-  private void exchangePage(int pageId, int primaryKey) {
-    /*
-    （遇到emptyRow时）从内存读入页面进行恢复
-     */
-    if (pageNum >= maxPageNum) expelPage();
-
-    Page newPage = new Page(Name, pageId);
-    pages.put(pageId, newPage);
-    ArrayList<Row> rows = deserialize(new File(DATA_DIRECTORY + newPage.getPageFile()));
-    for (Row row : rows) {
-      row.setPosition(pageId);
-      Entry primaryEntry = row.getEntries().get(primaryKey);
-      index.update(primaryEntry, row);
-      newPage.insertEntry(primaryEntry, row.toString().length());
-    }
-  }
-
-  private boolean addPage() {
-    boolean legalPage = true;
-    if (pageNum >= maxPageNum) {
-      expelPage();
-      legalPage = false;
+  private void updateRange(Page page) {
+    Entry min = null;
+    Entry max = null;
+    for (int slot = 0; slot < page.getSlotCount(); slot++) {
+      Entry entry = page.getEntry(slot, primaryIndex);
+      if (entry == null) continue;
+      if (min == null || entry.compareTo(min) < 0) min = entry;
+      if (max == null || entry.compareTo(max) > 0) max = entry;
     }
+    directory.setRange(page.getId(), min, max);
+    page.rebuildZones();
+    directory.setZones(page.getId(), page.getZones().copy());
+  }
+
+  /** Appends an empty page, pinned like the pages returned by {@link #pinPage}. */
+  private Page addPage() {
+    Page newpage = newPage(pageNum + 1);
+    newpage.pin();
+    pool.admit(newpage, false);
+    pages.put(newpage.getId(), newpage);
     pageNum++;
-    Page newpage = new Page(Name, pageNum);
-    pages.put(pageNum, newpage);
-    return legalPage;
-  }
-
-  private void expelPage() {
-    /*
-    LRU选择丢弃页面
-     */
-    long earliest = Long.MAX_VALUE;
-    int targetID = 0;
-    for (java.util.Map.Entry<Integer, Page> integerPageEntry : pages.entrySet()) {
-      Page page = integerPageEntry.getValue();
-      long visitTime = page.getLastVisit();
-      boolean isPinned = page.getPinned();
-      if (visitTime <= earliest && !isPinned) {
-        earliest = visitTime;
-        targetID = page.getId();
+    return newpage;
+  }
+
+  /**
+   * Called by the buffer pool to take a page out of memory. It is written back if dirty.
+   *
+   * @return false if the storage is being changed by another thread, or the page is in use or not
+   *     resident
+   */
+  @Override
+  public boolean evict(Page page) {
+    if (page.getPinCount() > 0 || page.getPinned()) return false;
+    if (!latch.readLock().tryLock()) return false;
+    try {
+      if (!page.getLatch().writeLock().tryLock()) return false;
+      try {
+        if (pages.get(page.getId()) != page || page.getPinCount() > 0) return false;
+        if (page.getEdit()) {
+          // rewrite to disk
+          writePage(page);
+        }
+        pages.remove(page.getId());
+        return true;
+      } finally {
+        page.getLatch().writeLock().unlock();
       }
+    } finally {
+      latch.readLock().unlock();
     }
-    // 从缓存中搜索
-    Page page = pages.get(targetID);
-    if (page == null) return;
-    ArrayList<Row> rows = new ArrayList<>();
-    ArrayList<Entry> entries = page.getEntries();
-    for (Entry entry : entries) {
-      rows.add(index.get(entry));
-      index.update(entry, this.new EmptyRow(targetID));
-    }
-    if (page.getEdit()) {
-      // rewrite to disk
+  }
+
+  /**
+   * Called by the page flusher to write a dirty page back while it stays cached.
+   *
+   * @return false if the page is clean, pinned or no longer resident
+   */
+  @Override
+  public boolean flush(Page page) {
+    latch.readLock().lock();
+    try {
+      page.getLatch().writeLock().lock();
       try {
-        serialize(rows, DATA_DIRECTORY + page.getPageFile());
-      } catch (IOException e) {
-        return;
+        if (pages.get(page.getId()) != page || !page.getEdit() || page.getPinned()) return false;
+        writePage(page);
+        return true;
+      } finally {
+        page.getLatch().writeLock().unlock();
       }
+    } finally {
+      latch.readLock().unlock();
+    }
+  }
+
+  private void writePage(Page page) {
+    directory.markUnclean();
+    updateRange(page);
+    space.writePage(page.getId(), page.toImage());
+    if (page.getEdit()) pool.pageCleaned();
+    page.setEdit(false);
+  }
+
+  /** Records a change to the rows of a page. */
+  private void markDirty(Page page, boolean isTransaction) {
+    directory.setFree(page.getId(), Page.CAPACITY - page.getSize());
+    if (!page.getEdit()) {
+      page.setEdit(true);
+      pool.pageDirtied();
     }
-    pages.remove(targetID);
+    if (isTransaction) page.setPinned(true);
   }
 
-  private void serialize(ArrayList<Row> rows, String filename) throws IOException {
-    ObjectOutputStream oos = new ObjectOutputStream(Files.newOutputStream(Paths.get(filename)));
-    oos.writeObject(rows);
-    oos.close();
+  /** Reads the image of a page, or returns null for a page that is empty on disk. */
+  private ByteBuffer readImage(int pageId) {
+    // a page that was allocated but never flushed is empty
+    if (pageId > space.getPageCount()) return null;
+    ByteBuffer image = space.readPage(pageId);
+    return PageCodec.isPageImage(image) ? image : null;
   }
 
-  private ArrayList<Row> deserialize(File file) {
-    ArrayList<Row> rows;
-    ObjectInputStream ObjInput = null;
+  private ArrayList<Row> readPage(int pageId) {
+    ByteBuffer image = readImage(pageId);
+    return image == null ? new ArrayList<>() : codec.decodePage(image);
+  }
+
+  /**
+   * Opens the tablespace and its index without reading any data page. The index and the page
+   * directory are kept in their own files; when either is missing or was not saved after its last
+   * change, both are rebuilt from the pages on disk. Page files written by older versions (one
+   * serialized {@code ArrayList<Row>} per file) are moved into the tablespace first.
+   *
+   * @param primaryKey index of the primary column
+   */
+  public void recover(int primaryKey) {
+    latch.writeLock().lock();
     try {
-      ObjInput = new ObjectInputStream(Files.newInputStream(file.toPath()));
-      rows = (ArrayList<Row>) ObjInput.readObject();
-    } catch (Exception e) {
-      rows = null;
+      importLegacyPages();
+      int described = directory.load();
+      pageNum = Math.max(space.getPageCount(), described);
+      if (described < 0 || !indexStore.isTrusted()) rebuildIndex();
     } finally {
-      try {
-        assert ObjInput != null;
-        ObjInput.close();
+      latch.writeLock().unlock();
+    }
+  }
+
+  private void rebuildIndex() {
+    indexStore.clear();
+    index = new BPlusTree<>(indexStore);
+    for (int i = 1; i <= pageNum; i++) {
+      Entry min = null;
+      Entry max = null;
+      int size = 0;
+      boolean dropped = false;
+      ZoneMap zones = new ZoneMap(codec.getTypes());
+      ArrayList<Row> rows = readPage(i);
+      for (int slot = 0; slot < rows.size(); slot++) {
+        Row row = rows.get(slot);
+        if (row == null) continue;
+        Entry entry = keyOf(row);
+        // a row moved by an interrupted vacuum is kept in the earlier page only
+        if (index.contains(entry)) {
+          rows.set(slot, null);
+          dropped = true;
+          continue;
+        }
+        index.put(entry, RowId.of(i, slot));
+        zones.add(row);
+        size += recordSize(row) - Page.SLOT_SIZE;
+        if (min == null || entry.compareTo(min) < 0) min = entry;
+        if (max == null || entry.compareTo(max) > 0) max = entry;
+      }
+      if (dropped) space.writePage(i, codec.encodePage(rows));
+      while (!rows.isEmpty() && rows.get(rows.size() - 1) == null) rows.remove(rows.size() - 1);
+      size += rows.size() * Page.SLOT_SIZE;
+      directory.setRange(i, min, max);
+      directory.setZones(i, zones);
+      directory.setFree(i, Page.CAPACITY - size);
+    }
+    // no page is cached yet, so the index now matches the pages on disk
+    directory.save(pageNum);
+    indexStore.save();
+  }
+
+  private void importLegacyPages() {
+    for (int i = space.getPageCount() + 1; ; i++) {
+      File file = new File(DATA_DIRECTORY + "page#_#" + Name + "#_#" + i + ".data");
+      if (!file.isFile()) return;
+      ArrayList<Row> rows;
+      try (ObjectInputStream ObjInput =
+          new ObjectInputStream(Files.newInputStream(file.toPath()))) {
+        rows = (ArrayList<Row>) ObjInput.readObject();
       } catch (Exception e) {
-        return null;
+        rows = new ArrayList<>();
+      }
+      space.writePage(i, codec.encodePage(rows));
+      if (!file.delete()) {
+        System.err.println("Warning: Failed to delete file " + file.getName());
       }
     }
-    return rows;
   }
 
-  public Storage(String databaseName, String tableName) {
+  public Storage(String databaseName, String tableName, List<Column> columns) {
+    this(databaseName, tableName, columns, EngineType.HEAP);
+  }
+
+  /**
+   * @param engine {@link EngineType#CLUSTERED} to keep the pages in primary key order
+   */
+  public Storage(String databaseName, String tableName, List<Column> columns, EngineType engine) {
+    this(databaseName, tableName, columns, engine, CompressionType.NONE);
+  }
+
+  /**
+   * @param engine {@link EngineType#CLUSTERED} to keep the pages in primary key order
+   * @param compression {@link CompressionType#DEFLATE} to store the pages compressed
+   */
+  public Storage(
+      String databaseName,
+      String tableName,
+      List<Column> columns,
+      EngineType engine,
+      CompressionType compression) {
     this.pageNum = 0;
+    this.clustered = engine == EngineType.CLUSTERED;
+    this.compressed = compression == CompressionType.DEFLATE;
     this.Name = databaseName + "#_#" + tableName;
-    this.index = new BPlusTree<>();
-    this.pages = new HashMap<>();
+    this.pages = new ConcurrentHashMap<>();
+    this.dictionaries = new DictionaryStore(databaseName, tableName, columns);
+    this.codec = new PageCodec(columns, dictionaries.getDictionaries());
+    this.space = openSpace(DATA_DIRECTORY + "space#_#" + Name + ".data");
+    int primary = 0;
+    for (int i = 0; i < columns.size(); i++) {
+      if (columns.get(i).getPrimary() == 1) primary = i;
+    }
+    this.primaryIndex = primary;
+    this.directory =
+        new PageDirectory(
+            databaseName, tableName, columns.get(primary).getType(), codec.getTypes());
+    this.pool = BufferPool.getInstance();
+    this.indexStore =
+        new PagedNodeStore<>(
+            DATA_DIRECTORY + "index#_#" + Name + ".data",
+            new EntrySerializer(columns.get(primary)),
+            Serializer.LONG,
+            keyLayout(columns.get(primary).getType()),
+            indexLatch);
+    this.index = new BPlusTree<>(indexStore);
   }
 
-  public int getPageNum() {
-    return pageNum;
+  /** Keeps INT and LONG primary keys in primitive arrays in the nodes of the index. */
+  private static KeyLayout<Entry> keyLayout(ColumnType type) {
+    switch (type) {
+      case INT:
+        return KeyLayout.ints(entry -> ((Number) entry.value).intValue(), Entry::new);
+      case LONG:
+        return KeyLayout.longs(entry -> ((Number) entry.value).longValue(), Entry::new);
+      default:
+        return KeyLayout.objects();
+    }
   }
 
-  public Iterator<Pair<Entry, Row>> getIndexIter() {
-    return index.iterator();
+  private Page newPage(int pageId) {
+    return PAGE_OFF_HEAP
+        ? new OffHeapPage(pageId, this, codec, pool)
+        : new Page(pageId, this, codec);
   }
 
-  public boolean insertPage(ArrayList<Row> rows, int primaryKey) {
-    boolean isLegal = addPage();
-    Page newPage = pages.get(pageNum);
-    for (Row row : rows) {
-      row.setPosition(pageNum);
-      ArrayList<Entry> entries = row.getEntries();
-      Entry primaryEntry = entries.get(primaryKey);
-      int length = row.toString().length();
-      newPage.insertEntry(primaryEntry, length);
-      if (isLegal) index.put(primaryEntry, row);
-      else index.put(primaryEntry, this.new EmptyRow(pageNum));
-    }
-    return isLegal;
+  private TableSpace openSpace(String fileName) {
+    return compressed ? new CompressedTableSpace(fileName) : new TableSpace(fileName);
   }
 
-  public void insertRow(ArrayList<Entry> entries, int primaryKey) {
-    Row row = new Row(entries.toArray(new Entry[0]));
-    int length = row.toString().length();
-    Page newPage = pages.get(pageNum);
-    Entry primaryEntry = entries.get(primaryKey);
-    if (newPage == null || newPage.getSize() + length > Page.maxSize) {
-      addPage();
-      newPage = pages.get(pageNum);
-    }
-    row.setPosition(pageNum);
-    try {
-      index.put(primaryEntry, row);
-    } catch (DuplicateKeyException e) {
-      newPage.setLastVisit();
-      throw new DuplicateKeyException(primaryEntry.toString());
-    }
-    newPage.insertEntry(primaryEntry, length);
-    newPage.setEdit(true);
-    newPage.setLastVisit();
+  public int getPageNum() {
+    return pageNum;
   }
 
-  public void insertRow(ArrayList<Entry> entries, int primaryKey, boolean isTransaction) {
-    Row row = new Row(entries.toArray(new Entry[0]));
-    int length = row.toString().length();
-    Page newPage = pages.get(pageNum);
-    Entry primaryEntry = entries.get(primaryKey);
-    if (newPage == null || newPage.getSize() + length > Page.maxSize) {
-      addPage();
-      newPage = pages.get(pageNum);
-    }
-    row.setPosition(pageNum);
+  /** Iterates the whole index in key order; the value of a key is the {@link RowId} of its row. */
+  public Iterator<Pair<Entry, Long>> getIndexIter() {
+    latch.readLock().lock();
     try {
-      index.put(primaryEntry, row);
-    } catch (DuplicateKeyException e) {
-      newPage.setLastVisit();
-      throw new DuplicateKeyException(primaryEntry.toString());
+      return index.iterator();
+    } finally {
+      latch.readLock().unlock();
     }
-    newPage.insertEntry(primaryEntry, length);
-    if (isTransaction) newPage.setPinned(true);
-    newPage.setEdit(true);
-    newPage.setLastVisit();
   }
 
-  public void deleteRow(Entry entry, int primaryKey) {
-    Row row;
+  /** Iterates the keys of a range, seeking the start of the range in the index. */
+  @Override
+  public Iterator<Pair<Entry, Long>> getIndexIter(KeyRange range) {
+    if (range.isAll()) return getIndexIter();
+    latch.readLock().lock();
     try {
-      row = index.get(entry);
-    } catch (KeyNotExistException e) {
-      throw new KeyNotExistException(entry.toString());
+      return index.iterator(range.from, range.fromInclusive, range.to, range.toInclusive);
+    } finally {
+      latch.readLock().unlock();
     }
+  }
 
-    int position = row.getPosition();
-    if (row instanceof EmptyRow) {
-      exchangePage(position, primaryKey);
-      row = index.get(entry);
-    }
+  /**
+   * Iterates a range of the index like {@link #getIndexIter(KeyRange)}, leaving out the keys of the
+   * rows in pages whose zone map the filter rejects. A page in the cache is judged by its own map,
+   * any other by the one in the page directory. Once rows move to other pages nothing more is left
+   * out, since the row ids read ahead may be stale.
+   */
+  @Override
+  public Iterator<Pair<Entry, Long>> getIndexIter(KeyRange range, Predicate<ZoneMap> filter) {
+    Iterator<Pair<Entry, Long>> iterator = getIndexIter(range);
+    long moves = relocations;
+    return new Iterator<Pair<Entry, Long>>() {
+      private Pair<Entry, Long> next;
+      // the page of the last key and whether it may match, since keys tend to share pages
+      private int lastPage = 0;
+      private boolean lastMatch;
+
+      @Override
+      public boolean hasNext() {
+        while (next == null && iterator.hasNext()) {
+          Pair<Entry, Long> pair = iterator.next();
+          int pageId = RowId.page(pair.right);
+          if (pageId != lastPage) {
+            lastPage = pageId;
+            lastMatch = pageMayMatch(pageId, filter);
+          }
+          if (lastMatch || relocations != moves) next = pair;
+        }
+        return next != null;
+      }
 
-    index.remove(entry);
-    Page newPage = pages.get(position);
-    newPage.removeEntry(entry, row.toString().length());
-    newPage.setLastVisit();
-    newPage.setEdit(true);
+      @Override
+      public Pair<Entry, Long> next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        Pair<Entry, Long> pair = next;
+        next = null;
+        return pair;
+      }
+    };
   }
 
-  public void deleteRow(Entry entry, int primaryKey, boolean isTransaction) {
-    Row row;
+  /**
+   * Judges a page by its zone map. The map of a cached page is read under the storage latch, which
+   * changes to its rows hold exclusively, and its page latch, which a page being read in holds
+   * until load() has filled the map; a page that is not cached once the latch is taken is judged by
+   * the map in the directory.
+   */
+  private boolean pageMayMatch(int pageId, Predicate<ZoneMap> filter) {
+    latch.readLock().lock();
     try {
-      row = index.get(entry);
-    } catch (KeyNotExistException e) {
-      throw new KeyNotExistException(entry.toString());
+      Page page = pages.get(pageId);
+      if (page != null) {
+        page.getLatch().readLock().lock();
+        try {
+          if (pages.get(pageId) == page) return filter.test(page.getZones());
+        } finally {
+          page.getLatch().readLock().unlock();
+        }
+      }
+      ZoneMap zones = directory.getZones(pageId);
+      return zones == null || filter.test(zones);
+    } finally {
+      latch.readLock().unlock();
     }
+  }
 
-    int position = row.getPosition();
-    if (row instanceof EmptyRow) {
-      exchangePage(position, primaryKey);
-      row = index.get(entry);
-    }
+  /**
+   * Iterates the rows of a range through the index, reading each row at its row id. A row that
+   * moved since its key was read is looked up by the key. Rows are read whole.
+   */
+  @Override
+  public Iterator<Row> scan(boolean[] columns, Predicate<ZoneMap> pages, KeyRange keys) {
+    Iterator<Pair<Entry, Long>> iterator =
+        pages == null ? getIndexIter(keys) : getIndexIter(keys, pages);
+    return new Iterator<Row>() {
+      @Override
+      public boolean hasNext() {
+        return iterator.hasNext();
+      }
 
-    index.remove(entry);
-    Page newPage = pages.get(position);
-    newPage.removeEntry(entry, row.toString().length());
-    newPage.setLastVisit();
-    if (isTransaction) newPage.setPinned(true);
-    newPage.setEdit(true);
+      @Override
+      public Row next() {
+        Pair<Entry, Long> pair = iterator.next();
+        Row row = getRow(pair.right, true);
+        if (row != null && row.getEntry(primaryIndex).equals(pair.left)) return row;
+        return getRow(pair.left, primaryIndex, true);
+      }
+    };
   }
 
-  public void updateRow(
-      Entry primaryEntry, int primaryKey, int[] targetKeys, ArrayList<Entry> targetEntries) {
-    Row row;
+  /** Whether a primary key is in the index. */
+  public boolean containsKey(Entry key) {
+    latch.readLock().lock();
     try {
-      row = index.get(primaryEntry);
-    } catch (KeyNotExistException e) {
-      throw new KeyNotExistException(primaryEntry.toString());
+      return index.contains(key);
+    } finally {
+      latch.readLock().unlock();
     }
+  }
 
-    int position = row.getPosition();
-    if (row instanceof EmptyRow) {
-      exchangePage(position, primaryKey);
-      row = index.get(primaryEntry);
-    }
+  public void insertRow(ArrayList<Entry> entries, int primaryKey) {
+    insertRow(entries, primaryKey, false);
+  }
 
-    Entry updatedPrimaryEntry = null;
-    boolean primaryKeyChanged = false;
-    int originalLen = row.toString().length();
+  @Override
+  public boolean concurrentInserts() {
+    return true;
+  }
 
-    for (int i = 0; i < targetKeys.length; i++) {
-      int key = targetKeys[i];
-      Entry targetEntry = targetEntries.get(i);
+  /**
+   * Adds a row under the shared latch if a page has room for it, and otherwise under the exclusive
+   * latch, which adding or splitting a page needs.
+   */
+  public void insertRow(ArrayList<Entry> entries, int primaryKey, boolean isTransaction) {
+    Row row = codec.compact(entries);
+    int length = recordSize(row);
+    Entry primaryEntry = entries.get(primaryKey);
+    if (length > Page.CAPACITY) throw new RowSizeExceedException(length);
+    latch.readLock().lock();
+    try {
+      if (index.contains(primaryEntry)) throw new DuplicateKeyException(primaryEntry.toString());
+      if (placeShared(primaryEntry, row, length, isTransaction)) return;
+    } finally {
+      latch.readLock().unlock();
+    }
+    latch.writeLock().lock();
+    try {
+      if (index.contains(primaryEntry)) throw new DuplicateKeyException(primaryEntry.toString());
+      place(primaryEntry, row, length, isTransaction);
+    } finally {
+      latch.writeLock().unlock();
+    }
+  }
 
-      if (key == primaryKey) {
-        primaryKeyChanged = true;
-        updatedPrimaryEntry = targetEntry;
-        if (index.contains(updatedPrimaryEntry) && !primaryEntry.equals(updatedPrimaryEntry)) {
-          throw new DuplicateKeyException(updatedPrimaryEntry.toString());
+  /**
+   * Adds a row to an existing page that has room for it, holding the latch of the storage shared
+   * and the one of the page exclusively. The key is checked again when it goes into the index, and
+   * the row taken out again if another insert put it there first.
+   *
+   * @return false if no page has room, or the page the row belongs to in a clustered table is full
+   */
+  private boolean placeShared(Entry key, Row row, int length, boolean isTransaction) {
+    int pageId;
+    if (clustered) {
+      Long rowId = index.neighbor(key);
+      if (rowId == null) return false;
+      pageId = RowId.page(rowId);
+    } else {
+      pageId = directory.findFree(length, pageNum + 1);
+      if (pageId <= 0 || pageId > pageNum) return false;
+    }
+    Page page = pinPage(pageId, false);
+    try {
+      int slot;
+      page.getLatch().writeLock().lock();
+      try {
+        // another insert may have filled the page since the free space map was read
+        if (page.getSize() + length > Page.CAPACITY) return false;
+        slot = page.insertRow(row, length);
+        markDirty(page, isTransaction);
+      } finally {
+        page.getLatch().writeLock().unlock();
+      }
+      try {
+        index.put(key, RowId.of(pageId, slot));
+      } catch (DuplicateKeyException e) {
+        page.getLatch().writeLock().lock();
+        try {
+          page.removeRow(slot, length);
+          markDirty(page, isTransaction);
+        } finally {
+          page.getLatch().writeLock().unlock();
         }
+        throw new DuplicateKeyException(key.toString());
       }
-      row.getEntries().set(key, targetEntry);
+      return true;
+    } finally {
+      page.unpin();
     }
+  }
 
-    if (primaryKeyChanged) {
-      Page newPage = pages.get(position);
-      newPage.removeEntry(primaryEntry, originalLen);
-      newPage.insertEntry(updatedPrimaryEntry, row.toString().length());
-      index.remove(primaryEntry);
+  public void deleteRow(Entry entry, int primaryKey) {
+    deleteRow(entry, primaryKey, false);
+  }
+
+  public void deleteRow(Entry entry, int primaryKey, boolean isTransaction) {
+    latch.writeLock().lock();
+    try {
+      long rowId = lookup(entry);
+      index.remove(entry);
+
+      Page page = pinPage(RowId.page(rowId), false);
       try {
-        index.put(updatedPrimaryEntry, row);
-      } catch (DuplicateKeyException e) {
-        throw new DuplicateKeyException(updatedPrimaryEntry.toString());
+        Row row = page.getRow(RowId.slot(rowId));
+        if (row != null) page.removeRow(RowId.slot(rowId), recordSize(row));
+        markDirty(page, isTransaction);
+      } finally {
+        page.unpin();
       }
-      newPage.setLastVisit();
-      newPage.setEdit(true);
+    } finally {
+      latch.writeLock().unlock();
     }
   }
 
+  public void updateRow(
+      Entry primaryEntry, int primaryKey, int[] targetKeys, ArrayList<Entry> targetEntries) {
+    updateRow(primaryEntry, primaryKey, targetKeys, targetEntries, false);
+  }
+
   public void updateRow(
       Entry primaryEntry,
       int primaryKey,
       int[] targetKeys,
       ArrayList<Entry> targetEntries,
       boolean isTransaction) {
-    Row row;
+    latch.writeLock().lock();
     try {
-      row = index.get(primaryEntry);
-    } catch (KeyNotExistException e) {
-      throw new KeyNotExistException(primaryEntry.toString());
-    }
-
-    int position = row.getPosition();
-    if (row instanceof EmptyRow) {
-      exchangePage(position, primaryKey);
-      row = index.get(primaryEntry);
-    }
+      long rowId = lookup(primaryEntry);
 
-    Entry updatedPrimaryEntry = null;
-    boolean primaryKeyChanged = false;
-    int originalLen = row.toString().length();
+      Entry updatedPrimaryEntry = primaryEntry;
+      for (int i = 0; i < targetKeys.length; i++) {
+        if (targetKeys[i] == primaryKey) updatedPrimaryEntry = targetEntries.get(i);
+      }
+      boolean primaryKeyChanged = !primaryEntry.equals(updatedPrimaryEntry);
+      if (primaryKeyChanged && index.contains(updatedPrimaryEntry)) {
+        throw new DuplicateKeyException(updatedPrimaryEntry.toString());
+      }
 
-    for (int i = 0; i < targetKeys.length; i++) {
-      int key = targetKeys[i];
-      Entry targetEntry = targetEntries.get(i);
+      int slot = RowId.slot(rowId);
+      Row updatedRow;
+      int length;
+      Page page = pinPage(RowId.page(rowId), false);
+      try {
+        Row row = page.getRow(slot);
+        int originalLen = recordSize(row);
+        ArrayList<Entry> updatedEntries = new ArrayList<>(row.getEntries());
+        for (int i = 0; i < targetKeys.length; i++) {
+          updatedEntries.set(targetKeys[i], targetEntries.get(i));
+        }
+        updatedRow = codec.compact(updatedEntries);
+        length = recordSize(updatedRow);
+        if (length > Page.CAPACITY) throw new RowSizeExceedException(length);
 
-      if (key == primaryKey) {
-        primaryKeyChanged = true;
-        updatedPrimaryEntry = targetEntry;
-        if (index.contains(updatedPrimaryEntry) && !primaryEntry.equals(updatedPrimaryEntry)) {
-          throw new DuplicateKeyException(updatedPrimaryEntry.toString());
+        boolean fits = page.getSize() - originalLen + length <= Page.CAPACITY;
+        if (fits && !(clustered && primaryKeyChanged)) {
+          // the row stays in its slot, so the index only changes with the key
+          page.updateRow(slot, updatedRow, originalLen, length);
+          markDirty(page, isTransaction);
+          if (primaryKeyChanged) {
+            index.remove(primaryEntry);
+            index.put(updatedPrimaryEntry, rowId);
+          }
+          return;
         }
+        // the row has grown out of its page, or a clustered row is placed next to its new key
+        relocations++;
+        page.removeRow(slot, originalLen);
+        markDirty(page, isTransaction);
+      } finally {
+        page.unpin();
       }
-      row.getEntries().set(key, targetEntry);
-    }
-
-    if (primaryKeyChanged) {
-      Page newPage = pages.get(position);
-      newPage.removeEntry(primaryEntry, originalLen);
-      newPage.insertEntry(updatedPrimaryEntry, row.toString().length());
       index.remove(primaryEntry);
-      try {
-        index.put(updatedPrimaryEntry, row);
-      } catch (DuplicateKeyException e) {
-        throw new DuplicateKeyException(updatedPrimaryEntry.toString());
-      }
-      newPage.setLastVisit();
-      if (isTransaction) newPage.setPinned(true);
-      newPage.setEdit(true);
+      place(updatedPrimaryEntry, updatedRow, length, isTransaction);
+    } finally {
+      latch.writeLock().unlock();
     }
   }
 
   public Row getRow(Entry entry, int primaryKey) {
-    Row row;
+    return getRow(entry, primaryKey, false);
+  }
+
+  /**
+   * Returns the row of a primary key, loading its page if needed.
+   *
+   * @param isScan whether the access is part of a sequential scan, which the buffer pool keeps from
+   *     displacing frequently used pages
+   */
+  public Row getRow(Entry entry, int primaryKey, boolean isScan) {
+    latch.readLock().lock();
     try {
-      row = index.get(entry);
-    } catch (KeyNotExistException e) {
-      throw new KeyNotExistException(entry.toString());
+      return readRow(lookup(entry), isScan);
+    } finally {
+      latch.readLock().unlock();
+    }
+  }
+
+  /**
+   * Returns the row at a row id taken from the index, without searching the index again.
+   *
+   * @return the row, or null if the slot is empty
+   */
+  public Row getRow(long rowId, boolean isScan) {
+    latch.readLock().lock();
+    try {
+      if (RowId.page(rowId) > pageNum) return null;
+      return readRow(rowId, isScan);
+    } finally {
+      latch.readLock().unlock();
     }
+  }
 
-    if (row instanceof EmptyRow) {
-      int position = row.getPosition();
-      exchangePage(position, primaryKey);
-      return index.get(entry);
-    } else {
-      pages.get(row.getPosition()).setLastVisit();
-      return row;
+  private Row readRow(long rowId, boolean isScan) {
+    Page page = pinPage(RowId.page(rowId), isScan);
+    page.getLatch().readLock().lock();
+    try {
+      return page.getRow(RowId.slot(rowId));
+    } finally {
+      page.getLatch().readLock().unlock();
+      page.unpin();
     }
   }
 
+  /** Writes the dirty cached pages, then the page directory and the index if they changed. */
   public void persist() {
-    for (Page page : pages.values()) {
-      ArrayList<Row> rows = new ArrayList<>();
-      for (Entry entry : page.getEntries()) {
-        rows.add(index.get(entry));
+    latch.writeLock().lock();
+    try {
+      for (Page page : pages.values()) {
+        if (page.getEdit()) writePage(page);
       }
+      directory.save(pageNum);
+      indexStore.save();
+    } finally {
+      latch.writeLock().unlock();
+    }
+    compressCold();
+  }
 
-      try {
-        serialize(rows, DATA_DIRECTORY + page.getPageFile());
-      } catch (IOException e) {
-        return;
+  /**
+   * Moves the pages of a compressed table that have not been read for {@code COLD_PAGE_AGE} ms to
+   * the cold tier. Readers keep running; the tablespace rewrites one page at a time.
+   */
+  private void compressCold() {
+    latch.readLock().lock();
+    try {
+      space.compressCold(COLD_PAGE_AGE);
+    } finally {
+      latch.readLock().unlock();
+    }
+  }
+
+  /**
+   * Compacts the table: rows of the last pages move into free space of earlier pages for as long as
+   * they fit, and the pages this leaves empty at the end are cut off the tablespace. The moved rows
+   * are written to their new pages before the old page can be written, and the whole table is
+   * persisted at the end. A clustered table is rewritten in key order instead.
+   *
+   * @return the number of pages removed
+   */
+  public int vacuum() {
+    latch.writeLock().lock();
+    try {
+      if (clustered) return cluster();
+      TreeSet<Integer> targets = new TreeSet<>();
+      boolean full = false;
+      for (int source = pageNum; source > 1 && !full; source--) {
+        // the source is kept from being written until its rows are on disk in their new pages
+        Page sourcePage = pinPage(source, true);
+        boolean pinned = sourcePage.getPinned();
+        sourcePage.setPinned(true);
+        for (int slot = 0; slot < sourcePage.getSlotCount(); slot++) {
+          Row row = sourcePage.getRow(slot);
+          if (row == null) continue;
+          int length = recordSize(row);
+          int target = directory.findFree(length, source);
+          if (target == 0) {
+            full = true;
+            break;
+          }
+          relocations++;
+          Page page = pinPage(target, false);
+          int targetSlot = page.insertRow(row, length);
+          markDirty(page, false);
+          page.unpin();
+          index.update(keyOf(row), RowId.of(target, targetSlot));
+          sourcePage.removeRow(slot, length);
+          markDirty(sourcePage, false);
+          targets.add(target);
+        }
+        for (int pageId : targets) {
+          Page page = pages.get(pageId);
+          if (page != null && page.getEdit()) writePage(page);
+        }
+        targets.clear();
+        sourcePage.setPinned(pinned);
+        sourcePage.unpin();
+      }
+
+      int removed = 0;
+      while (pageNum > 0) {
+        Page page = pinPage(pageNum, true);
+        page.unpin();
+        if (page.getSize() > 0) break;
+        pages.remove(pageNum);
+        pool.release(page);
+        if (page.getEdit()) pool.pageCleaned();
+        pageNum--;
+        removed++;
       }
+      directory.markUnclean();
+      directory.truncate(pageNum);
+      space.truncate(pageNum);
+      persist();
+      return removed;
+    } finally {
+      latch.writeLock().unlock();
     }
   }
 
-  public void dropSelf() {
+  /**
+   * Writes the rows of a clustered table in primary key order into a new file, filling each page up
+   * to {@link #CLUSTER_FILL}, moves the file over the tablespace and points the index at the new
+   * pages. A crash before the move leaves the old file; a crash after it leaves an unclean index
+   * that is rebuilt from the new file.
+   *
+   * @return the number of pages removed
+   */
+  private int cluster() {
+    File stale = new File(space.getFileName() + ".tmp");
+    if (stale.isFile() && !stale.delete()) throw new IOFileException(stale.getName());
+    TableSpace fresh = openSpace(stale.getPath());
+    ArrayList<Integer> counts = new ArrayList<>();
+    ArrayList<Integer> sizes = new ArrayList<>();
+    ArrayList<ZoneMap> zones = new ArrayList<>();
+    ArrayList<Row> batch = new ArrayList<>();
+    int size = 0;
+    Iterator<Pair<Entry, Long>> iterator = index.iterator();
+    while (iterator.hasNext()) {
+      Row row = readRow(iterator.next().right, true);
+      int length = recordSize(row);
+      if (!batch.isEmpty() && size + length > CLUSTER_FILL) {
+        fresh.writePage(counts.size() + 1, codec.encodePage(batch));
+        counts.add(batch.size());
+        sizes.add(size);
+        zones.add(zonesOf(batch));
+        batch.clear();
+        size = 0;
+      }
+      batch.add(row);
+      size += length;
+    }
+    if (!batch.isEmpty()) {
+      fresh.writePage(counts.size() + 1, codec.encodePage(batch));
+      counts.add(batch.size());
+      sizes.add(size);
+      zones.add(zonesOf(batch));
+    }
+
+    // every row is in the new file, so the cached pages can be dropped unwritten
     for (Page page : pages.values()) {
-      page.getEntries().clear();
+      pool.release(page);
+      if (page.getEdit()) pool.pageCleaned();
     }
     pages.clear();
-    index = null;
+    int removed = pageNum - counts.size();
+    relocations++;
+    directory.markUnclean();
+    space.replaceWith(fresh);
+    pageNum = counts.size();
+
+    directory.truncate(0);
+    iterator = index.iterator();
+    for (int i = 0; i < counts.size(); i++) {
+      Entry min = null;
+      Entry max = null;
+      for (int j = 0; j < counts.get(i); j++) {
+        max = iterator.next().left;
+        if (min == null) min = max;
+        index.update(max, RowId.of(i + 1, j));
+      }
+      directory.setRange(i + 1, min, max);
+      directory.setZones(i + 1, zones.get(i));
+      directory.setFree(i + 1, Page.CAPACITY - sizes.get(i));
+    }
+    persist();
+    return removed;
+  }
+
+  private ZoneMap zonesOf(List<Row> rows) {
+    ZoneMap zones = new ZoneMap(codec.getTypes());
+    for (Row row : rows) zones.add(row);
+    return zones;
+  }
+
+  public void dropSelf() {
+    latch.writeLock().lock();
+    try {
+      for (Page page : pages.values()) {
+        pool.release(page);
+        if (page.getEdit()) pool.pageCleaned();
+      }
+      pages.clear();
+      index = null;
+      indexStore.drop();
+      space.drop();
+      directory.drop();
+      dictionaries.drop();
+    } finally {
+      latch.writeLock().unlock();
+    }
+  }
+
+  /** Takes the cached pages that are not in use out of memory, writing back the dirty ones. */
+  void evictAll() {
+    for (Page page : pages.values()) {
+      if (evict(page)) pool.release(page);
+    }
   }
 
   public void unpin() {
-    for (Page page : pages.values()) page.setPinned(false);
+    latch.writeLock().lock();
+    try {
+      for (Page page : pages.values()) page.setPinned(false);
+    } finally {
+      latch.writeLock().unlock();
+    }
+  }
+
+  /** Size of a row inside a page: its encoded bytes plus its slot. */
+  private int recordSize(Row row) {
+    return codec.rowSize(row) + Page.SLOT_SIZE;
+  }
+
+  private Entry keyOf(Row row) {
+    return row.getEntry(primaryIndex);
+  }
+
+  private long lookup(Entry key) {
+    try {
+      return index.get(key);
+    } catch (KeyNotExistException e) {
+      throw new KeyNotExistException(key.toString());
+    }
+  }
+
+  /** Adds a row whose key is not in the index yet. */
+  private void place(Entry key, Row row, int length, boolean isTransaction) {
+    int pageId = clustered ? pageInOrder(key, length) : pageWithSpace(length);
+    Page page = pageId > pageNum ? addPage() : pinPage(pageId, false);
+    int slot;
+    try {
+      slot = page.insertRow(row, length);
+      markDirty(page, isTransaction);
+    } finally {
+      page.unpin();
+    }
+    index.put(key, RowId.of(pageId, slot));
+  }
+
+  /**
+   * Returns the page of a key next to the given one, splitting it until the record fits. An empty
+   * table falls back to the free space map.
+   */
+  private int pageInOrder(Entry key, int length) {
+    Long rowId = index.neighbor(key);
+    if (rowId == null) return pageWithSpace(length);
+    int pageId = RowId.page(rowId);
+    while (true) {
+      Page page = pinPage(pageId, false);
+      int size = page.getSize();
+      page.unpin();
+      if (size + length <= Page.CAPACITY) return pageId;
+      pageId = splitPage(pageId, key);
+    }
+  }
+
+  /**
+   * Moves the upper half of the keys of a page to a new page. The old page stays pinned until the
+   * new one is on disk, so a crash cannot lose the moved rows.
+   *
+   * @return the half the key belongs to
+   */
+  private int splitPage(int pageId, Entry key) {
+    Page page = pinPage(pageId, false);
+    try {
+      ArrayList<Integer> slots = new ArrayList<>();
+      ArrayList<Entry> keys = new ArrayList<>();
+      for (int slot = 0; slot < page.getSlotCount(); slot++) {
+        Entry entry = page.getEntry(slot, primaryIndex);
+        keys.add(entry);
+        if (entry != null) slots.add(slot);
+      }
+      if (slots.size() < 2) {
+        Page newPage = addPage();
+        newPage.unpin();
+        return newPage.getId();
+      }
+      slots.sort(Comparator.comparing(keys::get));
+      Entry middle = keys.get(slots.get(slots.size() / 2));
+      ArrayList<Row> moved = new ArrayList<>();
+      relocations++;
+      boolean pinned = page.getPinned();
+      page.setPinned(true);
+      for (int slot : slots.subList(slots.size() / 2, slots.size())) {
+        Row row = page.getRow(slot);
+        page.removeRow(slot, recordSize(row));
+        moved.add(row);
+      }
+      markDirty(page, false);
+
+      Page newPage = addPage();
+      int newPageId = newPage.getId();
+      int[] newSlots = new int[moved.size()];
+      try {
+        for (int i = 0; i < moved.size(); i++) {
+          newSlots[i] = newPage.insertRow(moved.get(i), recordSize(moved.get(i)));
+        }
+        markDirty(newPage, false);
+        writePage(newPage);
+      } finally {
+        newPage.unpin();
+      }
+      for (int i = 0; i < moved.size(); i++) {
+        index.update(keyOf(moved.get(i)), RowId.of(newPageId, newSlots[i]));
+      }
+      page.setPinned(pinned);
+      return key.compareTo(middle) < 0 ? pageId : newPageId;
+    } finally {
+      page.unpin();
+    }
+  }
+
+  /**
+   * Returns the first page the free space map knows to have room for the record, otherwise the id
+   * of a page to be added.
+   */
+  private int pageWithSpace(int length) {
+    int pageId = directory.findFree(length, pageNum + 1);
+    return pageId > 0 ? pageId : pageNum + 1;
   }
 }
@@ -0,0 +1,68 @@
+package cn.edu.thssdb.storage;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The distinct values of one STRING column, numbered in the order they were first stored. A page
+ * stores the code of a value instead of its bytes, and a decoded row holds the code next to the one
+ * String instance of the dictionary.
+ *
+ * <p>Values are only added while the dictionary has room; once it is full, new values are stored as
+ * they are. Codes never change, so two coded values of the same dictionary are equal exactly when
+ * their codes are. Values are added one at a time by the inserts of the table, while readers look
+ * them up concurrently.
+ */
+public class StringDictionary {
+  // codes are stored in the 15 low bits of the length of a string
+  public static final int MAX_SIZE = 0x8000;
+
+  private final DictionaryStore store;
+  private final int column;
+  private final String[] values;
+  private final ConcurrentHashMap<String, Integer> codes = new ConcurrentHashMap<>();
+  private volatile int size;
+
+  /**
+   * @param loaded the values read back from the dictionary file, which are kept even if there are
+   *     more than {@code limit}
+   */
+  StringDictionary(DictionaryStore store, int column, List<String> loaded, int limit) {
+    this.store = store;
+    this.column = column;
+    this.values = new String[Math.min(Math.max(limit, loaded.size()), MAX_SIZE)];
+    for (String value : loaded) {
+      values[size] = value;
+      codes.put(value, size);
+      size++;
+    }
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /** Code of a value, or -1 if the value is not in the dictionary. */
+  public int codeOf(String value) {
+    Integer code = codes.get(value);
+    return code == null ? -1 : code;
+  }
+
+  public String valueOf(int code) {
+    return values[code];
+  }
+
+  /**
+   * Returns the code of a value, adding the value to the dictionary and its file if it is new.
+   *
+   * @return the code, or -1 if the value is new and the dictionary is full
+   */
+  public synchronized int encode(String value) {
+    int code = codeOf(value);
+    if (code >= 0 || size == values.length) return code;
+    store.append(column, value);
+    values[size] = value;
+    codes.put(value, size);
+    return size++;
+  }
+}
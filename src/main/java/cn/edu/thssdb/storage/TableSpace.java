@@ -0,0 +1,239 @@
+package cn.edu.thssdb.storage;
+
+import cn.edu.thssdb.exception.IOFileException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import static cn.edu.thssdb.utils.Global.DATA_DIRECTORY;
+import static cn.edu.thssdb.utils.Global.PAGE_MMAP_ENABLED;
+
+/**
+ * A single file holding every page of one table.
+ *
+ * <p>Page 0 is the header: magic, format version, page size and the number of data pages. Data
+ * pages are numbered from 1 and page {@code id} lives at offset {@code id * PAGE_SIZE}, so the
+ * header is all the directory needed to address a page.
+ *
+ * <p>With {@code PAGE_MMAP_ENABLED} reads go through read-only mappings of the file, one per {@link
+ * #MAP_CHUNK_SIZE} bytes, and the returned buffer is a view of the mapping, so decoding a page
+ * reads straight from the page cache. A chunk that was mapped before the file grew is mapped again
+ * on demand. If mapping fails the space falls back to plain channel reads.
+ *
+ * <p>Plain reads of different pages run in parallel; writes and changes to the mappings are
+ * synchronized.
+ */
+public class TableSpace {
+  private static final int MAGIC = 0x54535031; // "TSP1"
+  private static final int VERSION = 1;
+  static final int MAP_CHUNK_SIZE = 1 << 26; // a multiple of PAGE_SIZE, so no page spans chunks
+
+  protected final String fileName;
+  private final int magic;
+  protected FileChannel channel;
+  protected volatile int pageCount;
+  private volatile boolean mapped = PAGE_MMAP_ENABLED;
+  private MappedByteBuffer[] chunks = new MappedByteBuffer[0];
+
+  public TableSpace(String databaseName, String tableName) {
+    this(DATA_DIRECTORY + "space#_#" + databaseName + "#_#" + tableName + ".data");
+  }
+
+  /** Opens a paged file with the same layout under another name. */
+  public TableSpace(String fileName) {
+    this(fileName, MAGIC);
+  }
+
+  /** Opens a file that starts with the same header but is laid out by a subclass. */
+  protected TableSpace(String fileName, int magic) {
+    this.fileName = fileName;
+    this.magic = magic;
+    try {
+      channel =
+          FileChannel.open(
+              new File(fileName).toPath(),
+              StandardOpenOption.CREATE,
+              StandardOpenOption.READ,
+              StandardOpenOption.WRITE);
+      if (channel.size() == 0) {
+        pageCount = 0;
+        writeHeader();
+      } else {
+        readHeader();
+      }
+    } catch (IOException e) {
+      throw new IOFileException(fileName);
+    }
+  }
+
+  public int getPageCount() {
+    return pageCount;
+  }
+
+  public String getFileName() {
+    return fileName;
+  }
+
+  /**
+   * Reads a data page. The returned buffer is positioned at the start of the page; it is either a
+   * fresh heap buffer or a read-only view of the mapped file.
+   */
+  public ByteBuffer readPage(int pageId) {
+    if (pageId < 1 || pageId > pageCount) throw new IOFileException(fileName + "#" + pageId);
+    long offset = (long) pageId * Page.PAGE_SIZE;
+    if (mapped) {
+      synchronized (this) {
+        try {
+          if (mapped) return mappedPage(offset);
+        } catch (IOException | UnsupportedOperationException e) {
+          System.err.println("Warning: Failed to map " + fileName + ", falling back to reads");
+          mapped = false;
+          chunks = new MappedByteBuffer[0];
+        }
+      }
+    }
+    return readPage(offset);
+  }
+
+  private ByteBuffer readPage(long offset) {
+    ByteBuffer buffer = ByteBuffer.allocate(Page.PAGE_SIZE);
+    try {
+      while (buffer.hasRemaining()) {
+        if (channel.read(buffer, offset + buffer.position()) < 0) break;
+      }
+    } catch (IOException e) {
+      throw new IOFileException(fileName);
+    }
+    buffer.clear();
+    return buffer;
+  }
+
+  /** Writes a data page, growing the file when the page is past its end. */
+  public synchronized void writePage(int pageId, ByteBuffer image) {
+    if (pageId < 1) throw new IOFileException(fileName + "#" + pageId);
+    try {
+      ByteBuffer buffer = image.duplicate();
+      buffer.clear();
+      long offset = (long) pageId * Page.PAGE_SIZE;
+      while (buffer.hasRemaining()) {
+        channel.write(buffer, offset + buffer.position());
+      }
+      if (pageId > pageCount) {
+        pageCount = pageId;
+        writeHeader();
+      }
+    } catch (IOException e) {
+      throw new IOFileException(fileName);
+    }
+  }
+
+  /** Cuts the file after its first {@code pageCount} data pages. */
+  public synchronized void truncate(int pageCount) {
+    if (pageCount >= this.pageCount) return;
+    chunks = new MappedByteBuffer[0];
+    try {
+      this.pageCount = pageCount;
+      writeHeader();
+      channel.truncate((long) (pageCount + 1) * Page.PAGE_SIZE);
+    } catch (IOException e) {
+      throw new IOFileException(fileName);
+    }
+  }
+
+  private ByteBuffer mappedPage(long offset) throws IOException {
+    int index = (int) (offset / MAP_CHUNK_SIZE);
+    int start = (int) (offset % MAP_CHUNK_SIZE);
+    if (index >= chunks.length) {
+      MappedByteBuffer[] grown = new MappedByteBuffer[index + 1];
+      System.arraycopy(chunks, 0, grown, 0, chunks.length);
+      chunks = grown;
+    }
+    MappedByteBuffer chunk = chunks[index];
+    if (chunk == null || chunk.capacity() < start + Page.PAGE_SIZE) {
+      long chunkOffset = (long) index * MAP_CHUNK_SIZE;
+      long size = Math.min(MAP_CHUNK_SIZE, channel.size() - chunkOffset);
+      if (size < start + Page.PAGE_SIZE) return readPage(offset); // page not yet fully on disk
+      chunk = channel.map(FileChannel.MapMode.READ_ONLY, chunkOffset, size);
+      chunks[index] = chunk;
+    }
+    ByteBuffer view = chunk.duplicate();
+    view.position(start);
+    view.limit(start + Page.PAGE_SIZE);
+    return view;
+  }
+
+  public synchronized void close() {
+    chunks = new MappedByteBuffer[0];
+    try {
+      channel.close();
+    } catch (IOException e) {
+      throw new IOFileException(fileName);
+    }
+  }
+
+  /**
+   * Replaces this file by the file of another space, which is moved over it. Both spaces are closed
+   * first and this one is opened again on the new file.
+   */
+  public synchronized void replaceWith(TableSpace other) {
+    close();
+    other.close();
+    try {
+      Files.move(
+          new File(other.fileName).toPath(),
+          new File(fileName).toPath(),
+          StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+      channel =
+          FileChannel.open(
+              new File(fileName).toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+      readHeader();
+    } catch (IOException e) {
+      throw new IOFileException(fileName);
+    }
+  }
+
+  /**
+   * Moves the pages that have not been read for {@code idleMillis} to a smaller representation. A
+   * plain space keeps its pages as they are.
+   *
+   * @return the number of pages moved
+   */
+  public int compressCold(long idleMillis) {
+    return 0;
+  }
+
+  /** Closes the file and deletes it. */
+  public synchronized void drop() {
+    close();
+    File file = new File(fileName);
+    if (file.isFile() && !file.delete()) {
+      System.err.println("Warning: Failed to delete file " + file.getName());
+    }
+  }
+
+  protected void writeHeader() throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(16);
+    header.putInt(magic).putInt(VERSION).putInt(Page.PAGE_SIZE).putInt(pageCount);
+    header.flip();
+    while (header.hasRemaining()) channel.write(header, header.position());
+  }
+
+  private void readHeader() throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(16);
+    while (header.hasRemaining()) {
+      if (channel.read(header, header.position()) < 0) break;
+    }
+    header.flip();
+    if (header.remaining() < 16 || header.getInt() != magic) throw new IOFileException(fileName);
+    header.getInt(); // version
+    if (header.getInt() != Page.PAGE_SIZE) throw new IOFileException(fileName);
+    pageCount = header.getInt();
+  }
+}
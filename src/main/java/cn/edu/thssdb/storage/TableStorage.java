@@ -0,0 +1,159 @@
+package cn.edu.thssdb.storage;
+
+import cn.edu.thssdb.schema.Entry;
+import cn.edu.thssdb.schema.Row;
+import cn.edu.thssdb.utils.Pair;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.Predicate;
+
+/**
+ * The rows of one table on disk, as a {@link cn.edu.thssdb.schema.Table} uses them. {@link Storage}
+ * keeps them in pages under a primary index, {@link LsmStorage} in a memtable and sorted runs.
+ *
+ * <p>The table serializes the changes and keeps readers out while a row changes; a storage only has
+ * to guard against its own background work. A storage that reports {@link #concurrentInserts} is
+ * given its inserts in parallel with each other and with reads instead.
+ */
+public interface TableStorage {
+  /**
+   * Opens the files of the table.
+   *
+   * @param primaryKey index of the primary column
+   */
+  void recover(int primaryKey);
+
+  /** Whether inserts may be called from several threads at once, and while other threads read. */
+  default boolean concurrentInserts() {
+    return false;
+  }
+
+  default void insertRow(ArrayList<Entry> entries, int primaryKey) {
+    insertRow(entries, primaryKey, false);
+  }
+
+  /**
+   * Adds a row.
+   *
+   * @param isTransaction whether the change belongs to a transaction, which keeps it from reaching
+   *     disk before {@link #unpin} except at a checkpoint
+   * @throws cn.edu.thssdb.exception.DuplicateKeyException if the key is taken
+   */
+  void insertRow(ArrayList<Entry> entries, int primaryKey, boolean isTransaction);
+
+  default void deleteRow(Entry entry, int primaryKey) {
+    deleteRow(entry, primaryKey, false);
+  }
+
+  /**
+   * @throws cn.edu.thssdb.exception.KeyNotExistException if there is no row with the key
+   */
+  void deleteRow(Entry entry, int primaryKey, boolean isTransaction);
+
+  default void updateRow(
+      Entry primaryEntry, int primaryKey, int[] targetKeys, ArrayList<Entry> targetEntries) {
+    updateRow(primaryEntry, primaryKey, targetKeys, targetEntries, false);
+  }
+
+  /**
+   * Sets the columns {@code targetKeys} of a row to {@code targetEntries}.
+   *
+   * @throws cn.edu.thssdb.exception.KeyNotExistException if there is no row with the key
+   * @throws cn.edu.thssdb.exception.DuplicateKeyException if the new key is taken
+   */
+  void updateRow(
+      Entry primaryEntry,
+      int primaryKey,
+      int[] targetKeys,
+      ArrayList<Entry> targetEntries,
+      boolean isTransaction);
+
+  /**
+   * Returns the row of a primary key.
+   *
+   * @param isScan whether the read is part of a sequential scan
+   * @throws cn.edu.thssdb.exception.KeyNotExistException if there is no row with the key
+   */
+  Row getRow(Entry entry, int primaryKey, boolean isScan);
+
+  /**
+   * Iterates the primary keys in order. The value of a key tells {@link #getRow(long, boolean)}
+   * where its row is. The iterator may hand out the same pair on every call, refilled.
+   */
+  Iterator<Pair<Entry, Long>> getIndexIter();
+
+  /**
+   * Iterates the primary keys of a range in order like {@link #getIndexIter()}. By default the keys
+   * below the range are read and skipped.
+   */
+  default Iterator<Pair<Entry, Long>> getIndexIter(KeyRange range) {
+    Iterator<Pair<Entry, Long>> iterator = getIndexIter();
+    return new Iterator<Pair<Entry, Long>>() {
+      private Pair<Entry, Long> next;
+      private boolean ended;
+
+      @Override
+      public boolean hasNext() {
+        while (next == null && !ended && iterator.hasNext()) {
+          Pair<Entry, Long> pair = iterator.next();
+          if (!range.beforeEnd(pair.left)) ended = true;
+          else if (range.afterStart(pair.left)) next = pair;
+        }
+        return next != null;
+      }
+
+      @Override
+      public Pair<Entry, Long> next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        Pair<Entry, Long> pair = next;
+        next = null;
+        return pair;
+      }
+    };
+  }
+
+  /**
+   * Iterates the primary keys of a range in order like {@link #getIndexIter(KeyRange)}, but may
+   * leave out the keys of rows kept in pages whose {@link ZoneMap} the filter rejects. By default
+   * nothing is left out.
+   */
+  default Iterator<Pair<Entry, Long>> getIndexIter(KeyRange range, Predicate<ZoneMap> filter) {
+    return getIndexIter(range);
+  }
+
+  /**
+   * Returns the row at a value taken from {@link #getIndexIter}, without searching for its key.
+   *
+   * @return the row, or null if it is no longer there or the storage cannot find rows this way
+   */
+  Row getRow(long rowId, boolean isScan);
+
+  /**
+   * Iterates the rows of a range of primary keys in key order. A storage that can read fewer
+   * columns or leave out pages by their zone maps does so; the others ignore those arguments.
+   *
+   * @param columns whether each column is read, or null to read them all; the columns not read may
+   *     be null in the rows
+   * @param pages whether a page may hold a row the caller wants, or null to read every page
+   * @param keys the range of the rows read
+   */
+  Iterator<Row> scan(boolean[] columns, Predicate<ZoneMap> pages, KeyRange keys);
+
+  /** Writes every change to disk. */
+  void persist();
+
+  /**
+   * Gives space taken by deleted rows back to the file system.
+   *
+   * @return the number of pages or files removed
+   */
+  int vacuum();
+
+  /** Deletes the files of the table. */
+  void dropSelf();
+
+  /** Lets the changes of the transactions that ended reach disk. */
+  void unpin();
+}
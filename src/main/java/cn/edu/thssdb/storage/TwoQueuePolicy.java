@@ -0,0 +1,73 @@
+package cn.edu.thssdb.storage;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Simplified 2Q. A page enters the probation queue, a FIFO, and is only promoted to the protected
+ * queue, an LRU list, when it is accessed again by something other than a scan. Pages are evicted
+ * from probation while it holds more than a quarter of the pool, so a large scan recycles its own
+ * frames and leaves the protected working set alone.
+ */
+public class TwoQueuePolicy implements ReplacementPolicy {
+  private final int probationLimit;
+  private final LinkedHashSet<Page> probation = new LinkedHashSet<>();
+  private final LinkedHashSet<Page> protectedPages = new LinkedHashSet<>();
+
+  public TwoQueuePolicy(int capacity) {
+    this.probationLimit = Math.max(1, capacity / 4);
+  }
+
+  @Override
+  public void admit(Page page, boolean isScan) {
+    probation.add(page);
+  }
+
+  @Override
+  public void access(Page page, boolean isScan) {
+    // a scan neither promotes a page nor refreshes the recency of a hot one
+    if (isScan) return;
+    if (protectedPages.remove(page) || probation.remove(page)) protectedPages.add(page);
+  }
+
+  @Override
+  public void remove(Page page) {
+    if (!probation.remove(page)) protectedPages.remove(page);
+  }
+
+  @Override
+  public Iterator<Page> victims() {
+    boolean probationFirst = probation.size() > probationLimit || protectedPages.isEmpty();
+    Iterator<Page> first = (probationFirst ? probation : protectedPages).iterator();
+    Iterator<Page> second = (probationFirst ? protectedPages : probation).iterator();
+    return new Iterator<Page>() {
+      @Override
+      public boolean hasNext() {
+        return first.hasNext() || second.hasNext();
+      }
+
+      @Override
+      public Page next() {
+        if (first.hasNext()) return first.next();
+        if (second.hasNext()) return second.next();
+        throw new NoSuchElementException();
+      }
+    };
+  }
+
+  @Override
+  public List<Page> coldest(int count) {
+    ArrayList<Page> pages = new ArrayList<>();
+    Iterator<Page> victims = victims();
+    while (victims.hasNext() && pages.size() < count) pages.add(victims.next());
+    return pages;
+  }
+
+  @Override
+  public int size() {
+    return probation.size() + protectedPages.size();
+  }
+}
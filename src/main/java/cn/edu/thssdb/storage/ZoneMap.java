@@ -0,0 +1,156 @@
+package cn.edu.thssdb.storage;
+
+import cn.edu.thssdb.schema.Row;
+import cn.edu.thssdb.type.ColumnType;
+import cn.edu.thssdb.type.ConditionType;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * The smallest and largest value and the number of nulls of every column of the rows of one page,
+ * so that a scan can tell that a page holds no row a condition selects without reading it.
+ *
+ * <p>Numbers are kept as doubles, the way conditions compare them. A row that leaves the page only
+ * takes back its share of the counts: the bounds stay where they are until the map is rebuilt from
+ * the rows, so they always cover the rows of the page.
+ */
+public class ZoneMap {
+  private final ColumnType[] types;
+  private int rows;
+  private final int[] nulls;
+  private final double[] minNumbers;
+  private final double[] maxNumbers;
+  private final String[] minStrings;
+  private final String[] maxStrings;
+
+  /** Creates the map of an empty page. */
+  public ZoneMap(ColumnType[] types) {
+    this.types = types;
+    this.nulls = new int[types.length];
+    this.minNumbers = new double[types.length];
+    this.maxNumbers = new double[types.length];
+    this.minStrings = new String[types.length];
+    this.maxStrings = new String[types.length];
+    for (int i = 0; i < types.length; i++) {
+      minNumbers[i] = Double.POSITIVE_INFINITY;
+      maxNumbers[i] = Double.NEGATIVE_INFINITY;
+    }
+  }
+
+  public ZoneMap copy() {
+    ZoneMap copy = new ZoneMap(types);
+    copy.rows = rows;
+    System.arraycopy(nulls, 0, copy.nulls, 0, nulls.length);
+    System.arraycopy(minNumbers, 0, copy.minNumbers, 0, nulls.length);
+    System.arraycopy(maxNumbers, 0, copy.maxNumbers, 0, nulls.length);
+    System.arraycopy(minStrings, 0, copy.minStrings, 0, nulls.length);
+    System.arraycopy(maxStrings, 0, copy.maxStrings, 0, nulls.length);
+    return copy;
+  }
+
+  public int getRows() {
+    return rows;
+  }
+
+  public int getNulls(int column) {
+    return nulls[column];
+  }
+
+  public void add(Row row) {
+    rows++;
+    for (int i = 0; i < types.length; i++) {
+      if (row.isNull(i)) {
+        nulls[i]++;
+      } else if (types[i] == ColumnType.STRING) {
+        String value = row.getString(i);
+        if (minStrings[i] == null || value.compareTo(minStrings[i]) < 0) minStrings[i] = value;
+        if (maxStrings[i] == null || value.compareTo(maxStrings[i]) > 0) maxStrings[i] = value;
+      } else {
+        double value = row.getDouble(i);
+        if (value < minNumbers[i]) minNumbers[i] = value;
+        if (value > maxNumbers[i]) maxNumbers[i] = value;
+      }
+    }
+  }
+
+  public void remove(Row row) {
+    rows--;
+    for (int i = 0; i < types.length; i++) {
+      if (row.isNull(i)) nulls[i]--;
+    }
+  }
+
+  /**
+   * Whether a row of the page may satisfy {@code column type value} for a numeric column. A column
+   * that only holds nulls satisfies no condition.
+   */
+  public boolean mayMatch(int column, ConditionType type, double value) {
+    if (rows - nulls[column] <= 0) return false;
+    return mayMatch(
+        type, Double.compare(minNumbers[column], value), Double.compare(maxNumbers[column], value));
+  }
+
+  /** Whether a row of the page may satisfy {@code column type value} for a STRING column. */
+  public boolean mayMatch(int column, ConditionType type, String value) {
+    if (rows - nulls[column] <= 0) return false;
+    return mayMatch(type, minStrings[column].compareTo(value), maxStrings[column].compareTo(value));
+  }
+
+  /**
+   * @param min the comparison of the smallest value with the constant
+   * @param max the comparison of the largest value with the constant
+   */
+  private static boolean mayMatch(ConditionType type, int min, int max) {
+    switch (type) {
+      case EQ:
+        return min <= 0 && max >= 0;
+      case NE:
+        return min != 0 || max != 0;
+      case GT:
+        return max > 0;
+      case GE:
+        return max >= 0;
+      case LT:
+        return min < 0;
+      case LE:
+        return min <= 0;
+      default:
+        return true;
+    }
+  }
+
+  public void write(DataOutputStream output) throws IOException {
+    output.writeInt(rows);
+    for (int i = 0; i < types.length; i++) {
+      output.writeInt(nulls[i]);
+      if (types[i] != ColumnType.STRING) {
+        output.writeDouble(minNumbers[i]);
+        output.writeDouble(maxNumbers[i]);
+      } else {
+        output.writeBoolean(minStrings[i] != null);
+        if (minStrings[i] != null) {
+          output.writeUTF(minStrings[i]);
+          output.writeUTF(maxStrings[i]);
+        }
+      }
+    }
+  }
+
+  public static ZoneMap read(DataInputStream input, ColumnType[] types) throws IOException {
+    ZoneMap zones = new ZoneMap(types);
+    zones.rows = input.readInt();
+    for (int i = 0; i < types.length; i++) {
+      zones.nulls[i] = input.readInt();
+      if (types[i] != ColumnType.STRING) {
+        zones.minNumbers[i] = input.readDouble();
+        zones.maxNumbers[i] = input.readDouble();
+      } else if (input.readBoolean()) {
+        zones.minStrings[i] = input.readUTF();
+        zones.maxStrings[i] = input.readUTF();
+      }
+    }
+    return zones;
+  }
+}
@@ -0,0 +1,6 @@
+package cn.edu.thssdb.type;
+
+public enum CompressionType {
+  NONE, // pages are stored as they are in memory
+  DEFLATE // pages are deflated on write, rarely read pages at the strongest level
+}
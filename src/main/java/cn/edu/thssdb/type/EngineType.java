@@ -0,0 +1,8 @@
+package cn.edu.thssdb.type;
+
+public enum EngineType {
+  HEAP, // rows stay in the page they were inserted into
+  CLUSTERED, // pages hold contiguous ranges of the primary key
+  COLUMNAR, // every column is stored in its own clustered segments
+  LSM // changes are buffered in memory and written out as sorted runs that are merged over time
+}
@@ -19,4 +19,31 @@ public class Global {
 
   public static final String S_URL_INTERNAL = "jdbc:default:connection";
   public static final String DATA_DIRECTORY = "data/";
+
+  // read table pages through memory-mapped files instead of FileChannel reads
+  public static boolean PAGE_MMAP_ENABLED = Boolean.getBoolean("thssdb.page.mmap");
+  // keep the rows of cached data pages encoded in direct buffers instead of as Row objects
+  public static boolean PAGE_OFF_HEAP = Boolean.getBoolean("thssdb.page.offheap");
+  // memory budget in bytes of the buffer pool shared by all tables
+  public static long BUFFER_POOL_SIZE = Long.getLong("thssdb.buffer.pool.size", 64L << 20);
+  // page replacement policy of the buffer pool: "2q" or "clock"
+  public static String BUFFER_POOL_POLICY = System.getProperty("thssdb.buffer.pool.policy", "2q");
+  // the page flusher wakes up every PAGE_FLUSHER_INTERVAL ms; once more than the high watermark of
+  // the pool is dirty it flushes until only the low watermark is
+  public static long PAGE_FLUSHER_INTERVAL = 100;
+  public static double PAGE_FLUSHER_HIGH_WATERMARK = 0.25;
+  public static double PAGE_FLUSHER_LOW_WATERMARK = 0.10;
+  // every CHECKPOINT_INTERVAL ms the dirty pages of all tables are written and the WAL is marked, so
+  // that recovery only redoes the log after the last checkpoint
+  public static long CHECKPOINT_INTERVAL = Long.getLong("thssdb.checkpoint.interval", 30000L);
+  // pages of a compressed table that have not been read for COLD_PAGE_AGE ms are recompressed at the
+  // strongest level by the next checkpoint
+  public static long COLD_PAGE_AGE = Long.getLong("thssdb.cold.page.age", 600000L);
+  // number of distinct values of each STRING column (other than a primary key) that are stored as
+  // codes of a per-table dictionary; later new values are stored as they are, and 0 turns it off
+  public static int DICTIONARY_SIZE = Integer.getInteger("thssdb.dictionary.size", 256);
+  // bytes of changes an LSM table buffers in memory before writing them out as a sorted run
+  public static long LSM_MEMTABLE_SIZE = Long.getLong("thssdb.lsm.memtable.size", 4L << 20);
+  // number of sorted runs of an LSM table at which the newest of them are merged into one
+  public static int LSM_MAX_RUNS = Integer.getInteger("thssdb.lsm.max.runs", 4);
 }
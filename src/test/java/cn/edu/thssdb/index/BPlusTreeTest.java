@@ -1,13 +1,18 @@
 package cn.edu.thssdb.index;
 
+import cn.edu.thssdb.utils.Pair;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Random;
+import java.util.TreeMap;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 public class BPlusTreeTest {
@@ -59,6 +64,17 @@ public class BPlusTreeTest {
     }
   }
 
+  @Test
+  public void testNeighbor() {
+    BPlusTree<Integer, Integer> sparse = new BPlusTree<>();
+    assertNull(sparse.neighbor(1));
+    for (int i = 0; i < 1000; i++) sparse.put(i * 10, i);
+    assertEquals(Integer.valueOf(50), sparse.neighbor(500));
+    assertEquals(Integer.valueOf(50), sparse.neighbor(505));
+    assertEquals(Integer.valueOf(0), sparse.neighbor(-5));
+    assertEquals(Integer.valueOf(999), sparse.neighbor(100000));
+  }
+
   @Test
   public void testIterator() {
     BPlusTreeIterator<Integer, Integer> iterator = tree.iterator();
@@ -69,4 +85,96 @@ public class BPlusTreeTest {
     }
     assertEquals(values.size(), c);
   }
+
+  @Test
+  public void testIteratorSurvivesChanges() {
+    BPlusTree<Integer, Integer> dense = new BPlusTree<>();
+    for (int i = 0; i < 1000; i++) dense.put(i, i);
+    BPlusTreeIterator<Integer, Integer> iterator = dense.iterator();
+    int expected = 0;
+    while (iterator.hasNext()) {
+      int key = iterator.next().left;
+      assertEquals(expected, key);
+      // drop the key just visited and the one after it, and add one past the end
+      dense.remove(key);
+      if (key < 1000) dense.remove(key + 1);
+      if (key < 500) dense.put(key + 1000, key);
+      expected = key + 2;
+    }
+    assertEquals(1500, expected);
+    assertEquals(0, dense.size());
+  }
+
+  @Test
+  public void testRangeIterator() {
+    BPlusTree<Integer, Integer> sparse = new BPlusTree<>();
+    for (int i = 0; i < 1000; i++) sparse.put(i * 10, i);
+    // thin out the middle so that separators lie below the keys left
+    for (int i = 300; i < 700; i++) {
+      if (i % 7 != 0) sparse.remove(i * 10);
+    }
+    ArrayList<Integer> expected = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      int key = i * 10;
+      if ((i < 300 || i >= 700 || i % 7 == 0) && key >= 2000 && key < 8000) expected.add(key);
+    }
+    assertEquals(expected, collect(sparse.iterator(2000, true, 8000, false)));
+    assertEquals(expected, collect(sparse.iterator(1995, false, 7995, true)));
+    ArrayList<Integer> descending = collect(sparse.descendingIterator(2000, true, 7995, true));
+    Collections.reverse(descending);
+    assertEquals(expected, descending);
+
+    assertEquals(Collections.singletonList(0), collect(sparse.iterator(null, true, 0, true)));
+    assertEquals(
+        Collections.singletonList(9990),
+        collect(sparse.descendingIterator(9980, false, null, true)));
+    assertTrue(collect(sparse.iterator(5, true, 9, true)).isEmpty());
+    assertTrue(collect(sparse.descendingIterator(null, true, -1, true)).isEmpty());
+    assertEquals(sparse.size(), collect(sparse.descendingIterator(null, true, null, true)).size());
+  }
+
+  @Test
+  public void testPrimitiveKeys() {
+    BPlusTree<Integer, Integer> ints = new BPlusTree<>(KeyLayout.ints(Integer::intValue, i -> i));
+    BPlusTree<Long, Integer> longs = new BPlusTree<>(KeyLayout.longs(Long::longValue, l -> l));
+    TreeMap<Integer, Integer> expected = new TreeMap<>();
+    Random random = new Random(3);
+    for (int i = 0; i < 20000; i++) {
+      // keys of both signs, and longs beyond the range of ints
+      int key = random.nextInt(4000) - 2000;
+      long wide = key * (1L << 40);
+      if (expected.containsKey(key)) {
+        ints.remove(key);
+        longs.remove(wide);
+        expected.remove(key);
+      } else {
+        ints.put(key, i);
+        longs.put(wide, i);
+        expected.put(key, i);
+      }
+    }
+    assertEquals(expected.size(), ints.size());
+    assertEquals(expected.size(), longs.size());
+    for (int key = -2000; key < 2000; key++) {
+      assertEquals(expected.containsKey(key), ints.contains(key));
+      assertEquals(expected.containsKey(key), longs.contains(key * (1L << 40)));
+      if (expected.containsKey(key)) assertEquals(expected.get(key), ints.get(key));
+    }
+    assertEquals(new ArrayList<>(expected.keySet()), collect(ints.iterator()));
+    assertEquals(
+        new ArrayList<>(expected.subMap(-500, false, 500, true).keySet()),
+        collect(ints.iterator(-500, false, 500, true)));
+    ArrayList<Long> wide = new ArrayList<>();
+    for (Pair<Long, Integer> entry : longs) wide.add(entry.left);
+    assertEquals(expected.size(), wide.size());
+    for (int i = 0; i < wide.size(); i++) {
+      assertEquals(expected.keySet().toArray()[i], (int) (wide.get(i) >> 40));
+    }
+  }
+
+  private static ArrayList<Integer> collect(BPlusTreeIterator<Integer, Integer> iterator) {
+    ArrayList<Integer> keys = new ArrayList<>();
+    while (iterator.hasNext()) keys.add(iterator.next().left);
+    return keys;
+  }
 }
@@ -0,0 +1,65 @@
+package cn.edu.thssdb.index;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PagedNodeStoreTest {
+  private File file;
+
+  @Before
+  public void setUp() throws IOException {
+    file = File.createTempFile("index", ".data");
+    assertTrue(file.delete());
+  }
+
+  @After
+  public void tearDown() {
+    file.delete();
+  }
+
+  private PagedNodeStore<Integer, Integer> open() {
+    return new PagedNodeStore<>(
+        file.getPath(), Serializer.INTEGER, Serializer.INTEGER, new ReentrantReadWriteLock());
+  }
+
+  @Test
+  public void testDrop() {
+    PagedNodeStore<Integer, Integer> store = open();
+    assertFalse(store.isTrusted());
+    BPlusTree<Integer, Integer> tree = new BPlusTree<>(store);
+    for (int i = 0; i < 1000; i++) tree.put(i, -i);
+    store.save();
+    store.drop();
+    assertFalse(file.exists());
+  }
+
+  @Test
+  public void testSaveAndLoad() {
+    PagedNodeStore<Integer, Integer> store = open();
+    BPlusTree<Integer, Integer> tree = new BPlusTree<>(store);
+    int size = 10000;
+    for (int i = 0; i < size; i++) tree.put(i, -i);
+    for (int i = 0; i < size; i += 2) tree.remove(i);
+    store.save();
+
+    PagedNodeStore<Integer, Integer> reopened = open();
+    assertTrue(reopened.isTrusted());
+    tree = new BPlusTree<>(reopened);
+    assertEquals(size / 2, tree.size());
+    for (int i = 1; i < size; i += 2) assertEquals(Integer.valueOf(-i), tree.get(i));
+    for (int i = 0; i < size; i += 2) assertFalse(tree.contains(i));
+
+    // a change that is not saved leaves the file untrusted
+    tree.put(0, 0);
+    assertFalse(open().isTrusted());
+  }
+}
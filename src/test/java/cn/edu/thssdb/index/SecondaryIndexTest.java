@@ -0,0 +1,93 @@
+package cn.edu.thssdb.index;
+
+import cn.edu.thssdb.schema.Column;
+import cn.edu.thssdb.schema.Entry;
+import cn.edu.thssdb.storage.KeyRange;
+import cn.edu.thssdb.type.ColumnType;
+import cn.edu.thssdb.utils.Global;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SecondaryIndexTest {
+  private SecondaryIndex index;
+
+  @Before
+  public void setUp() {
+    index = new SecondaryIndex("by_value", 1);
+    // primary key i holds the value i % 10, and every tenth row a null
+    for (int i = 0; i < 100; i++) {
+      index.put(new Entry(i % 10 == 9 ? null : i % 10), new Entry(i));
+    }
+  }
+
+  private static List<Integer> primaries(ArrayList<Entry> entries) {
+    List<Integer> primaries = new ArrayList<>();
+    for (Entry entry : entries) primaries.add((Integer) entry.value);
+    return primaries;
+  }
+
+  @Test
+  public void testFind() {
+    assertEquals(90, index.size());
+    assertEquals(
+        Arrays.asList(3, 13, 23, 33, 43, 53, 63, 73, 83, 93),
+        primaries(index.find(KeyRange.of(new Entry(3)))));
+    assertEquals(0, index.find(KeyRange.of(new Entry(9))).size());
+    assertEquals(90, index.find(KeyRange.ALL).size());
+    // values 7 and 8, the lower end left out
+    List<Integer> found =
+        primaries(index.find(new KeyRange(new Entry(6), false, new Entry(8), true)));
+    assertEquals(20, found.size());
+    assertEquals(Integer.valueOf(7), found.get(0));
+    assertEquals(Integer.valueOf(98), found.get(19));
+    assertEquals(30, index.find(new KeyRange(null, true, new Entry(3), false)).size());
+  }
+
+  @Test
+  public void testRemove() {
+    index.remove(new Entry(3), new Entry(13));
+    index.remove(new Entry(null), new Entry(29));
+    assertEquals(89, index.size());
+    assertEquals(
+        Arrays.asList(3, 23, 33, 43, 53, 63, 73, 83, 93),
+        primaries(index.find(KeyRange.of(new Entry(3)))));
+    index.put(new Entry(3), new Entry(13));
+    assertEquals(10, index.find(KeyRange.of(new Entry(3))).size());
+  }
+
+  @Test
+  public void testPersist() {
+    new File(Global.DATA_DIRECTORY).mkdirs();
+    String file = Global.DATA_DIRECTORY + "sindex#_#secondary_index_test.data";
+    Column value = new Column("v", ColumnType.STRING, 0, false, 8);
+    Column primary = new Column("id", ColumnType.INT, 1, true, -1);
+    SecondaryIndex paged = new SecondaryIndex("by_value", 1, file, value, primary);
+    try {
+      for (int i = 0; i < 1000; i++) paged.put(new Entry("v" + i % 10), new Entry(i));
+      paged.persist();
+
+      SecondaryIndex reopened = new SecondaryIndex("by_value", 1, file, value, primary);
+      assertTrue(reopened.isTrusted());
+      assertEquals(1000, reopened.size());
+      List<Integer> found = primaries(reopened.find(KeyRange.of(new Entry("v3"))));
+      assertEquals(100, found.size());
+      assertEquals(Integer.valueOf(3), found.get(0));
+      assertEquals(Integer.valueOf(993), found.get(99));
+
+      // a change after the save leaves the file for the table to fill again
+      reopened.remove(new Entry("v3"), new Entry(3));
+      assertFalse(new SecondaryIndex("by_value", 1, file, value, primary).isTrusted());
+    } finally {
+      paged.drop();
+    }
+  }
+}
@@ -0,0 +1,188 @@
+package cn.edu.thssdb.schema;
+
+import cn.edu.thssdb.index.SecondaryIndex;
+import cn.edu.thssdb.storage.KeyRange;
+import cn.edu.thssdb.type.ColumnType;
+import cn.edu.thssdb.utils.Global;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CheckpointRecoveryTest {
+  private static final String NAME = "checkpoint_test";
+  private static final String CRASHED = "checkpoint_test_crashed";
+  private Database database;
+  private Database recovered;
+
+  @Before
+  public void setUp() {
+    new File(Global.DATA_DIRECTORY).mkdirs();
+    database = new Database(NAME);
+    database.create(
+        "t",
+        new Column[] {
+          new Column("id", ColumnType.INT, 1, true, -1), new Column("v", ColumnType.INT, 0, false, -1)
+        });
+  }
+
+  @After
+  public void tearDown() {
+    database.dropSelf();
+    if (recovered != null) recovered.dropSelf();
+  }
+
+  /** Copies the files of a database as they are on disk, as if it crashed now. */
+  private static void copyFiles(String from, String to) throws IOException {
+    for (File file : new File(Global.DATA_DIRECTORY).listFiles()) {
+      String name = file.getName();
+      String copy;
+      if (name.equals(from + ".log")) copy = to + ".log";
+      else if (name.contains("#_#" + from + "#_#"))
+        copy = name.replace("#_#" + from + "#_#", "#_#" + to + "#_#");
+      else continue;
+      Files.copy(
+          file.toPath(),
+          new File(Global.DATA_DIRECTORY + copy).toPath(),
+          StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  private static int count(Table table) {
+    int rows = 0;
+    for (Iterator<Row> iterator = table.iterator(); iterator.hasNext(); iterator.next()) rows++;
+    return rows;
+  }
+
+  private void insert(int id) {
+    database.insert("t", null, new String[] {String.valueOf(id), String.valueOf(-id)}, 1, true);
+  }
+
+  @Test
+  public void testCheckpointBetweenLogAndInsert() throws Exception {
+    for (int i = 0; i < 100; i++) insert(i);
+    database.checkpoint();
+
+    // the writer stops the inserting thread right after its record reaches the log
+    CountDownLatch logged = new CountDownLatch(1);
+    CountDownLatch resume = new CountDownLatch(1);
+    Thread[] inserter = new Thread[1];
+    database.logWriter.close();
+    database.logWriter =
+        new FileWriter(Global.DATA_DIRECTORY + NAME + ".log", true) {
+          @Override
+          public void flush() throws IOException {
+            super.flush();
+            if (Thread.currentThread() == inserter[0] && logged.getCount() > 0) {
+              logged.countDown();
+              try {
+                resume.await();
+              } catch (InterruptedException e) {
+                throw new IOException(e);
+              }
+            }
+          }
+        };
+    inserter[0] = new Thread(() -> insert(100));
+    inserter[0].start();
+    assertTrue(logged.await(10, TimeUnit.SECONDS));
+
+    // a checkpoint starting now must not leave the logged row out of both the pages and the redo
+    Thread checkpointer = new Thread(database::checkpoint);
+    checkpointer.start();
+    checkpointer.join(200);
+    resume.countDown();
+    inserter[0].join();
+    checkpointer.join();
+    assertEquals(101, count(database.get("t")));
+
+    // the row is still only in memory unless the checkpoint wrote it
+    copyFiles(NAME, CRASHED);
+    recovered = new Database(CRASHED);
+    recovered.loadLog();
+    assertEquals(101, count(recovered.get("t")));
+  }
+
+  private static List<String> log(String name) throws IOException {
+    return Files.readAllLines(
+        new File(Global.DATA_DIRECTORY + name + ".log").toPath(), Charset.defaultCharset());
+  }
+
+  @Test
+  public void testCheckpointTruncatesLog() throws Exception {
+    for (int i = 0; i < 100; i++) insert(i);
+    database.checkpoint();
+    assertEquals(2, log(NAME).size());
+
+    insert(100);
+    database.checkpoint();
+    assertEquals(2, log(NAME).size());
+
+    copyFiles(NAME, CRASHED);
+    recovered = new Database(CRASHED);
+    recovered.loadLog();
+    assertEquals(101, count(recovered.get("t")));
+  }
+
+  @Test
+  public void testCheckpointKeepsOpenTransaction() throws Exception {
+    for (int i = 0; i < 100; i++) insert(i);
+    database.writeLog("begin##transaction", 2);
+    for (int i = 100; i < 110; i++) {
+      database.insert("t", null, new String[] {String.valueOf(i), String.valueOf(-i)}, 2, true);
+    }
+    database.checkpoint();
+    // the transaction is still open, so an undo needs its records from before the checkpoint
+    List<String> log = log(NAME);
+    assertEquals(13, log.size());
+    assertEquals("2##begin##transaction", log.get(0));
+    for (String record : log) assertFalse(record.startsWith("1##"));
+
+    copyFiles(NAME, CRASHED);
+    recovered = new Database(CRASHED);
+    recovered.loadLog();
+    assertEquals(100, count(recovered.get("t")));
+  }
+
+  private SecondaryIndex recoverIndex() throws IOException {
+    if (recovered != null) recovered.dropSelf();
+    copyFiles(NAME, CRASHED);
+    recovered = new Database(CRASHED);
+    recovered.loadLog();
+    return recovered.get("t").getIndexes().iterator().next();
+  }
+
+  @Test
+  public void testCheckpointKeepsSecondaryIndex() throws Exception {
+    database.createIndex("t", "by_v", "v");
+    for (int i = 0; i < 100; i++) insert(i);
+    database.checkpoint();
+
+    // read from its file as saved at the checkpoint
+    SecondaryIndex index = recoverIndex();
+    assertTrue(index.isTrusted());
+    assertEquals(100, index.size());
+    assertEquals(1, index.find(KeyRange.of(new Entry(-99))).size());
+
+    // changed since, so filled again from the rows
+    insert(100);
+    index = recoverIndex();
+    assertFalse(index.isTrusted());
+    assertEquals(101, index.size());
+    assertEquals(1, index.find(KeyRange.of(new Entry(-100))).size());
+  }
+}
@@ -0,0 +1,121 @@
+package cn.edu.thssdb.schema;
+
+import cn.edu.thssdb.exception.DuplicateKeyException;
+import cn.edu.thssdb.storage.KeyRange;
+import cn.edu.thssdb.type.ColumnType;
+import cn.edu.thssdb.type.EngineType;
+import cn.edu.thssdb.utils.Global;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ConcurrentInsertTest {
+  private static final int THREADS = 4;
+  private static final int ROWS = 3000; // inserted by each thread
+  private static final int SHARED = 500; // keys every thread tries to insert
+  private Database database;
+
+  @Before
+  public void setUp() {
+    new File(Global.DATA_DIRECTORY).mkdirs();
+    database = new Database("concurrent_insert_test");
+  }
+
+  @After
+  public void tearDown() {
+    database.dropSelf();
+  }
+
+  private Table create(String name, EngineType engine) {
+    database.create(
+        name,
+        new Column[] {
+          new Column("id", ColumnType.INT, 1, true, -1),
+          new Column("v", ColumnType.INT, 0, false, -1)
+        },
+        engine);
+    database.createIndex(name, "by_v", "v");
+    return database.get(name);
+  }
+
+  private static void insert(Table table, int id) {
+    table.insert(new String[] {String.valueOf(id), String.valueOf(-id)});
+  }
+
+  @Test
+  public void testHeap() throws InterruptedException {
+    check(create("heap", EngineType.HEAP));
+  }
+
+  @Test
+  public void testClustered() throws InterruptedException {
+    check(create("clustered", EngineType.CLUSTERED));
+  }
+
+  /**
+   * Inserts from several threads while others look rows up, each thread its own keys and all of
+   * them the shared ones, of which exactly one insert each must succeed.
+   */
+  private void check(Table table) throws InterruptedException {
+    assertTrue(table.storage.concurrentInserts());
+    for (int i = 0; i < SHARED; i++) insert(table, i);
+    AtomicReference<Throwable> failure = new AtomicReference<>();
+    AtomicInteger duplicates = new AtomicInteger();
+    ArrayList<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < THREADS; t++) {
+      int base = SHARED + t * ROWS;
+      threads.add(
+          new Thread(
+              () -> {
+                try {
+                  for (int i = 0; i < ROWS; i++) {
+                    insert(table, base + i);
+                    try {
+                      insert(table, i % SHARED);
+                    } catch (DuplicateKeyException e) {
+                      duplicates.incrementAndGet();
+                    }
+                  }
+                } catch (Throwable e) {
+                  failure.compareAndSet(null, e);
+                }
+              }));
+      threads.add(
+          new Thread(
+              () -> {
+                try {
+                  for (int round = 0; round < 3; round++) {
+                    for (int i = 0; i < SHARED; i++) {
+                      Row row = table.get(new Entry(i));
+                      if (!row.getEntry(1).equals(new Entry(-i))) throw new AssertionError(row);
+                    }
+                  }
+                } catch (Throwable e) {
+                  failure.compareAndSet(null, e);
+                }
+              }));
+    }
+    for (Thread thread : threads) thread.start();
+    for (Thread thread : threads) thread.join();
+    assertNull(failure.get());
+    assertEquals(THREADS * ROWS, duplicates.get());
+
+    int rows = SHARED + THREADS * ROWS;
+    int count = 0;
+    for (Iterator<Row> iterator = table.iterator(); iterator.hasNext(); iterator.next()) count++;
+    assertEquals(rows, count);
+    for (int i = 0; i < rows; i++) assertEquals(new Entry(-i), table.get(new Entry(i)).getEntry(1));
+    assertEquals(rows, table.getIndexes().iterator().next().size());
+    assertEquals(1, table.getIndexes().iterator().next().find(KeyRange.of(new Entry(-7))).size());
+  }
+}
@@ -0,0 +1,85 @@
+package cn.edu.thssdb.storage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CompressedTableSpaceTest {
+  private File file;
+
+  @Before
+  public void setUp() throws IOException {
+    file = File.createTempFile("space", ".data");
+    assertTrue(file.delete());
+  }
+
+  @After
+  public void tearDown() {
+    file.delete();
+  }
+
+  private static ByteBuffer image(int seed) {
+    Random random = new Random(seed);
+    ByteBuffer image = ByteBuffer.allocate(Page.PAGE_SIZE);
+    int length = random.nextInt(Page.PAGE_SIZE);
+    for (int i = 0; i < length; i++) image.put(i, (byte) random.nextInt(seed % 2 == 0 ? 4 : 256));
+    return image;
+  }
+
+  @Test
+  public void testWriteAndReopen() {
+    CompressedTableSpace space = new CompressedTableSpace(file.getPath());
+    for (int i = 1; i <= 100; i++) space.writePage(i, image(i));
+    for (int i = 1; i <= 100; i += 3) space.writePage(i, image(-i));
+    assertTrue(file.length() < 100L * Page.PAGE_SIZE);
+    space.close();
+
+    space = new CompressedTableSpace(file.getPath());
+    assertEquals(100, space.getPageCount());
+    for (int i = 1; i <= 100; i++) {
+      assertEquals(image(i % 3 == 1 ? -i : i), space.readPage(i));
+    }
+    space.close();
+  }
+
+  @Test
+  public void testTruncateAndReuse() {
+    CompressedTableSpace space = new CompressedTableSpace(file.getPath());
+    for (int i = 1; i <= 50; i++) space.writePage(i, image(i));
+    long length = file.length();
+    space.truncate(10);
+    assertTrue(file.length() < length);
+    for (int i = 11; i <= 50; i++) space.writePage(i, image(i + 1));
+    for (int i = 1; i <= 10; i++) space.writePage(i, image(i + 1));
+    space.close();
+
+    space = new CompressedTableSpace(file.getPath());
+    assertEquals(50, space.getPageCount());
+    for (int i = 1; i <= 50; i++) assertEquals(image(i + 1), space.readPage(i));
+    space.close();
+  }
+
+  @Test
+  public void testCompressCold() {
+    CompressedTableSpace space = new CompressedTableSpace(file.getPath());
+    for (int i = 1; i <= 20; i++) space.writePage(i, image(2 * i));
+    assertEquals(0, space.compressCold(60000));
+    assertEquals(20, space.compressCold(-1));
+    assertEquals(0, space.compressCold(-1));
+    for (int i = 1; i <= 20; i++) assertEquals(image(2 * i), space.readPage(i));
+    space.close();
+
+    space = new CompressedTableSpace(file.getPath());
+    assertEquals(0, space.compressCold(-1));
+    for (int i = 1; i <= 20; i++) assertEquals(image(2 * i), space.readPage(i));
+    space.close();
+  }
+}
@@ -0,0 +1,92 @@
+package cn.edu.thssdb.storage;
+
+import cn.edu.thssdb.schema.Column;
+import cn.edu.thssdb.schema.Entry;
+import cn.edu.thssdb.schema.Row;
+import cn.edu.thssdb.type.ColumnType;
+import cn.edu.thssdb.type.ConditionType;
+import cn.edu.thssdb.utils.Global;
+import cn.edu.thssdb.utils.Pair;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Predicate;
+
+import static org.junit.Assert.assertNull;
+
+public class ConcurrentScanTest {
+  private static final int ROWS = 5000;
+  private static final int THREADS = 4;
+  private Storage storage;
+
+  @Before
+  public void setUp() {
+    new File(Global.DATA_DIRECTORY).mkdirs();
+    storage =
+        new Storage(
+            "concurrent_scan_test",
+            "t",
+            Arrays.asList(
+                new Column("id", ColumnType.INT, 1, true, -1),
+                new Column("v", ColumnType.INT, 0, false, -1)));
+    for (int i = 0; i < ROWS; i++) {
+      storage.insertRow(new ArrayList<>(Arrays.asList(new Entry(i), new Entry(i % 100))), 0);
+    }
+    storage.persist();
+  }
+
+  @After
+  public void tearDown() {
+    storage.dropSelf();
+  }
+
+  @Test
+  public void testFilteredScansWhilePagesLoad() throws InterruptedException {
+    // every page holds values on both sides of 50, so no page may be left out
+    Predicate<ZoneMap> filter = zones -> zones.mayMatch(1, ConditionType.GE, 50);
+    AtomicReference<Throwable> failure = new AtomicReference<>();
+    ArrayList<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < THREADS; t++) {
+      // each scanner reads in the pages it meets while the others judge them by their zones
+      threads.add(
+          new Thread(
+              () -> {
+                try {
+                  for (int round = 0; round < 20; round++) {
+                    int matched = 0;
+                    Iterator<Pair<Entry, Long>> iterator =
+                        storage.getIndexIter(KeyRange.ALL, filter);
+                    while (iterator.hasNext()) {
+                      Row row = storage.getRow(iterator.next().right, true);
+                      if ((Integer) row.getEntries().get(1).value >= 50) matched++;
+                    }
+                    if (matched != ROWS / 2) throw new AssertionError("matched " + matched);
+                  }
+                } catch (Throwable e) {
+                  failure.compareAndSet(null, e);
+                }
+              }));
+    }
+    // an evictor keeps taking the pages out, so that they are read in again and again
+    Thread evictor =
+        new Thread(
+            () -> {
+              while (!Thread.currentThread().isInterrupted()) {
+                storage.evictAll();
+                Thread.yield();
+              }
+            });
+    evictor.start();
+    for (Thread thread : threads) thread.start();
+    for (Thread thread : threads) thread.join();
+    evictor.interrupt();
+    evictor.join();
+    assertNull(failure.get());
+  }
+}
@@ -0,0 +1,104 @@
+package cn.edu.thssdb.storage;
+
+import cn.edu.thssdb.schema.Column;
+import cn.edu.thssdb.schema.Entry;
+import cn.edu.thssdb.schema.Row;
+import cn.edu.thssdb.type.ColumnType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static cn.edu.thssdb.utils.Global.DICTIONARY_SIZE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DictionaryStoreTest {
+  private static final List<Column> COLUMNS =
+      Arrays.asList(
+          new Column("id", ColumnType.STRING, 1, true, 16),
+          new Column("n", ColumnType.INT, 0, false, -1),
+          new Column("s", ColumnType.STRING, 0, false, 16));
+
+  private File file;
+
+  @Before
+  public void setUp() throws IOException {
+    file = File.createTempFile("dict", ".data");
+    assertTrue(file.delete());
+  }
+
+  @After
+  public void tearDown() {
+    file.delete();
+  }
+
+  private static ArrayList<Entry> entries(int i) {
+    return new ArrayList<>(
+        Arrays.asList(new Entry("k" + i), new Entry(i), new Entry(i % 5 == 0 ? null : "v" + i)));
+  }
+
+  private static Row entriesRow(int i) {
+    return new Row(entries(i).toArray(new Entry[0]));
+  }
+
+  @Test
+  public void testCodesSurviveReopen() throws IOException {
+    DictionaryStore store = new DictionaryStore(file.getPath(), COLUMNS);
+    StringDictionary[] dictionaries = store.getDictionaries();
+    assertNull(dictionaries[0]);
+    assertNull(dictionaries[1]);
+    StringDictionary dictionary = dictionaries[2];
+    for (int i = 0; i < DICTIONARY_SIZE + 10; i++) {
+      int code = dictionary.encode("v" + i);
+      assertEquals(i < DICTIONARY_SIZE ? i : -1, code);
+    }
+    assertEquals(3, dictionary.encode("v3"));
+    assertEquals(DICTIONARY_SIZE, dictionary.size());
+
+    // a record cut short by a crash is dropped, the ones before it are kept
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      raf.setLength(raf.length() - 1);
+    }
+    dictionary = new DictionaryStore(file.getPath(), COLUMNS).getDictionaries()[2];
+    assertEquals(DICTIONARY_SIZE - 1, dictionary.size());
+    for (int i = 0; i < DICTIONARY_SIZE - 1; i++) assertEquals(i, dictionary.codeOf("v" + i));
+    assertEquals(DICTIONARY_SIZE - 1, dictionary.encode("w"));
+
+    dictionary = new DictionaryStore(file.getPath(), COLUMNS).getDictionaries()[2];
+    assertEquals("w", dictionary.valueOf(DICTIONARY_SIZE - 1));
+  }
+
+  @Test
+  public void testCodedPage() {
+    DictionaryStore store = new DictionaryStore(file.getPath(), COLUMNS);
+    PageCodec codec = new PageCodec(COLUMNS, store.getDictionaries());
+    PageCodec plain = new PageCodec(COLUMNS);
+    ArrayList<Row> rows = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      Row row = codec.compact(entries(i % 10));
+      rows.add(row);
+      // a coded string takes only its 2-byte length field
+      int saved = i % 5 == 0 ? 0 : ("v" + i % 10).length();
+      assertEquals(plain.rowSize(entriesRow(i % 10)) - saved, codec.rowSize(row));
+    }
+    ByteBuffer image = codec.encodePage(rows);
+    ArrayList<Row> decoded = codec.decodePage(image);
+    for (int i = 0; i < rows.size(); i++) {
+      Row row = decoded.get(i);
+      assertEquals(rows.get(i).toString(), row.toString());
+      assertEquals(
+          i % 5 == 0 ? -1 : store.getDictionaries()[2].codeOf("v" + i % 10), row.getCode(2));
+      int offset = image.getShort(Page.HEADER_SIZE + i * Page.SLOT_SIZE) & 0xFFFF;
+      assertEquals(row.getEntry(2).toString(), codec.decodeEntry(image, offset, 2).toString());
+    }
+  }
+}
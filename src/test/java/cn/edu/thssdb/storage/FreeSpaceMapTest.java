@@ -0,0 +1,26 @@
+package cn.edu.thssdb.storage;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class FreeSpaceMapTest {
+  @Test
+  public void testFind() {
+    FreeSpaceMap map = new FreeSpaceMap();
+    for (int i = 1; i <= 100; i++) map.set(i, 10);
+    assertEquals(0, map.find(100, 101));
+    map.set(70, 500);
+    map.set(40, 200);
+    assertEquals(40, map.find(100, 101));
+    assertEquals(70, map.find(300, 101));
+    assertEquals(0, map.find(300, 70));
+    // free space is rounded down, so a page is never reported with more room than it has
+    map.set(40, 2 * FreeSpaceMap.STEP - 1);
+    assertEquals(FreeSpaceMap.STEP, map.get(40));
+    assertEquals(70, map.find(2 * FreeSpaceMap.STEP - 1, 101));
+    map.truncate(50);
+    assertEquals(0, map.find(300, 101));
+    assertEquals(40, map.find(FreeSpaceMap.STEP, 101));
+  }
+}
@@ -0,0 +1,96 @@
+package cn.edu.thssdb.storage;
+
+import cn.edu.thssdb.schema.Column;
+import cn.edu.thssdb.schema.Entry;
+import cn.edu.thssdb.schema.Row;
+import cn.edu.thssdb.type.ColumnType;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class OffHeapPageTest {
+  private PageCodec codec;
+  private BufferPool pool;
+
+  @Before
+  public void setUp() {
+    codec =
+        new PageCodec(
+            Arrays.asList(
+                new Column("id", ColumnType.INT, 1, true, -1),
+                new Column("s", ColumnType.STRING, 0, false, 200)));
+    pool = new BufferPool(0);
+  }
+
+  private Row row(int id, int length) {
+    char[] chars = new char[length];
+    Arrays.fill(chars, (char) ('a' + id % 26));
+    return new Row(new Entry[] {new Entry(id), new Entry(new String(chars))});
+  }
+
+  private int length(Row row) {
+    return codec.rowSize(row) + Page.SLOT_SIZE;
+  }
+
+  private void assertSame(Page expected, Page actual) {
+    assertEquals(expected.getSize(), actual.getSize());
+    assertEquals(expected.getSlotCount(), actual.getSlotCount());
+    for (int slot = 0; slot < expected.getSlotCount(); slot++) {
+      Row row = expected.getRow(slot);
+      if (row == null) {
+        assertNull(actual.getRow(slot));
+        assertNull(actual.getEntry(slot, 0));
+      } else {
+        assertEquals(row.toString(), actual.getRow(slot).toString());
+        assertEquals(row.getEntries().get(0), actual.getEntry(slot, 0));
+      }
+    }
+  }
+
+  @Test
+  public void testMatchesHeapPage() {
+    Page heap = new Page(1, null, codec);
+    OffHeapPage offHeap = new OffHeapPage(1, null, codec, pool);
+    Random random = new Random(7);
+    ArrayList<Integer> used = new ArrayList<>();
+    for (int i = 0; i < 5000; i++) {
+      int op = random.nextInt(3);
+      if (op == 0 || used.isEmpty()) {
+        Row row = row(i, random.nextInt(200));
+        if (heap.getSize() + length(row) > Page.CAPACITY) continue;
+        int slot = heap.insertRow(row, length(row));
+        assertEquals(slot, offHeap.insertRow(row, length(row)));
+        used.add(slot);
+      } else {
+        int slot = used.get(random.nextInt(used.size()));
+        Row old = heap.getRow(slot);
+        if (op == 1) {
+          heap.removeRow(slot, length(old));
+          offHeap.removeRow(slot, length(old));
+          used.remove(Integer.valueOf(slot));
+        } else {
+          Row row = row(i, random.nextInt(200));
+          if (heap.getSize() - length(old) + length(row) > Page.CAPACITY) continue;
+          heap.updateRow(slot, row, length(old), length(row));
+          offHeap.updateRow(slot, row, length(old), length(row));
+        }
+      }
+      assertSame(heap, offHeap);
+    }
+
+    Page loaded = new Page(1, null, codec);
+    loaded.load(offHeap.toImage());
+    assertSame(heap, loaded);
+    OffHeapPage reloaded = new OffHeapPage(1, null, codec, pool);
+    reloaded.load(heap.toImage());
+    assertSame(heap, reloaded);
+    offHeap.free();
+    reloaded.free();
+  }
+}
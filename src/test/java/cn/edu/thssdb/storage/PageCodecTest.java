@@ -0,0 +1,90 @@
+package cn.edu.thssdb.storage;
+
+import cn.edu.thssdb.schema.Column;
+import cn.edu.thssdb.schema.Entry;
+import cn.edu.thssdb.schema.Row;
+import cn.edu.thssdb.type.ColumnType;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PageCodecTest {
+  private PageCodec codec;
+  private ArrayList<Row> rows;
+
+  @Before
+  public void setUp() {
+    codec =
+        new PageCodec(
+            Arrays.asList(
+                new Column("id", ColumnType.INT, 1, true, -1),
+                new Column("l", ColumnType.LONG, 0, false, -1),
+                new Column("f", ColumnType.FLOAT, 0, false, -1),
+                new Column("d", ColumnType.DOUBLE, 0, false, -1),
+                new Column("s", ColumnType.STRING, 0, false, 16)));
+    rows = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      rows.add(
+          new Row(
+              new Entry[] {
+                new Entry(i),
+                new Entry(i % 3 == 0 ? null : (long) i << 33),
+                new Entry(i / 4f),
+                new Entry(i % 5 == 0 ? null : i * 1.5),
+                new Entry(i % 7 == 0 ? null : "行" + i)
+              }));
+    }
+  }
+
+  @Test
+  public void testRoundTrip() {
+    ByteBuffer image = codec.encodePage(rows);
+    assertEquals(Page.PAGE_SIZE, image.remaining());
+    assertTrue(PageCodec.isPageImage(image));
+    ArrayList<Row> decoded = codec.decodePage(image);
+    assertEquals(rows.size(), decoded.size());
+    for (int i = 0; i < rows.size(); i++) {
+      assertEquals(rows.get(i).toString(), decoded.get(i).toString());
+    }
+  }
+
+  @Test
+  public void testEmptySlots() {
+    for (int i = 0; i < rows.size(); i += 3) rows.set(i, null);
+    ArrayList<Row> decoded = codec.decodePage(codec.encodePage(rows));
+    assertEquals(rows.size(), decoded.size());
+    for (int i = 0; i < rows.size(); i++) {
+      if (rows.get(i) == null) assertNull(decoded.get(i));
+      else assertEquals(rows.get(i).toString(), decoded.get(i).toString());
+    }
+  }
+
+  @Test
+  public void testDecodeEntry() {
+    ByteBuffer image = codec.encodePage(rows);
+    for (int i = 0; i < rows.size(); i++) {
+      int offset = image.getShort(Page.HEADER_SIZE + i * Page.SLOT_SIZE) & 0xFFFF;
+      for (int column = 0; column < 5; column++) {
+        assertEquals(
+            rows.get(i).getEntries().get(column).toString(),
+            codec.decodeEntry(image, offset, column).toString());
+      }
+    }
+  }
+
+  @Test
+  public void testRowSize() {
+    for (Row row : rows) {
+      ByteBuffer buffer = ByteBuffer.allocate(Page.PAGE_SIZE);
+      codec.encodeRow(row, buffer);
+      assertEquals(codec.rowSize(row), buffer.position());
+    }
+  }
+}
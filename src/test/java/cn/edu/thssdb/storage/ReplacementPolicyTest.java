@@ -0,0 +1,67 @@
+package cn.edu.thssdb.storage;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ReplacementPolicyTest {
+  private static final int CAPACITY = 64;
+
+  /** Fills half the pool with hot pages, scans through it and checks that no hot page is lost. */
+  private void checkScanResistance(ReplacementPolicy policy) {
+    HashSet<Page> hot = new HashSet<>();
+    ArrayList<Page> resident = new ArrayList<>();
+    for (int i = 0; i < CAPACITY / 2; i++) {
+      Page page = new Page(i, null);
+      policy.admit(page, false);
+      policy.access(page, false);
+      hot.add(page);
+      resident.add(page);
+    }
+    for (int i = CAPACITY / 2; i < 10 * CAPACITY; i++) {
+      if (policy.size() >= CAPACITY) {
+        Page victim = policy.victims().next();
+        assertFalse(hot.contains(victim));
+        policy.remove(victim);
+        resident.remove(victim);
+      }
+      Page page = new Page(i, null);
+      policy.admit(page, true);
+      policy.access(page, true);
+      resident.add(page);
+      // the working set keeps being used while the scan runs
+      for (Page hotPage : hot) policy.access(hotPage, false);
+    }
+    assertEquals(CAPACITY, policy.size());
+    assertTrue(resident.containsAll(hot));
+  }
+
+  private void checkVictims(ReplacementPolicy policy) {
+    for (int i = 0; i < CAPACITY; i++) policy.admit(new Page(i, null), false);
+    HashSet<Page> seen = new HashSet<>();
+    Iterator<Page> victims = policy.victims();
+    while (victims.hasNext()) seen.add(victims.next());
+    assertEquals(CAPACITY, seen.size());
+    for (Page page : seen) policy.remove(page);
+    assertEquals(0, policy.size());
+    assertFalse(policy.victims().hasNext());
+  }
+
+  @Test
+  public void testTwoQueue() {
+    checkScanResistance(new TwoQueuePolicy(CAPACITY));
+    checkVictims(new TwoQueuePolicy(CAPACITY));
+  }
+
+  @Test
+  public void testClock() {
+    checkScanResistance(new ClockPolicy());
+    checkVictims(new ClockPolicy());
+  }
+}
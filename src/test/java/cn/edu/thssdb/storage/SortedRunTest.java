@@ -0,0 +1,105 @@
+package cn.edu.thssdb.storage;
+
+import cn.edu.thssdb.schema.Column;
+import cn.edu.thssdb.schema.Entry;
+import cn.edu.thssdb.schema.Row;
+import cn.edu.thssdb.type.ColumnType;
+import cn.edu.thssdb.utils.Pair;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SortedRunTest {
+  private static final List<Column> COLUMNS =
+      Arrays.asList(
+          new Column("id", ColumnType.INT, 1, true, -1),
+          new Column("s", ColumnType.STRING, 0, false, 16));
+  private static final PageCodec CODEC = new PageCodec(COLUMNS);
+  private static final EntrySerializer SERIALIZER = new EntrySerializer(COLUMNS.get(0));
+
+  private File file;
+  private SortedRun run;
+
+  /** Writes the even keys below 1000, with every tenth of them deleted. */
+  @Before
+  public void setUp() throws IOException {
+    file = File.createTempFile("run", ".data");
+    ArrayList<Pair<Entry, Row>> records = new ArrayList<>();
+    for (int i = 0; i < 1000; i += 2) {
+      Row row =
+          i % 20 == 0
+              ? LsmStorage.TOMBSTONE
+              : CODEC.compact(Arrays.asList(new Entry(i), new Entry("v" + i)));
+      records.add(new Pair<>(new Entry(i), row));
+    }
+    assertEquals(500, SortedRun.write(file.getPath(), records.iterator(), 500, CODEC, SERIALIZER));
+    run = new SortedRun(file.getPath(), 0, CODEC, SERIALIZER);
+  }
+
+  @After
+  public void tearDown() {
+    run.drop();
+    assertFalse(file.exists());
+  }
+
+  private static long hash(int key) {
+    ByteBuffer buffer = ByteBuffer.allocate(SERIALIZER.maxBytes());
+    SERIALIZER.write(buffer, new Entry(key));
+    return BloomFilter.hash(buffer.array(), buffer.position());
+  }
+
+  @Test
+  public void testGet() {
+    assertEquals(500, run.getCount());
+    for (int i = -1; i <= 1000; i++) {
+      Row row = run.get(new Entry(i), hash(i));
+      if (i < 0 || i >= 1000 || i % 2 != 0) assertNull(row);
+      else if (i % 20 == 0) assertSame(LsmStorage.TOMBSTONE, row);
+      else assertEquals("v" + i, row.getString(1));
+    }
+  }
+
+  @Test
+  public void testCursor() {
+    SortedRun.Cursor cursor = run.cursor(null);
+    for (int i = 0; i < 1000; i += 2) {
+      assertEquals(new Entry(i), cursor.getKey());
+      assertEquals(i % 20 == 0, cursor.getRow() == LsmStorage.TOMBSTONE);
+      cursor.advance();
+    }
+    assertNull(cursor.getKey());
+
+    cursor = run.cursor(new Entry(99));
+    assertEquals(new Entry(100), cursor.getKey());
+    cursor = run.cursor(new Entry(100));
+    assertEquals(new Entry(102), cursor.getKey());
+    assertEquals(new Entry(100), run.cursor(new Entry(100), true).getKey());
+    assertNull(run.cursor(new Entry(998)).getKey());
+  }
+
+  @Test
+  public void testFilterSkipsAbsentKeys() {
+    BloomFilter filter = new BloomFilter(1000);
+    for (int i = 0; i < 1000; i++) filter.add(hash(i));
+    for (int i = 0; i < 1000; i++) assertTrue(filter.mightContain(hash(i)));
+    int passed = 0;
+    for (int i = 1000; i < 11000; i++) {
+      if (filter.mightContain(hash(i))) passed++;
+    }
+    // about 1% of the absent keys
+    assertTrue(passed < 300);
+  }
+}
@@ -0,0 +1,86 @@
+package cn.edu.thssdb.storage;
+
+import cn.edu.thssdb.schema.Column;
+import cn.edu.thssdb.schema.Entry;
+import cn.edu.thssdb.schema.Row;
+import cn.edu.thssdb.type.ColumnType;
+import cn.edu.thssdb.type.ConditionType;
+import org.junit.Test;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ZoneMapTest {
+  private static final List<Column> COLUMNS =
+      Arrays.asList(
+          new Column("id", ColumnType.INT, 1, true, -1),
+          new Column("s", ColumnType.STRING, 0, false, 16),
+          new Column("n", ColumnType.LONG, 0, false, -1));
+  private static final PageCodec CODEC = new PageCodec(COLUMNS);
+
+  private static Row row(int id, String s, Long n) {
+    return CODEC.compact(Arrays.asList(new Entry(id), new Entry(s), new Entry(n)));
+  }
+
+  @Test
+  public void testBounds() {
+    ZoneMap zones = new ZoneMap(CODEC.getTypes());
+    assertFalse(zones.mayMatch(0, ConditionType.NE, 1));
+    for (int i = 10; i <= 20; i++) zones.add(row(i, "k" + i, null));
+    assertTrue(zones.mayMatch(0, ConditionType.EQ, 10));
+    assertFalse(zones.mayMatch(0, ConditionType.EQ, 21));
+    assertFalse(zones.mayMatch(0, ConditionType.GT, 20));
+    assertTrue(zones.mayMatch(0, ConditionType.GE, 20));
+    assertFalse(zones.mayMatch(0, ConditionType.LT, 10));
+    assertTrue(zones.mayMatch(0, ConditionType.LE, 10));
+    assertTrue(zones.mayMatch(1, ConditionType.GT, "k19"));
+    assertFalse(zones.mayMatch(1, ConditionType.GT, "k20"));
+    // a column of nulls satisfies nothing
+    assertEquals(11, zones.getNulls(2));
+    assertFalse(zones.mayMatch(2, ConditionType.NE, 0));
+    zones.add(row(30, "k30", 7L));
+    assertTrue(zones.mayMatch(2, ConditionType.EQ, 7));
+    assertFalse(zones.mayMatch(2, ConditionType.NE, 7));
+  }
+
+  @Test
+  public void testPageKeepsZones() {
+    Page page = new Page(1, null, CODEC);
+    int slot = page.insertRow(row(5, "a", 1L), 20);
+    page.insertRow(row(9, "b", 2L), 20);
+    assertFalse(page.getZones().mayMatch(0, ConditionType.GT, 9));
+    page.updateRow(slot, row(12, "a", null), 20, 20);
+    assertTrue(page.getZones().mayMatch(0, ConditionType.GT, 9));
+    assertEquals(1, page.getZones().getNulls(2));
+    page.removeRow(slot, 20);
+    assertEquals(1, page.getZones().getRows());
+    assertEquals(0, page.getZones().getNulls(2));
+    // removed rows only leave the bounds when the map is rebuilt
+    assertTrue(page.getZones().mayMatch(0, ConditionType.GT, 9));
+    page.rebuildZones();
+    assertFalse(page.getZones().mayMatch(0, ConditionType.GT, 9));
+  }
+
+  @Test
+  public void testWriteRead() throws IOException {
+    ZoneMap zones = new ZoneMap(CODEC.getTypes());
+    zones.add(row(3, "x", null));
+    zones.add(row(4, null, 8L));
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    zones.write(new DataOutputStream(bytes));
+    ZoneMap read =
+        ZoneMap.read(
+            new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), CODEC.getTypes());
+    assertEquals(2, read.getRows());
+    assertEquals(1, read.getNulls(1));
+    assertTrue(read.mayMatch(0, ConditionType.EQ, 4));
+    assertFalse(read.mayMatch(0, ConditionType.EQ, 5));
+    assertTrue(read.mayMatch(1, ConditionType.EQ, "x"));
+    assertFalse(read.mayMatch(2, ConditionType.LT, 8));
+  }
+}